@@ -0,0 +1,109 @@
+package lox.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lox.ast.Stmt;
+import lox.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The bulk array natives against the same loops written in Lox.
+ *
+ * <p>
+ *   Each benchmark computes a sum or dot product over whole off-heap number arrays,
+ *   either with an interpreted loop over {@code arrayGet} or with one call to the native
+ *   kernel, which loops in Java. The native benchmarks run once with the plain loops and
+ *   once with the Vector API ones, each in its own fork, as the kernels are chosen when
+ *   they are first used.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ArrayKernelBenchmark {
+  /**
+   * Which inner loops the native kernels use: "scalar" or "vector".
+   */
+  @State(Scope.Benchmark)
+  public static class Kernels {
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      System.setProperty("lox.vectorKernels", String.valueOf(kernels.equals("vector")));
+    }
+  }
+
+  @Param({"1000", "1000000"})
+  public int length;
+
+  private Interpreter interpreter;
+  private List<Stmt> interpretedSum;
+  private List<Stmt> nativeSum;
+  private List<Stmt> interpretedDot;
+  private List<Stmt> nativeDot;
+
+  @Setup
+  public void setUp() {
+    interpreter = new Interpreter(new PrintStream(OutputStream.nullOutputStream()),
+        FrontEndBenchmark.FAIL);
+    interpreter.interpret(InterpreterBenchmark.compile(
+        "var n = " + length + ";\n"
+        + "var xs = arrayNew(n);\n"
+        + "var ys = arrayNew(n);\n"
+        + "for (var i = 0; i < n; i = i + 1) {\n"
+        + "  arraySet(xs, i, i * 0.5);\n"
+        + "  arraySet(ys, i, 1 - i);\n"
+        + "}\n"
+        + "var result = 0;\n"));
+    interpretedSum = InterpreterBenchmark.compile(
+        "var sum = 0;\n"
+        + "for (var i = 0; i < n; i = i + 1) { sum = sum + arrayGet(xs, i); }\n"
+        + "result = sum;\n");
+    nativeSum = InterpreterBenchmark.compile("result = arraySum(xs);");
+    interpretedDot = InterpreterBenchmark.compile(
+        "var dot = 0;\n"
+        + "for (var i = 0; i < n; i = i + 1) {\n"
+        + "  dot = dot + arrayGet(xs, i) * arrayGet(ys, i);\n"
+        + "}\n"
+        + "result = dot;\n");
+    nativeDot = InterpreterBenchmark.compile("result = arrayDot(xs, ys);");
+  }
+
+  @Benchmark
+  public void interpretedSum() {
+    interpreter.interpret(interpretedSum);
+  }
+
+  @Benchmark
+  public void nativeSum(Kernels kernels) {
+    interpreter.interpret(nativeSum);
+  }
+
+  @Benchmark
+  public void interpretedDot() {
+    interpreter.interpret(interpretedDot);
+  }
+
+  @Benchmark
+  public void nativeDot(Kernels kernels) {
+    interpreter.interpret(nativeDot);
+  }
+}
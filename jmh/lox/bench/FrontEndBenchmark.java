@@ -0,0 +1,96 @@
+package lox.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lox.ErrorReporter;
+import lox.ast.Stmt;
+import lox.interpreter.Resolver;
+import lox.interpreter.RuntimeError;
+import lox.parser.Parser;
+import lox.scanner.Scanner;
+import lox.scanner.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the Scanner, Parser and Resolver on synthetic programs of growing size,
+ * with {@code units} functions and a quarter as many classes.
+ *
+ * <p>
+ *   Each benchmark runs one phase over the whole program; the phases before it are done
+ *   in setup. Scanning and parsing are also measured together, the way files are
+ *   compiled, both eagerly and with function bodies deferred as the command-line
+ *   interpreter does by default.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrontEndBenchmark {
+  static final ErrorReporter FAIL = new ErrorReporter() {
+    @Override
+    public void report(int line, String where, String message) {
+      throw new IllegalStateException("[line " + line + "] Error" + where + ": " + message);
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+      throw error;
+    }
+  };
+
+  @Param({"100", "1000", "10000"})
+  public int units;
+
+  private String source;
+  private List<Token> tokens;
+  private List<Stmt> statements;
+
+  @Setup
+  public void setUp() {
+    source = ProgramGenerator.generate(new ProgramGenerator.Shape(units, units / 4, 2, 6, 1));
+    tokens = new Scanner(source, FAIL).scanTokens();
+    // Resolving only records scope depths in the tree, so the same tree can be resolved
+    // repeatedly.
+    statements = new Parser(tokens, FAIL).parse();
+  }
+
+  @Benchmark
+  public List<Token> scan() {
+    return new Scanner(source, FAIL).scanTokens();
+  }
+
+  @Benchmark
+  public List<Stmt> parse() {
+    return new Parser(tokens, FAIL).parse();
+  }
+
+  // Scanning on demand as the parser consumes tokens, as the interpreter runs files.
+  @Benchmark
+  public List<Stmt> scanAndParse() {
+    return new Parser(new Scanner(source, FAIL), FAIL, false).parse();
+  }
+
+  @Benchmark
+  public List<Stmt> scanAndParseDeferringBodies() {
+    return new Parser(new Scanner(source, FAIL), FAIL, true).parse();
+  }
+
+  @Benchmark
+  public List<Stmt> resolve() {
+    new Resolver(FAIL).resolve(statements);
+    return statements;
+  }
+}
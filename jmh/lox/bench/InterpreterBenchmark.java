@@ -0,0 +1,139 @@
+package lox.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lox.ast.Stmt;
+import lox.engine.CompiledScript;
+import lox.interpreter.Interpreter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of single Lox operations, run by the tree-walking interpreter.
+ *
+ * <p>
+ *   Each benchmark runs a compiled Lox loop of {@value #OPERATIONS} iterations whose body
+ *   is the operation, against globals set up once by a prelude, and reports the time per
+ *   iteration. {@link #emptyLoop} measures the loop alone, to subtract from the others.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(InterpreterBenchmark.OPERATIONS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpreterBenchmark {
+  static final int OPERATIONS = 10_000;
+
+  private static final String PRELUDE = """
+      class Point {
+        init(x, y) { this.x = x; this.y = y; }
+        sum() { return this.x + this.y; }
+      }
+      class Point3 < Point {
+        init(x, y, z) { super.init(x, y); this.z = z; }
+      }
+      fun identity(x) { return x; }
+      fun counter() {
+        var count = 0;
+        fun increment() { count = count + 1; return count; }
+        return increment;
+      }
+      var point = Point(1, 2);
+      var increment = counter();
+      var text = "";
+      """;
+
+  private Interpreter interpreter;
+  private List<Stmt> emptyLoop;
+  private List<Stmt> functionCall;
+  private List<Stmt> closureCall;
+  private List<Stmt> methodCall;
+  private List<Stmt> fieldGet;
+  private List<Stmt> fieldSet;
+  private List<Stmt> instantiation;
+  private List<Stmt> subclassInstantiation;
+  private List<Stmt> stringConcatenation;
+
+  @Setup
+  public void setUp() {
+    interpreter = new Interpreter(new PrintStream(OutputStream.nullOutputStream()),
+        FrontEndBenchmark.FAIL);
+    interpreter.interpret(compile(PRELUDE));
+    emptyLoop = loop("");
+    functionCall = loop("identity(i);");
+    closureCall = loop("increment();");
+    methodCall = loop("point.sum();");
+    fieldGet = loop("point.x;");
+    fieldSet = loop("point.x = i;");
+    instantiation = loop("Point(i, i);");
+    subclassInstantiation = loop("Point3(i, i, i);");
+    stringConcatenation = loop("text = \"key\" + \"value\";");
+  }
+
+  static List<Stmt> compile(String source) {
+    return CompiledScript.compile(source, FrontEndBenchmark.FAIL).statements();
+  }
+
+  private static List<Stmt> loop(String body) {
+    return compile("for (var i = 0; i < " + OPERATIONS + "; i = i + 1) { " + body + " }");
+  }
+
+  @Benchmark
+  public void emptyLoop() {
+    interpreter.interpret(emptyLoop);
+  }
+
+  @Benchmark
+  public void functionCall() {
+    interpreter.interpret(functionCall);
+  }
+
+  @Benchmark
+  public void closureCall() {
+    interpreter.interpret(closureCall);
+  }
+
+  @Benchmark
+  public void methodCall() {
+    interpreter.interpret(methodCall);
+  }
+
+  @Benchmark
+  public void fieldGet() {
+    interpreter.interpret(fieldGet);
+  }
+
+  @Benchmark
+  public void fieldSet() {
+    interpreter.interpret(fieldSet);
+  }
+
+  @Benchmark
+  public void instantiation() {
+    interpreter.interpret(instantiation);
+  }
+
+  @Benchmark
+  public void subclassInstantiation() {
+    interpreter.interpret(subclassInstantiation);
+  }
+
+  @Benchmark
+  public void stringConcatenation() {
+    interpreter.interpret(stringConcatenation);
+  }
+}
@@ -0,0 +1,65 @@
+package lox.interpreter;
+
+import java.util.concurrent.TimeUnit;
+import lox.scanner.Token;
+import lox.scanner.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Variable access on environment chains, without the interpreter around it.
+ *
+ * <p>
+ *   Variables are looked up at a resolved depth, as local and captured variables are,
+ *   and by walking the chain, as globals are, through {@code depth} enclosing scopes.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnvironmentBenchmark {
+  @Param({"0", "1", "4", "16"})
+  public int depth;
+
+  private final Token name = new Token(TokenType.IDENTIFIER, "x", null, 1);
+  private Environment innermost;
+  private double value = 0;
+
+  @Setup
+  public void setUp() {
+    Environment outermost = new Environment();
+    outermost.define("x", 1.0);
+    innermost = outermost;
+    for (int i = 0; i < depth; i++) {
+      innermost = new Environment(innermost);
+      innermost.define("local" + i, 0.0);
+    }
+  }
+
+  @Benchmark
+  public Object getAt() {
+    return innermost.getAt(depth, "x");
+  }
+
+  @Benchmark
+  public Object getByWalkingChain() {
+    return innermost.get(name);
+  }
+
+  @Benchmark
+  public void assignAt() {
+    innermost.assignAt(depth, name, value++);
+  }
+}
@@ -0,0 +1,60 @@
+package lox.interpreter;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lox.scanner.Token;
+import lox.scanner.TokenType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Property access on instances, without the interpreter around it.
+ *
+ * <p>
+ *   Fields are read and written on an instance of a class with one method, and the
+ *   method is read, which binds it to the instance.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InstanceBenchmark {
+  private final Token field = new Token(TokenType.IDENTIFIER, "field", null, 1);
+  private final Token method = new Token(TokenType.IDENTIFIER, "method", null, 1);
+  private LoxInstance instance;
+  private double value = 0;
+
+  @Setup
+  public void setUp() {
+    LoxFunction function = new LoxFunction(null, new Environment(), false);
+    instance = new LoxInstance(new LoxClass("Point", null, Map.of("method", function)));
+    instance.set(field, 1.0);
+  }
+
+  @Benchmark
+  public Object fieldGet() {
+    return instance.get(field);
+  }
+
+  @Benchmark
+  public void fieldSet() {
+    instance.set(field, value++);
+  }
+
+  // Binding allocates an environment for 'this' and a function.
+  @Benchmark
+  public Object boundMethodGet() {
+    return instance.get(method);
+  }
+}
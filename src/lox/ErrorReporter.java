@@ -0,0 +1,56 @@
+package lox;
+
+import lox.interpreter.RuntimeError;
+import lox.scanner.Token;
+import lox.scanner.TokenType;
+
+/**
+ * Receives the errors found while scanning, parsing, resolving and running Lox code.
+ *
+ * <p>
+ *   Every front-end phase and the interpreter report through a reporter rather than
+ *   printing directly, so that embedded interpreters can each collect their own errors.
+ *   The command-line interpreter uses {@link Lox#CONSOLE}.
+ * </p>
+ */
+public interface ErrorReporter {
+  /**
+   * Reports a static (scan, parse or resolution) error.
+   *
+   * @param line the line number where the error occurred
+   * @param where additional context about error location
+   * @param message description of the error
+   */
+  void report(int line, String where, String message);
+
+  /**
+   * Reports an error raised while executing the program.
+   *
+   * @param error the {@link RuntimeError} object containing details about the runtime error
+   */
+  void runtimeError(RuntimeError error);
+
+  /**
+   * Reports an error at a specific line in the source code.
+   *
+   * @param line the line number where the error occurred
+   * @param message a description of the error
+   */
+  default void error(int line, String message) {
+    report(line, "", message);
+  }
+
+  /**
+   * Reports an error at a specific token, quoting its lexeme or noting the end of input.
+   *
+   * @param token the token where the error occurred
+   * @param message a description of the error
+   */
+  default void error(Token token, String message) {
+    if (token.type == TokenType.EOF) {
+      report(token.line, " at end", message);
+    } else {
+      report(token.line, " at '" + token.lexeme + "'", message);
+    }
+  }
+}
@@ -3,49 +3,178 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import lox.bench.BenchCommand;
 import lox.ast.Stmt;
+import lox.interpreter.AllocationProfiler;
 import lox.interpreter.Interpreter;
+import lox.interpreter.Profiler;
 import lox.interpreter.Resolver;
 import lox.interpreter.RuntimeError;
+import lox.module.Module;
+import lox.module.ModuleLoader;
+import lox.module.ProgramCache;
 import lox.parser.Parser;
 import lox.scanner.Scanner;
 import lox.scanner.Token;
-import lox.scanner.TokenType;
 
 /**
  * Jlox Interpreter.
  */
 public class Lox {
+  /**
+   * Reports errors to standard error and records them in the command-line error flags.
+   */
+  public static final ErrorReporter CONSOLE = new ErrorReporter() {
+    @Override
+    public void report(int line, String where, String message) {
+      Lox.report(line, where, message);
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  };
+
   private static final Interpreter interpreter = new Interpreter();
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
+  private static Profiler profiler = null;
+  private static Path profileOut = null;
+  private static AllocationProfiler allocationProfiler = null;
+  private static boolean heapCensus = false;
 
   /**
    * Entry point for the Lox interpreter.
    *
    * <p>
    *   Runs a Lox script from a file if a path is provided, or
-   *   starts an interactive REPL if no arguments are provided.
+   *   starts an interactive REPL if no arguments are provided. Options:
    * </p>
+   * <ul>
+   *   <li>{@code --strict} - Compile a script's function bodies before it runs instead
+   *   of on first call, so errors in functions that are never called are reported
+   *   too. Misuses of {@code super}, {@code this}, {@code return} and {@code import}
+   *   that depend on where a function is declared are reported either way.</li>
+   *   <li>{@code --cache-dir=DIR} - Keep compiled scripts in {@code DIR} rather than in
+   *   {@code .loxc} files next to them.</li>
+   *   <li>{@code --no-cache} - Neither use nor write compiled scripts.</li>
+   *   <li>{@code --snapshot-in=FILE} - Restore the globals saved in a snapshot before
+   *   running the script or starting the REPL.</li>
+   *   <li>{@code --snapshot-out=FILE} - Save the globals to a snapshot once the script has
+   *   run without errors. The script is compiled as with {@code --strict}.</li>
+   *   <li>{@code --profile} - Sample the script's Lox call stacks while it runs and print
+   *   the functions it spent the most time in; see {@link Profiler}.</li>
+   *   <li>{@code --profile-rate=HZ} - Sample {@code HZ} times a second rather than
+   *   1000. Implies {@code --profile}.</li>
+   *   <li>{@code --profile-out=FILE} - Also write the samples as folded stacks, for flame
+   *   graph tools. Implies {@code --profile}.</li>
+   *   <li>{@code --alloc-profile} - Count the environments, bound methods, instances,
+   *   argument lists, numbers and strings the script allocates, and print the lines and
+   *   functions that allocated the most; see {@link AllocationProfiler}.</li>
+   *   <li>{@code --heap-census} - Once the script has run, print the Lox objects still
+   *   reachable by class, closure and environment chain; see
+   *   {@link Interpreter#heapCensus}. Scripts can also call {@code heapCensus()}.</li>
+   * </ul>
    *
-   * @param args command-line arguments: optionally a path to a Lox script
+   * <p>
+   *   {@code jlox bench} instead runs the benchmark corpus; see {@link BenchCommand}.
+   * </p>
+   *
+   * @param args command-line arguments: options, then optionally a path to a Lox script
    * @throws IOException if an error occurs while reading input or the script
    */
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    if (args.length > 0 && args[0].equals("bench")) {
+      System.exit(BenchCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+    }
+
+    boolean strict = false;
+    boolean cache = true;
+    Path cacheDirectory = null;
+    Path snapshotIn = null;
+    Path snapshotOut = null;
+    int profileRate = 0;
+    String script = null;
+    for (String arg : args) {
+      if (arg.equals("--strict")) {
+        strict = true;
+      } else if (arg.equals("--no-cache")) {
+        cache = false;
+      } else if (arg.startsWith("--cache-dir=")) {
+        cacheDirectory = Paths.get(arg.substring("--cache-dir=".length()));
+      } else if (arg.startsWith("--snapshot-in=")) {
+        snapshotIn = Paths.get(arg.substring("--snapshot-in=".length()));
+      } else if (arg.startsWith("--snapshot-out=")) {
+        snapshotOut = Paths.get(arg.substring("--snapshot-out=".length()));
+      } else if (arg.equals("--profile")) {
+        profileRate = Math.max(profileRate, 1000);
+      } else if (arg.startsWith("--profile-rate=")) {
+        try {
+          profileRate = Integer.parseInt(arg.substring("--profile-rate=".length()));
+        } catch (NumberFormatException error) {
+          usage();
+        }
+      } else if (arg.equals("--alloc-profile")) {
+        allocationProfiler = new AllocationProfiler();
+      } else if (arg.equals("--heap-census")) {
+        heapCensus = true;
+      } else if (arg.startsWith("--profile-out=")) {
+        profileOut = Paths.get(arg.substring("--profile-out=".length()));
+      } else if (script == null && !arg.startsWith("--")) {
+        script = arg;
+      } else {
+        usage();
+      }
+    }
+    if (profileOut != null && profileRate == 0) {
+      profileRate = 1000;
+    }
+    if ((snapshotOut != null || profileRate > 0 || allocationProfiler != null || heapCensus)
+        && script == null) {
+      usage();
+    }
+
+    if (snapshotIn != null) {
+      try {
+        interpreter.restoreGlobals(snapshotIn);
+      } catch (IOException | IllegalArgumentException error) {
+        System.err.println("Can't restore snapshot " + snapshotIn + ": " + error.getMessage());
+        System.exit(66);
+      }
+    }
+
+    if (profileRate > 0) {
+      profiler = new Profiler(profileRate);
+      interpreter.profile(profiler);
+    }
+    if (allocationProfiler != null) {
+      interpreter.profileAllocations(allocationProfiler);
+    }
+
+    if (script != null) {
+      // Saving a snapshot compiles every function body, so do that up front.
+      runFile(script, strict || snapshotOut != null,
+          cache ? new ProgramCache(cacheDirectory) : null, snapshotOut);
     } else {
       runPrompt();
     }
   }
 
+  private static void usage() {
+    System.out.println("Usage: jlox [--strict] [--cache-dir=DIR | --no-cache]"
+        + " [--snapshot-in=FILE] [--snapshot-out=FILE]"
+        + " [--profile] [--profile-rate=HZ] [--profile-out=FILE] [--alloc-profile]"
+        + " [--heap-census]"
+        + " [script]");
+    System.out.println("       jlox bench [options] [name...]");
+    System.exit(64);
+  }
+
   /**
    * Starts an interactive prompt (REPL) for executing Lox code.
    *
@@ -82,17 +211,48 @@ public class Lox {
    * Reads and executes a Lox script from a file.
    *
    * <p>
-   *   This method takes the path to a Lox source file, reads its contents
-   *   into a string using the default system charset, and executes the script
-   *   by passing it to the interpreter.
+   *   The file and every module it imports are compiled by a {@link ModuleLoader},
+   *   which scans each file straight from a memory mapping, then the program is passed
+   *   to the interpreter. If a {@link ProgramCache} holds a current compiled copy of the
+   *   program, that is mapped and run instead.
    * </p>
    *
    * @param path the path of the Lox source file to execute
+   * @param strict whether to compile function bodies before running
+   * @param cache where compiled programs are kept, or null to always compile
+   * @param snapshot where to save the globals after the script has run, or null
    * @throws IOException if an error occurs while reading the file
    */
-  private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+  private static void runFile(String path, boolean strict, ProgramCache cache,
+                              Path snapshot) throws IOException {
+    Module program = cache != null
+        ? cache.load(Paths.get(path), CONSOLE, strict)
+        : new ModuleLoader(CONSOLE, strict).load(Paths.get(path));
+    if (program != null) {
+      if (profiler != null) {
+        profiler.start();
+      }
+      interpreter.interpret(program);
+      if (profiler != null) {
+        profiler.stop();
+        reportProfile();
+      }
+      if (allocationProfiler != null) {
+        allocationProfiler.report(System.err, 20);
+      }
+      if (heapCensus) {
+        interpreter.heapCensus(System.err, 20);
+      }
+    }
+
+    if (snapshot != null && !hadError && !hadRuntimeError) {
+      try {
+        interpreter.saveGlobals(snapshot);
+      } catch (IOException | IllegalArgumentException error) {
+        System.err.println("Can't save snapshot " + snapshot + ": " + error.getMessage());
+        System.exit(74);
+      }
+    }
 
     // Indicate an error in the exit code
     if (hadError) {
@@ -103,6 +263,18 @@ public class Lox {
     }
   }
 
+  private static void reportProfile() {
+    profiler.report(System.err, 30);
+    if (profileOut != null) {
+      try {
+        profiler.writeFolded(profileOut);
+      } catch (IOException error) {
+        System.err.println("Can't write profile " + profileOut + ": " + error.getMessage());
+        System.exit(74);
+      }
+    }
+  }
+
   /**
    * Executes a string of Lox source code.
    *
@@ -110,8 +282,7 @@ public class Lox {
    */
   private static void run(String source) {
     Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+    Parser parser = new Parser(scanner, CONSOLE);
     List<Stmt> statements = parser.parse();
 
     // Stop if there was a syntax error.
@@ -120,7 +291,7 @@ public class Lox {
     }
 
     // Run the resolver.
-    Resolver resolver = new Resolver(interpreter);
+    Resolver resolver = new Resolver();
     resolver.resolve(statements);
 
     // Stop if there was a resolution error.
@@ -161,11 +332,7 @@ public class Lox {
    * @param message a description of the error
    */
   public static void error(Token token, String message) {
-    if (token.type == TokenType.EOF) {
-      report(token.line, " at end", message);
-    } else {
-      report(token.line, " at '" + token.lexeme + "'", message);
-    }
+    CONSOLE.error(token, message);
   }
 
   /**
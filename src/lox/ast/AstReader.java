@@ -0,0 +1,212 @@
+package lox.ast;
+
+import static lox.ast.AstWriter.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import lox.scanner.Token;
+import lox.scanner.TokenType;
+
+/**
+ * Reads syntax trees written by {@link AstWriter}.
+ *
+ * <p>
+ *   The reader works directly on a buffer, typically a memory mapping of a cache file.
+ *   It reads the pools when created and then one statement list per call to
+ *   {@link #read()}. Every lexeme and constant in the pools becomes a single string or
+ *   number shared by all tokens and literals that use it.
+ * </p>
+ */
+public final class AstReader {
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+  private final ByteBuffer buffer;
+  private final String[] symbols;
+  private final Object[] constants;
+
+  /**
+   * Reads the pools at the buffer's position, leaving it at the first statement list.
+   *
+   * @param buffer the serialized trees
+   * @throws IllegalArgumentException if the data is malformed
+   */
+  public AstReader(ByteBuffer buffer) {
+    this.buffer = buffer;
+    try {
+      symbols = new String[buffer.getInt()];
+      for (int i = 0; i < symbols.length; i++) {
+        symbols[i] = readString();
+      }
+      constants = new Object[buffer.getInt()];
+      for (int i = 0; i < constants.length; i++) {
+        constants[i] = buffer.get() == NUMBER_CONSTANT ? buffer.getDouble() : readString();
+      }
+    } catch (RuntimeException error) {
+      throw new IllegalArgumentException("Malformed syntax tree data.", error);
+    }
+  }
+
+  /**
+   * Reads the next statement list.
+   *
+   * @return the statements, resolved as they were when written
+   * @throws IllegalArgumentException if the data is malformed
+   */
+  public List<Stmt> read() {
+    try {
+      return readStmts();
+    } catch (RuntimeException error) {
+      throw new IllegalArgumentException("Malformed syntax tree data.", error);
+    }
+  }
+
+  private String readString() {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private List<Stmt> readStmts() {
+    int count = buffer.getInt();
+    List<Stmt> statements = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      statements.add(readStmt());
+    }
+    return statements;
+  }
+
+  private <T extends Expr> List<T> readExprs(Class<T> type) {
+    int count = buffer.getInt();
+    List<T> exprs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      exprs.add(type.cast(readExpr()));
+    }
+    return exprs;
+  }
+
+  private Token readToken() {
+    TokenType type = TOKEN_TYPES[buffer.get()];
+    String lexeme = symbols[buffer.getInt()];
+    int literal = buffer.getInt();
+    int line = buffer.getInt();
+    return new Token(type, lexeme, literal < 0 ? null : constants[literal], line);
+  }
+
+  private List<Token> readTokens() {
+    int count = buffer.getInt();
+    List<Token> tokens = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      tokens.add(readToken());
+    }
+    return tokens;
+  }
+
+  private Expr readExpr() {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case ASSIGN: {
+        Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+        expr.depth = buffer.getInt();
+        expr.reduction = buffer.get() != 0;
+        return expr;
+      }
+      case BINARY:
+        return new Expr.Binary(readExpr(), readToken(), readExpr());
+      case CALL:
+        return new Expr.Call(readExpr(), readToken(), readExprs(Expr.class));
+      case GET:
+        return new Expr.Get(readExpr(), readToken());
+      case GROUPING:
+        return new Expr.Grouping(readExpr());
+      case LITERAL:
+        return new Expr.Literal(readValue());
+      case LOGICAL:
+        return new Expr.Logical(readExpr(), readToken(), readExpr());
+      case SET:
+        return new Expr.Set(readExpr(), readToken(), readExpr());
+      case SUPER: {
+        Expr.Super expr = new Expr.Super(readToken(), readToken());
+        expr.depth = buffer.getInt();
+        return expr;
+      }
+      case THIS: {
+        Expr.This expr = new Expr.This(readToken());
+        expr.depth = buffer.getInt();
+        return expr;
+      }
+      case UNARY:
+        return new Expr.Unary(readToken(), readExpr());
+      case VARIABLE: {
+        Expr.Variable expr = new Expr.Variable(readToken());
+        expr.depth = buffer.getInt();
+        return expr;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown expression tag " + tag + ".");
+    }
+  }
+
+  private Object readValue() {
+    byte kind = buffer.get();
+    switch (kind) {
+      case NIL_VALUE:
+        return null;
+      case TRUE_VALUE:
+        return true;
+      case FALSE_VALUE:
+        return false;
+      case CONSTANT_VALUE:
+        return constants[buffer.getInt()];
+      default:
+        throw new IllegalArgumentException("Unknown literal kind " + kind + ".");
+    }
+  }
+
+  private Stmt readStmt() {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case BLOCK:
+        return new Stmt.Block(readStmts());
+      case CLASS: {
+        Token name = readToken();
+        Expr.Variable superclass = (Expr.Variable) readExpr();
+        int count = buffer.getInt();
+        List<Stmt.Function> methods = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          methods.add((Stmt.Function) readStmt());
+        }
+        return new Stmt.Class(name, superclass, methods);
+      }
+      case EXPRESSION:
+        return new Stmt.Expression(readExpr());
+      case FUNCTION:
+        return new Stmt.Function(readToken(), readTokens(), readStmts());
+      case IF:
+        return new Stmt.If(readExpr(), readStmt(), readStmt());
+      case IMPORT:
+        return new Stmt.Import(readToken(), readToken());
+      case PARALLEL_FOR: {
+        Stmt.ParallelFor stmt = new Stmt.ParallelFor(readToken(), readToken(), readExpr(),
+            readExpr(), readStmt());
+        stmt.reductions = readExprs(Expr.Variable.class);
+        return stmt;
+      }
+      case PRINT:
+        return new Stmt.Print(readExpr());
+      case RETURN:
+        return new Stmt.Return(readToken(), readExpr());
+      case VAR:
+        return new Stmt.Var(readToken(), readExpr());
+      case WHILE:
+        return new Stmt.While(readExpr(), readStmt());
+      default:
+        throw new IllegalArgumentException("Unknown statement tag " + tag + ".");
+    }
+  }
+}
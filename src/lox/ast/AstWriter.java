@@ -0,0 +1,402 @@
+package lox.ast;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lox.scanner.Token;
+
+/**
+ * Serializes resolved syntax trees into the binary form read by {@link AstReader}.
+ *
+ * <p>
+ *   The output starts with two pools: the distinct lexemes of every token, and the
+ *   distinct number and string constants. Nodes follow in prefix order, each as a tag
+ *   byte and then its fields, with tokens and literals written as indexes into the pools
+ *   and every token carrying its line. The depths and reductions the Resolver recorded
+ *   are written too, so a tree read back is ready to execute.
+ * </p>
+ *
+ * <p>
+ *   Any change to the node types, or to how they are written, must bump
+ *   {@link #FORMAT_VERSION}.
+ * </p>
+ */
+public final class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  /** Identifies the layout written by this class. */
+  public static final int FORMAT_VERSION = 2;
+
+  // Node tags. Zero stands for a null node.
+  static final byte NULL = 0;
+  static final byte ASSIGN = 1;
+  static final byte BINARY = 2;
+  static final byte CALL = 3;
+  static final byte GET = 4;
+  static final byte GROUPING = 5;
+  static final byte LITERAL = 6;
+  static final byte LOGICAL = 7;
+  static final byte SET = 8;
+  static final byte SUPER = 9;
+  static final byte THIS = 10;
+  static final byte UNARY = 11;
+  static final byte VARIABLE = 12;
+  static final byte BLOCK = 13;
+  static final byte CLASS = 14;
+  static final byte EXPRESSION = 15;
+  static final byte FUNCTION = 16;
+  static final byte IF = 17;
+  static final byte IMPORT = 18;
+  static final byte PARALLEL_FOR = 19;
+  static final byte PRINT = 20;
+  static final byte RETURN = 21;
+  static final byte VAR = 22;
+  static final byte WHILE = 23;
+
+  // Kinds of literal values, after the LITERAL tag.
+  static final byte NIL_VALUE = 0;
+  static final byte TRUE_VALUE = 1;
+  static final byte FALSE_VALUE = 2;
+  static final byte CONSTANT_VALUE = 3;
+
+  // Constant pool entry tags.
+  static final byte NUMBER_CONSTANT = 0;
+  static final byte STRING_CONSTANT = 1;
+
+  private final Map<String, Integer> symbolIndexes = new HashMap<>();
+  private final List<String> symbols = new ArrayList<>();
+  private final Map<Object, Integer> constantIndexes = new HashMap<>();
+  private final List<Object> constants = new ArrayList<>();
+  private byte[] nodes = new byte[4096];
+  private int size = 0;
+
+  /**
+   * Appends a list of resolved statements. Lists are read back in the order they were
+   * written.
+   *
+   * @param statements the statements to write
+   */
+  public void write(List<Stmt> statements) {
+    writeInt(statements.size());
+    for (Stmt statement : statements) {
+      write(statement);
+    }
+  }
+
+  /**
+   * Returns the pools followed by every list written so far.
+   *
+   * @return the serialized trees
+   */
+  public byte[] toByteArray() {
+    ByteBuffer header = ByteBuffer.allocate(poolsSize());
+    header.putInt(symbols.size());
+    for (String symbol : symbols) {
+      putString(header, symbol);
+    }
+    header.putInt(constants.size());
+    for (Object constant : constants) {
+      if (constant instanceof Double number) {
+        header.put(NUMBER_CONSTANT);
+        header.putDouble(number);
+      } else {
+        header.put(STRING_CONSTANT);
+        putString(header, (String) constant);
+      }
+    }
+
+    byte[] result = Arrays.copyOf(header.array(), header.capacity() + size);
+    System.arraycopy(nodes, 0, result, header.capacity(), size);
+    return result;
+  }
+
+  private int poolsSize() {
+    int bytes = 8;
+    for (String symbol : symbols) {
+      bytes += 4 + symbol.getBytes(StandardCharsets.UTF_8).length;
+    }
+    for (Object constant : constants) {
+      bytes += 1 + (constant instanceof Double ? 8
+          : 4 + ((String) constant).getBytes(StandardCharsets.UTF_8).length);
+    }
+    return bytes;
+  }
+
+  private static void putString(ByteBuffer buffer, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private void write(Stmt stmt) {
+    if (stmt == null) {
+      writeByte(NULL);
+    } else {
+      stmt.accept(this);
+    }
+  }
+
+  private void write(Expr expr) {
+    if (expr == null) {
+      writeByte(NULL);
+    } else {
+      expr.accept(this);
+    }
+  }
+
+  private void writeExprs(List<? extends Expr> exprs) {
+    writeInt(exprs.size());
+    for (Expr expr : exprs) {
+      write(expr);
+    }
+  }
+
+  private void write(Token token) {
+    writeByte((byte) token.type.ordinal());
+    writeInt(symbolIndexes.computeIfAbsent(token.lexeme, symbol -> {
+      symbols.add(symbol);
+      return symbols.size() - 1;
+    }));
+    writeInt(token.literal == null ? -1 : constant(token.literal));
+    writeInt(token.line);
+  }
+
+  private void writeTokens(List<Token> tokens) {
+    writeInt(tokens.size());
+    for (Token token : tokens) {
+      write(token);
+    }
+  }
+
+  private int constant(Object value) {
+    return constantIndexes.computeIfAbsent(value, constant -> {
+      constants.add(constant);
+      return constants.size() - 1;
+    });
+  }
+
+  private void writeByte(byte value) {
+    ensure(1);
+    nodes[size++] = value;
+  }
+
+  private void writeInt(int value) {
+    ensure(4);
+    nodes[size++] = (byte) (value >>> 24);
+    nodes[size++] = (byte) (value >>> 16);
+    nodes[size++] = (byte) (value >>> 8);
+    nodes[size++] = (byte) value;
+  }
+
+  private void ensure(int bytes) {
+    if (size + bytes > nodes.length) {
+      nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + bytes));
+    }
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    writeByte(ASSIGN);
+    write(expr.name);
+    write(expr.value);
+    writeInt(expr.depth);
+    writeByte((byte) (expr.reduction ? 1 : 0));
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    writeByte(BINARY);
+    write(expr.left);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    writeByte(CALL);
+    write(expr.callee);
+    write(expr.paren);
+    writeExprs(expr.arguments);
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    writeByte(GET);
+    write(expr.object);
+    write(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    writeByte(GROUPING);
+    write(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    writeByte(LITERAL);
+    if (expr.value == null) {
+      writeByte(NIL_VALUE);
+    } else if (expr.value instanceof Boolean bool) {
+      writeByte(bool ? TRUE_VALUE : FALSE_VALUE);
+    } else {
+      writeByte(CONSTANT_VALUE);
+      writeInt(constant(expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    writeByte(LOGICAL);
+    write(expr.left);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    writeByte(SET);
+    write(expr.object);
+    write(expr.name);
+    write(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    writeByte(SUPER);
+    write(expr.keyword);
+    write(expr.method);
+    writeInt(expr.depth);
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    writeByte(THIS);
+    write(expr.keyword);
+    writeInt(expr.depth);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    writeByte(UNARY);
+    write(expr.operator);
+    write(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    writeByte(VARIABLE);
+    write(expr.name);
+    writeInt(expr.depth);
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    writeByte(BLOCK);
+    write(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    writeByte(CLASS);
+    write(stmt.name);
+    write(stmt.superclass);
+    writeInt(stmt.methods.size());
+    for (Stmt.Function method : stmt.methods) {
+      write(method);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    writeByte(EXPRESSION);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    writeByte(FUNCTION);
+    write(stmt.name);
+    writeTokens(stmt.params);
+    // Reading a deferred body compiles it.
+    write(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    writeByte(IF);
+    write(stmt.condition);
+    write(stmt.thenBranch);
+    write(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    writeByte(IMPORT);
+    write(stmt.keyword);
+    write(stmt.path);
+    return null;
+  }
+
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    writeByte(PARALLEL_FOR);
+    write(stmt.keyword);
+    write(stmt.name);
+    write(stmt.start);
+    write(stmt.end);
+    write(stmt.body);
+    writeExprs(stmt.reductions);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    writeByte(PRINT);
+    write(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    writeByte(RETURN);
+    write(stmt.keyword);
+    write(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    writeByte(VAR);
+    write(stmt.name);
+    write(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    writeByte(WHILE);
+    write(stmt.condition);
+    write(stmt.body);
+    return null;
+  }
+}
@@ -44,6 +44,14 @@ public abstract class Expr {
 
     public final Token name;
     public final Expr value;
+
+    // Scopes between this use and the variable's declaration, or -1 for a
+    // global. Written once by the Resolver before the tree is executed.
+    public int depth = -1;
+
+    // True if this accumulates into a variable declared outside the enclosing
+    // parallel for. Written once by the Resolver.
+    public boolean reduction = false;
   }
 
   public static class Binary extends Expr {
@@ -168,6 +176,10 @@ public abstract class Expr {
 
     public final Token keyword;
     public final Token method;
+
+    // Scopes between this use and the variable's declaration, or -1 for a
+    // global. Written once by the Resolver before the tree is executed.
+    public int depth = -1;
   }
 
   public static class This extends Expr {
@@ -181,6 +193,10 @@ public abstract class Expr {
     }
 
     public final Token keyword;
+
+    // Scopes between this use and the variable's declaration, or -1 for a
+    // global. Written once by the Resolver before the tree is executed.
+    public int depth = -1;
   }
 
   public static class Unary extends Expr {
@@ -209,6 +225,10 @@ public abstract class Expr {
     }
 
     public final Token name;
+
+    // Scopes between this use and the variable's declaration, or -1 for a
+    // global. Written once by the Resolver before the tree is executed.
+    public int depth = -1;
   }
 
 
@@ -0,0 +1,125 @@
+package lox.ast;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import lox.scanner.TokenType;
+
+/**
+ * The body of a function declaration that is parsed, and resolved, the first time it
+ * is used.
+ *
+ * <p>
+ *   The parser only balances the braces of a body and sets its tokens aside, so a
+ *   program that defines many functions and calls a few pays for the few. Reading the
+ *   list, for example to execute it, parses it. If the Resolver has deferred its work
+ *   with {@link #deferResolution}, that runs too, before any caller sees a statement.
+ *   The body also records which keywords it mentions whose use depends on where the
+ *   function is, such as {@code super}, so the Resolver can still report those misuses
+ *   up front.
+ * </p>
+ *
+ * <p>
+ *   A body that turns out to have errors reads as empty once they have been reported;
+ *   {@link #compile()} tells the two apart. Bodies may be used from several threads at
+ *   once, and are compiled exactly once.
+ * </p>
+ */
+public final class LazyBody extends AbstractList<Stmt> {
+  // Parses the body, or returns null after reporting syntax errors. Null once run.
+  private Supplier<List<Stmt>> parser;
+  // Resolves the parsed body, or returns false after reporting errors. Null once run.
+  private Predicate<List<Stmt>> resolution = null;
+  private boolean valid = false;
+  // Written last, so reading it non-null makes the rest visible too.
+  private volatile List<Stmt> statements = null;
+  private final Set<TokenType> keywords;
+
+  /**
+   * Creates a body that is parsed on first use.
+   *
+   * @param parser parses the body's tokens, returning null if it reported an error
+   * @param keywords the context-dependent keywords among the body's tokens
+   */
+  public LazyBody(Supplier<List<Stmt>> parser, Set<TokenType> keywords) {
+    this.parser = parser;
+    this.keywords = keywords;
+  }
+
+  /**
+   * Returns whether the body's tokens include {@code keyword}, which must be one of those
+   * the parser records: {@code super}, {@code this}, {@code return} and {@code import}.
+   *
+   * @param keyword the keyword
+   * @return true if the body, or a function nested in it, uses the keyword
+   */
+  public boolean mentions(TokenType keyword) {
+    return keywords.contains(keyword);
+  }
+
+  /**
+   * Registers the work the Resolver would have done on this body, to run right after it
+   * is parsed.
+   *
+   * @param resolution resolves the parsed statements, returning false if it reported an
+   *                   error
+   */
+  public synchronized void deferResolution(Predicate<List<Stmt>> resolution) {
+    this.resolution = resolution;
+  }
+
+  /**
+   * Returns whether the body has been parsed.
+   *
+   * @return true once the body has been compiled, successfully or not
+   */
+  public boolean isParsed() {
+    return statements != null;
+  }
+
+  /**
+   * Parses and resolves the body if that hasn't happened yet.
+   *
+   * @return false if the body has errors
+   */
+  public boolean compile() {
+    statements();
+    return valid;
+  }
+
+  private List<Stmt> statements() {
+    List<Stmt> result = statements;
+    if (result != null) {
+      return result;
+    }
+
+    synchronized (this) {
+      if (statements == null) {
+        List<Stmt> parsed = parser.get();
+        valid = parsed != null && (resolution == null || resolution.test(parsed));
+        parser = null;
+        resolution = null;
+        statements = valid ? parsed : List.of();
+      }
+      return statements;
+    }
+  }
+
+  @Override
+  public Stmt get(int index) {
+    return statements().get(index);
+  }
+
+  @Override
+  public int size() {
+    return statements().size();
+  }
+
+  @Override
+  public Iterator<Stmt> iterator() {
+    return statements().iterator();
+  }
+}
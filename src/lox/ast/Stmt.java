@@ -15,6 +15,10 @@ public abstract class Stmt {
 
     R visitIfStmt(If stmt);
 
+    R visitImportStmt(Import stmt);
+
+    R visitParallelForStmt(ParallelFor stmt);
+
     R visitPrintStmt(Print stmt);
 
     R visitReturnStmt(Return stmt);
@@ -102,6 +106,46 @@ public abstract class Stmt {
     public final Stmt elseBranch;
   }
 
+  public static class Import extends Stmt {
+    public Import(Token keyword, Token path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    public final Token keyword;
+    public final Token path;
+  }
+
+  public static class ParallelFor extends Stmt {
+    public ParallelFor(Token keyword, Token name, Expr start, Expr end, Stmt body) {
+      this.keyword = keyword;
+      this.name = name;
+      this.start = start;
+      this.end = end;
+      this.body = body;
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitParallelForStmt(this);
+    }
+
+    public final Token keyword;
+    public final Token name;
+    public final Expr start;
+    public final Expr end;
+    public final Stmt body;
+
+    // The variables declared outside the loop that iterations accumulate into,
+    // resolved from the scope enclosing the loop. Written once by the Resolver.
+    public List<Expr.Variable> reductions = List.of();
+  }
+
   public static class Print extends Stmt {
     public Print(Expr expression) {
       this.expression = expression;
@@ -0,0 +1,93 @@
+package lox.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saved benchmark results that later runs are compared against.
+ *
+ * <p>
+ *   A baseline is a text file with one line per benchmark: its name, then its mean,
+ *   median, 90th and 99th percentile times in nanoseconds, separated by whitespace. Lines
+ *   starting with {@code #} are comments. Runs are compared by their median, which a
+ *   single slow run caused by a collection or a compile does not move.
+ * </p>
+ */
+public final class Baseline {
+  private final Map<String, BenchmarkResult> results;
+
+  private Baseline(Map<String, BenchmarkResult> results) {
+    this.results = results;
+  }
+
+  /**
+   * Reads a baseline file.
+   *
+   * @param path the file
+   * @return the baseline
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  public static Baseline read(Path path) throws IOException {
+    Map<String, BenchmarkResult> results = new LinkedHashMap<>();
+    int number = 0;
+    for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+      number++;
+      line = line.strip();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+
+      String[] fields = line.split("\\s+");
+      if (fields.length != 5) {
+        throw new IllegalArgumentException("line " + number + ": expected 5 fields.");
+      }
+      try {
+        results.put(fields[0], new BenchmarkResult(fields[0], 0,
+            Double.parseDouble(fields[1]), Long.parseLong(fields[2]),
+            Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+      } catch (NumberFormatException error) {
+        throw new IllegalArgumentException("line " + number + ": " + error.getMessage());
+      }
+    }
+    return new Baseline(results);
+  }
+
+  /**
+   * Writes results as a baseline file, replacing any existing file.
+   *
+   * @param path the file
+   * @param results the results to save
+   * @throws IOException if the file can't be written
+   */
+  public static void write(Path path, List<BenchmarkResult> results) throws IOException {
+    List<String> lines = new ArrayList<>();
+    lines.add("# name mean-ns p50-ns p90-ns p99-ns");
+    for (BenchmarkResult result : results) {
+      lines.add(String.format("%s %.0f %d %d %d", result.name(), result.mean(),
+          result.p50(), result.p90(), result.p99()));
+    }
+    Files.write(path, lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the relative change of a result's median from its baseline, for example 0.1
+   * for 10% slower, or NaN if the baseline has no result for the benchmark.
+   *
+   * @param result the new result
+   * @return the change
+   */
+  public double change(BenchmarkResult result) {
+    BenchmarkResult saved = results.get(result.name());
+    if (saved == null || saved.p50() == 0) {
+      return Double.NaN;
+    }
+    return (double) (result.p50() - saved.p50()) / saved.p50();
+  }
+}
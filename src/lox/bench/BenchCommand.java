@@ -0,0 +1,236 @@
+package lox.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import lox.Lox;
+import lox.engine.CompiledScript;
+import lox.engine.Diagnostic;
+import lox.engine.LoxContext;
+import lox.engine.LoxEngine;
+
+/**
+ * The {@code jlox bench} command, which times a corpus of Lox benchmark scripts inside
+ * one JVM.
+ *
+ * <p>
+ *   The corpus is every {@code .lox} file in a directory, {@code src/tests/bench} by
+ *   default; each file is one benchmark named after it. A benchmark is compiled once and
+ *   then run in a fresh {@link LoxContext} for a number of warmup runs, which let the JIT
+ *   compile the interpreter, and then for the measured runs. Only execution is timed, and
+ *   the scripts' output is discarded. Options:
+ * </p>
+ * <ul>
+ *   <li>{@code --warmup=N} - Unmeasured runs per benchmark, 3 by default.</li>
+ *   <li>{@code --iterations=N} - Measured runs per benchmark, 10 by default.</li>
+ *   <li>{@code --corpus=DIR} - Run the benchmarks in {@code DIR}.</li>
+ *   <li>{@code --baseline=FILE} - Compare each median against a saved {@link Baseline}
+ *   and flag those slower by more than the threshold.</li>
+ *   <li>{@code --threshold=PERCENT} - The slowdown flagged as a regression, 10 by
+ *   default.</li>
+ *   <li>{@code --save-baseline=FILE} - Save the results as a baseline.</li>
+ * </ul>
+ *
+ * <p>
+ *   Any other arguments name the benchmarks to run; by default all of them run. The exit
+ *   code is 1 if a regression was flagged, and otherwise follows the interpreter's: 65 or
+ *   70 if a benchmark fails to compile or run, 64 for bad arguments and 66 or 74 if a
+ *   file can't be read or written.
+ * </p>
+ */
+public final class BenchCommand {
+  private static final Path DEFAULT_CORPUS = Paths.get("src", "tests", "bench");
+
+  private int warmup = 3;
+  private int iterations = 10;
+  private Path corpus = DEFAULT_CORPUS;
+  private Path baselineIn = null;
+  private Path baselineOut = null;
+  private double threshold = 0.10;
+  private final List<String> names = new ArrayList<>();
+
+  private BenchCommand() {
+  }
+
+  /**
+   * Runs the command.
+   *
+   * @param args the arguments following {@code bench}
+   * @return the exit code
+   */
+  public static int run(String[] args) {
+    BenchCommand command = new BenchCommand();
+    try {
+      for (String arg : args) {
+        command.parse(arg);
+      }
+    } catch (IllegalArgumentException error) {
+      System.err.println(error.getMessage());
+      System.out.println("Usage: jlox bench [--warmup=N] [--iterations=N] [--corpus=DIR]"
+          + " [--baseline=FILE] [--threshold=PERCENT] [--save-baseline=FILE] [name...]");
+      return 64;
+    }
+    return command.run();
+  }
+
+  private void parse(String arg) {
+    if (arg.startsWith("--warmup=")) {
+      warmup = count(arg, "--warmup=", 0);
+    } else if (arg.startsWith("--iterations=")) {
+      iterations = count(arg, "--iterations=", 1);
+    } else if (arg.startsWith("--corpus=")) {
+      corpus = Paths.get(arg.substring("--corpus=".length()));
+    } else if (arg.startsWith("--baseline=")) {
+      baselineIn = Paths.get(arg.substring("--baseline=".length()));
+    } else if (arg.startsWith("--save-baseline=")) {
+      baselineOut = Paths.get(arg.substring("--save-baseline=".length()));
+    } else if (arg.startsWith("--threshold=")) {
+      threshold = count(arg, "--threshold=", 0) / 100.0;
+    } else if (!arg.startsWith("--")) {
+      names.add(arg);
+    } else {
+      throw new IllegalArgumentException("Unknown option " + arg + ".");
+    }
+  }
+
+  private static int count(String arg, String option, int min) {
+    try {
+      int value = Integer.parseInt(arg.substring(option.length()));
+      if (value >= min) {
+        return value;
+      }
+    } catch (NumberFormatException error) {
+      // Reported below.
+    }
+    throw new IllegalArgumentException(
+        "Expected a whole number of at least " + min + " in " + arg + ".");
+  }
+
+  private int run() {
+    List<Path> scripts;
+    Baseline baseline = null;
+    try {
+      scripts = select();
+      if (baselineIn != null) {
+        baseline = Baseline.read(baselineIn);
+      }
+    } catch (IOException | IllegalArgumentException error) {
+      System.err.println(error.getMessage());
+      return 66;
+    }
+
+    System.out.printf("%d warmup and %d measured runs per benchmark.%n", warmup, iterations);
+    System.out.printf("%-16s %10s %10s %10s %10s %10s%s%n", "benchmark", "mean ms",
+        "p50 ms", "p90 ms", "p99 ms", "ops/s", baseline != null ? "  vs baseline" : "");
+
+    List<BenchmarkResult> results = new ArrayList<>();
+    boolean regressed = false;
+    try (LoxEngine engine = new LoxEngine()) {
+      for (Path script : scripts) {
+        String name = nameOf(script);
+        CompiledScript compiled;
+        try {
+          compiled = CompiledScript.compile(
+              Files.readString(script, StandardCharsets.UTF_8), Lox.CONSOLE);
+        } catch (IOException error) {
+          System.err.println("Can't read " + script + ": " + error.getMessage());
+          return 66;
+        }
+        if (compiled == null) {
+          System.err.println("Benchmark " + name + " failed to compile.");
+          return 65;
+        }
+
+        BenchmarkResult result = measure(engine, name, compiled);
+        if (result == null) {
+          return 70;
+        }
+        results.add(result);
+
+        String comparison = "";
+        if (baseline != null) {
+          double change = baseline.change(result);
+          if (Double.isNaN(change)) {
+            comparison = "  (new)";
+          } else {
+            comparison = String.format("  %+.1f%%", change * 100);
+            if (change > threshold) {
+              comparison += "  REGRESSION";
+              regressed = true;
+            }
+          }
+        }
+        System.out.printf("%-16s %10.2f %10.2f %10.2f %10.2f %10.2f%s%n", name,
+            result.mean() / 1e6, result.p50() / 1e6, result.p90() / 1e6, result.p99() / 1e6,
+            result.opsPerSecond(), comparison);
+      }
+    }
+
+    if (baselineOut != null) {
+      try {
+        Baseline.write(baselineOut, results);
+      } catch (IOException error) {
+        System.err.println("Can't save baseline " + baselineOut + ": " + error.getMessage());
+        return 74;
+      }
+    }
+    return regressed ? 1 : 0;
+  }
+
+  private List<Path> select() throws IOException {
+    List<Path> all;
+    try (Stream<Path> files = Files.list(corpus)) {
+      all = files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+    }
+    if (names.isEmpty()) {
+      return all;
+    }
+
+    List<Path> selected = new ArrayList<>();
+    for (String name : names) {
+      Path script = all.stream()
+          .filter(file -> nameOf(file).equals(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException(
+              "No benchmark " + name + " in " + corpus + "."));
+      selected.add(script);
+    }
+    return selected;
+  }
+
+  private static String nameOf(Path script) {
+    String file = script.getFileName().toString();
+    return file.substring(0, file.length() - ".lox".length());
+  }
+
+  /**
+   * Runs a benchmark and times its measured runs.
+   *
+   * @return the result, or null if a run failed
+   */
+  private BenchmarkResult measure(LoxEngine engine, String name, CompiledScript script) {
+    long[] times = new long[iterations];
+    for (int i = -warmup; i < iterations; i++) {
+      LoxContext context = engine.newContext();
+      long start = System.nanoTime();
+      boolean succeeded = context.run(script);
+      long elapsed = System.nanoTime() - start;
+      if (!succeeded) {
+        System.err.println("Benchmark " + name + " failed:");
+        for (Diagnostic diagnostic : context.diagnostics()) {
+          System.err.println(diagnostic);
+        }
+        return null;
+      }
+      if (i >= 0) {
+        times[i] = elapsed;
+      }
+    }
+    return BenchmarkResult.of(name, times);
+  }
+}
@@ -0,0 +1,49 @@
+package lox.bench;
+
+import java.util.Arrays;
+
+/**
+ * The timings of one benchmark's measured runs.
+ *
+ * <p>
+ *   Percentiles use the nearest-rank method, so each is the time of an actual run. Times
+ *   are in nanoseconds.
+ * </p>
+ *
+ * @param name the benchmark name
+ * @param runs the number of measured runs
+ * @param mean the mean run time
+ * @param p50 the median run time
+ * @param p90 the 90th percentile run time
+ * @param p99 the 99th percentile run time
+ */
+public record BenchmarkResult(String name, int runs, double mean, long p50, long p90,
+                              long p99) {
+  /**
+   * Summarizes the times of a benchmark's runs.
+   *
+   * @param name the benchmark name
+   * @param times the time of each run, at least one
+   * @return the summary
+   */
+  public static BenchmarkResult of(String name, long[] times) {
+    long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    return new BenchmarkResult(name, sorted.length, Arrays.stream(sorted).average().orElse(0),
+        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99));
+  }
+
+  private static long percentile(long[] sorted, int percent) {
+    int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+
+  /**
+   * Returns how many runs of the benchmark complete per second, going by the mean.
+   *
+   * @return the throughput
+   */
+  public double opsPerSecond() {
+    return mean == 0 ? 0 : 1e9 / mean;
+  }
+}
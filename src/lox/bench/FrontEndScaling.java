@@ -0,0 +1,192 @@
+package lox.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import lox.ErrorReporter;
+import lox.ast.Stmt;
+import lox.interpreter.Resolver;
+import lox.interpreter.RuntimeError;
+import lox.parser.Parser;
+import lox.scanner.Scanner;
+import lox.scanner.Token;
+
+/**
+ * Measures how the Scanner, Parser and Resolver scale with the size of their input.
+ *
+ * <p>
+ *   Programs are made by the {@link ProgramGenerator} at growing multiples of a base
+ *   {@link ProgramGenerator.Shape}. For each, the three phases are run separately, each
+ *   on the output of the one before, and each is reported with its best time of several
+ *   runs, its time per source line and the peak heap it used on top of what was live
+ *   before it started. Time per line that grows with the scale, rather than staying
+ *   flat, is non-linear behaviour. A phase that overflows the stack, as deep nesting can
+ *   make the recursive descent do, is reported as such.
+ * </p>
+ *
+ * <pre>
+ *   java -cp jlox.jar lox.bench.FrontEndScaling [options]
+ * </pre>
+ *
+ * <p>Options, with their defaults:</p>
+ * <ul>
+ *   <li>{@code --functions=1000}, {@code --classes=250}, {@code --depth=4},
+ *   {@code --expression=8}, {@code --strings=2} - The base shape.</li>
+ *   <li>{@code --scales=1,2,4,8,16} - The multiples of the base shape to measure.</li>
+ *   <li>{@code --runs=3} - Runs of each phase at each scale.</li>
+ *   <li>{@code --write=FILE} - Write the program at the largest scale to {@code FILE}
+ *   instead of measuring.</li>
+ * </ul>
+ */
+public final class FrontEndScaling {
+  private static final ErrorReporter FAIL = new ErrorReporter() {
+    @Override
+    public void report(int line, String where, String message) {
+      throw new IllegalStateException("[line " + line + "] Error" + where + ": " + message);
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+      throw error;
+    }
+  };
+
+  private static final List<MemoryPoolMXBean> HEAP = ManagementFactory.getMemoryPoolMXBeans()
+      .stream()
+      .filter(pool -> pool.getType() == MemoryType.HEAP)
+      .toList();
+
+  // A phase's output, with its best time and peak heap use at one scale.
+  private record Measurement<T>(T output, long nanos, long peakBytes) {
+  }
+
+  private FrontEndScaling() {
+  }
+
+  /**
+   * Runs the measurements and prints a table of the results.
+   *
+   * @param args the options
+   * @throws IOException if the program can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    int functions = 1000;
+    int classes = 250;
+    int depth = 4;
+    int expressionSize = 8;
+    int strings = 2;
+    int[] scales = {1, 2, 4, 8, 16};
+    int runs = 3;
+    Path write = null;
+    try {
+      for (String arg : args) {
+        int equals = arg.indexOf('=');
+        String option = equals < 0 ? arg : arg.substring(0, equals + 1);
+        String value = arg.substring(equals + 1);
+        switch (option) {
+          case "--functions=" -> functions = Integer.parseInt(value);
+          case "--classes=" -> classes = Integer.parseInt(value);
+          case "--depth=" -> depth = Integer.parseInt(value);
+          case "--expression=" -> expressionSize = Integer.parseInt(value);
+          case "--strings=" -> strings = Integer.parseInt(value);
+          case "--scales=" -> scales = Arrays.stream(value.split(","))
+              .mapToInt(Integer::parseInt).toArray();
+          case "--runs=" -> runs = Math.max(Integer.parseInt(value), 1);
+          case "--write=" -> write = Paths.get(value);
+          default -> throw new IllegalArgumentException(arg);
+        }
+      }
+    } catch (IllegalArgumentException error) {
+      System.err.println("Usage: FrontEndScaling [--functions=N] [--classes=N] [--depth=N]"
+          + " [--expression=N] [--strings=N] [--scales=N,...] [--runs=N] [--write=FILE]");
+      System.exit(64);
+    }
+
+    ProgramGenerator.Shape base =
+        new ProgramGenerator.Shape(functions, classes, depth, expressionSize, strings);
+    if (write != null) {
+      int largest = Arrays.stream(scales).max().orElse(1);
+      Files.writeString(write, ProgramGenerator.generate(base.scaled(largest)),
+          StandardCharsets.UTF_8);
+      return;
+    }
+
+    System.out.printf("%s, best of %d runs; peak is heap used beyond what was live.%n",
+        base, runs);
+    System.out.printf("%5s %10s %8s | %9s %7s %8s | %9s %7s %8s | %9s %7s %8s%n",
+        "scale", "lines", "MB", "scan ms", "ns/line", "peak MB", "parse ms", "ns/line",
+        "peak MB", "resolve ms", "ns/line", "peak MB");
+    for (int scale : scales) {
+      measure(base.scaled(scale), scale, runs);
+    }
+  }
+
+  private static void measure(ProgramGenerator.Shape shape, int scale, int runs) {
+    String source = ProgramGenerator.generate(shape);
+    long lines = source.chars().filter(c -> c == '\n').count();
+    System.out.printf("%5d %10d %8.1f |", scale, lines, source.length() / 1e6);
+
+    Measurement<List<Token>> tokens =
+        phase(runs, () -> new Scanner(source, FAIL).scanTokens());
+    if (report(tokens, lines)) {
+      Measurement<List<Stmt>> statements =
+          phase(runs, () -> new Parser(tokens.output(), FAIL).parse());
+      if (report(statements, lines)) {
+        report(phase(runs, () -> {
+          new Resolver(FAIL).resolve(statements.output());
+          return statements.output();
+        }), lines);
+      }
+    }
+    System.out.println();
+  }
+
+  /**
+   * Runs a phase and measures it.
+   *
+   * @return the measurement, or null if the phase overflowed the stack
+   */
+  private static <T> Measurement<T> phase(int runs, Supplier<T> phase) {
+    T output = null;
+    long best = Long.MAX_VALUE;
+    long peak = 0;
+    for (int i = 0; i < runs; i++) {
+      output = null;
+      System.gc();
+      long live = heapUsed();
+      HEAP.forEach(MemoryPoolMXBean::resetPeakUsage);
+      long start = System.nanoTime();
+      try {
+        output = phase.get();
+      } catch (StackOverflowError error) {
+        return null;
+      }
+      best = Math.min(best, System.nanoTime() - start);
+      long used = HEAP.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+      peak = Math.max(peak, used - live);
+    }
+    return new Measurement<>(output, best, peak);
+  }
+
+  private static long heapUsed() {
+    return HEAP.stream().mapToLong(pool -> pool.getUsage().getUsed()).sum();
+  }
+
+  private static boolean report(Measurement<?> measurement, long lines) {
+    if (measurement == null) {
+      System.out.printf(" %27s |", "stack overflow");
+      return false;
+    }
+    System.out.printf(" %9.1f %7.0f %8.1f |", measurement.nanos() / 1e6,
+        (double) measurement.nanos() / lines, measurement.peakBytes() / 1e6);
+    return true;
+  }
+}
@@ -0,0 +1,182 @@
+package lox.bench;
+
+/**
+ * Generates large synthetic Lox programs for measuring how the front end scales.
+ *
+ * <p>
+ *   The programs are deterministic and free of compile errors, but are not meant to be
+ *   run. A program is a sequence of functions and classes, interleaved so that each
+ *   function or method can call the one generated before it. The {@link Shape} sets how
+ *   many there are and what their bodies look like:
+ * </p>
+ * <ul>
+ *   <li>Each function declares its string literals as locals, then nests blocks,
+ *   {@code if}, {@code while} and {@code for} statements {@code depth} deep, declaring a
+ *   local in each, so the Resolver has that many scopes open at the innermost one.</li>
+ *   <li>Every expression has {@code expressionSize} operands, mixing variables, numbers,
+ *   calls and parenthesized groups.</li>
+ *   <li>Each class has an initializer and three methods, and every second class
+ *   inherits from the one before it and calls {@code super}.</li>
+ * </ul>
+ */
+public final class ProgramGenerator {
+  private static final String[] OPERATORS = {" + ", " - ", " * ", " / "};
+  private static final int MAX_INDENT = 16;
+
+  /**
+   * The size and structure of a generated program.
+   *
+   * @param functions the number of top-level functions
+   * @param classes the number of classes
+   * @param depth how deeply statements nest inside each function
+   * @param expressionSize the number of operands in each expression
+   * @param strings the number of string literals in each function
+   */
+  public record Shape(int functions, int classes, int depth, int expressionSize,
+                      int strings) {
+    /**
+     * Returns this shape with {@code factor} times as many functions and classes.
+     *
+     * @param factor the multiplier
+     * @return the scaled shape
+     */
+    public Shape scaled(int factor) {
+      return new Shape(functions * factor, classes * factor, depth, expressionSize,
+          strings);
+    }
+  }
+
+  private final Shape shape;
+  private final StringBuilder source;
+
+  private ProgramGenerator(Shape shape) {
+    this.shape = shape;
+    int perFunction = 64 + shape.depth() * (48 + 8 * shape.expressionSize())
+        + shape.strings() * 40;
+    this.source = new StringBuilder(shape.functions() * perFunction
+        + shape.classes() * (160 + 32 * shape.expressionSize()));
+  }
+
+  /**
+   * Generates a program of the given shape.
+   *
+   * @param shape the size and structure of the program
+   * @return the source
+   */
+  public static String generate(Shape shape) {
+    ProgramGenerator generator = new ProgramGenerator(shape);
+    generator.program();
+    return generator.source.toString();
+  }
+
+  private void program() {
+    int units = Math.max(shape.functions(), shape.classes());
+    for (int i = 0; i < units; i++) {
+      if (i < shape.functions()) {
+        function(i);
+      }
+      if (i < shape.classes()) {
+        klass(i);
+      }
+    }
+  }
+
+  private void function(int index) {
+    source.append("fun f").append(index).append("(a, b, c) {\n");
+    for (int i = 0; i < shape.strings(); i++) {
+      source.append("  var s").append(i).append(" = \"function ").append(index)
+          .append(" string ").append(i).append("\";\n");
+    }
+    source.append("  var x = ");
+    expression(index, "a", "b");
+    source.append(";\n");
+    nest(index);
+    source.append("  return x;\n}\n");
+  }
+
+  // Nests statements depth deep. Iterative, so the generator itself handles any depth.
+  private void nest(int index) {
+    int depth = shape.depth();
+    for (int level = 0; level < depth; level++) {
+      indent(level + 1);
+      switch (level % 4) {
+        case 0 -> source.append("{\n");
+        case 1 -> source.append("if (x > ").append(level).append(" and a != b) {\n");
+        case 2 -> source.append("while (x < ").append(level * 10).append(") {\n");
+        default -> source.append("for (var i").append(level)
+            .append(" = 0; i").append(level).append(" < 3; i").append(level)
+            .append(" = i").append(level).append(" + 1) {\n");
+      }
+      indent(level + 2);
+      source.append("var v").append(level).append(" = ");
+      expression(index, level == 0 ? "c" : "v" + (level - 1), "x");
+      source.append(";\n");
+    }
+
+    indent(depth + 1);
+    source.append("x = ");
+    expression(index, "x", depth == 0 ? "b" : "v" + (depth - 1));
+    source.append(";\n");
+
+    for (int level = depth - 1; level >= 0; level--) {
+      if (level % 4 == 2) {
+        indent(level + 2);
+        source.append("x = x + 1;\n");
+      }
+      indent(level + 1);
+      source.append("}\n");
+    }
+  }
+
+  // Indentation stops growing past a point, so deep nesting doesn't mostly generate
+  // whitespace.
+  private void indent(int level) {
+    source.repeat("  ", Math.min(level, MAX_INDENT));
+  }
+
+  private void expression(int index, String first, String second) {
+    int size = Math.max(shape.expressionSize(), 1);
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        source.append(OPERATORS[(index + i) % OPERATORS.length]);
+      }
+      switch (i % 5) {
+        case 0 -> source.append(first);
+        case 1 -> source.append(i).append(".5");
+        case 2 -> source.append('(').append(second).append(" - ").append(i).append(')');
+        case 3 -> {
+          if (index > 0) {
+            source.append('f').append(index - 1).append("(a, ").append(i).append(", c)");
+          } else {
+            source.append(second);
+          }
+        }
+        default -> source.append('-').append(second);
+      }
+    }
+  }
+
+  private void klass(int index) {
+    source.append("class C").append(index);
+    boolean subclass = index % 2 == 1;
+    if (subclass) {
+      source.append(" < C").append(index - 1);
+    }
+    source.append(" {\n");
+    source.append("  init(a) {\n");
+    if (subclass) {
+      source.append("    super.init(a);\n");
+    }
+    source.append("    this.x").append(index).append(" = a;\n")
+        .append("    this.name = \"class ").append(index).append("\";\n")
+        .append("  }\n");
+    for (int m = 0; m < 3; m++) {
+      source.append("  m").append(m).append("(a, b, c) {\n")
+          .append("    var x = this.x").append(index).append(";\n")
+          .append("    return ");
+      expression(index, "x", "a");
+      source.append(";\n  }\n");
+    }
+    source.append("}\n");
+  }
+}
@@ -0,0 +1,122 @@
+package lox.engine;
+
+import java.util.List;
+import lox.ErrorReporter;
+import lox.ast.Stmt;
+import lox.interpreter.InterpreterMetrics;
+import lox.interpreter.Resolver;
+import lox.interpreter.RuntimeError;
+import lox.parser.Parser;
+import lox.scanner.Scanner;
+import lox.scanner.Token;
+
+/**
+ * A scanned, parsed and resolved Lox program, ready to execute.
+ *
+ * <p>
+ *   The Resolver records scope depths on the syntax tree itself, and nothing modifies the
+ *   tree after that. A compiled script can therefore be executed any number of times, by
+ *   any number of interpreters, on any number of threads at once.
+ * </p>
+ */
+public final class CompiledScript {
+  private final List<Stmt> statements;
+  private final int sourceLength;
+
+  private CompiledScript(List<Stmt> statements, int sourceLength) {
+    this.statements = statements;
+    this.sourceLength = sourceLength;
+  }
+
+  /**
+   * Runs the front end over a string of Lox source code.
+   *
+   * @param source the Lox source code
+   * @param reporter where to report scan, parse and resolution errors
+   * @return the compiled script, or null if any error was reported
+   */
+  public static CompiledScript compile(String source, ErrorReporter reporter) {
+    return compile(source, reporter, null);
+  }
+
+  /**
+   * Runs the front end over a string of Lox source code, adding the time spent in each
+   * phase to {@code metrics}.
+   *
+   * <p>
+   *   The parser normally pulls tokens from the scanner as it goes, which interleaves the
+   *   two phases. To time them apart, the source is scanned in full before parsing when
+   *   {@code metrics} is not null.
+   * </p>
+   *
+   * @param source the Lox source code
+   * @param reporter where to report scan, parse and resolution errors
+   * @param metrics where to record the phase times, or null
+   * @return the compiled script, or null if any error was reported
+   */
+  public static CompiledScript compile(String source, ErrorReporter reporter,
+                                       InterpreterMetrics metrics) {
+    boolean[] hadError = {false};
+    ErrorReporter tracking = new ErrorReporter() {
+      @Override
+      public void report(int line, String where, String message) {
+        hadError[0] = true;
+        reporter.report(line, where, message);
+      }
+
+      @Override
+      public void runtimeError(RuntimeError error) {
+        reporter.runtimeError(error);
+      }
+    };
+
+    long start = System.nanoTime();
+    long scanned = start;
+    Scanner scanner = new Scanner(source, tracking);
+    Parser parser;
+    if (metrics == null) {
+      parser = new Parser(scanner, tracking);
+    } else {
+      List<Token> tokens = scanner.scanTokens();
+      scanned = System.nanoTime();
+      parser = new Parser(tokens, tracking);
+    }
+    List<Stmt> statements = parser.parse();
+    long parsed = System.nanoTime();
+
+    // Stop if there was a syntax error.
+    if (hadError[0]) {
+      if (metrics != null) {
+        metrics.recordCompile(scanned - start, parsed - scanned, 0);
+      }
+      return null;
+    }
+
+    Resolver resolver = new Resolver(tracking);
+    resolver.resolve(statements);
+    if (metrics != null) {
+      metrics.recordCompile(scanned - start, parsed - scanned, System.nanoTime() - parsed);
+    }
+
+    // Stop if there was a resolution error.
+    if (hadError[0]) {
+      return null;
+    }
+
+    return new CompiledScript(List.copyOf(statements), source.length());
+  }
+
+  public List<Stmt> statements() {
+    return statements;
+  }
+
+  /**
+   * Returns the length of the source the script was compiled from, which the
+   * {@link ScriptCache} uses to estimate its footprint.
+   *
+   * @return the number of source characters
+   */
+  public int sourceLength() {
+    return sourceLength;
+  }
+}
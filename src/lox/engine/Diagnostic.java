@@ -0,0 +1,23 @@
+package lox.engine;
+
+/**
+ * An error reported while compiling or running a script in a {@link LoxContext}.
+ *
+ * @param kind whether the error was found before or during execution
+ * @param line the line number where the error occurred
+ * @param message the error message, formatted as the command-line interpreter prints it
+ */
+public record Diagnostic(Kind kind, int line, String message) {
+  /**
+   * The phase that reported a diagnostic.
+   */
+  public enum Kind {
+    STATIC,
+    RUNTIME
+  }
+
+  @Override
+  public String toString() {
+    return message;
+  }
+}
@@ -0,0 +1,48 @@
+package lox.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import lox.ErrorReporter;
+import lox.interpreter.RuntimeError;
+
+/**
+ * An {@link ErrorReporter} that records errors instead of printing them.
+ * Each {@link LoxContext} owns one, so errors from different contexts never mix.
+ */
+final class ErrorCollector implements ErrorReporter {
+  private final List<Diagnostic> diagnostics = new ArrayList<>();
+  private boolean hadError = false;
+  private boolean hadRuntimeError = false;
+
+  @Override
+  public void report(int line, String where, String message) {
+    diagnostics.add(new Diagnostic(Diagnostic.Kind.STATIC, line,
+        "[line " + line + "] Error" + where + ": " + message));
+    hadError = true;
+  }
+
+  @Override
+  public void runtimeError(RuntimeError error) {
+    diagnostics.add(new Diagnostic(Diagnostic.Kind.RUNTIME, error.token.line,
+        error.getMessage() + "\n[line " + error.token.line + "]"));
+    hadRuntimeError = true;
+  }
+
+  boolean hadError() {
+    return hadError;
+  }
+
+  boolean hadRuntimeError() {
+    return hadRuntimeError;
+  }
+
+  List<Diagnostic> diagnostics() {
+    return List.copyOf(diagnostics);
+  }
+
+  void clear() {
+    diagnostics.clear();
+    hadError = false;
+    hadRuntimeError = false;
+  }
+}
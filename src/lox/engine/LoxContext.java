@@ -0,0 +1,123 @@
+package lox.engine;
+
+import java.io.PrintStream;
+import java.util.List;
+import lox.interpreter.Interpreter;
+import lox.interpreter.InterpreterMetrics;
+
+/**
+ * An isolated Lox session with its own globals, output stream and error log.
+ *
+ * <p>
+ *   Like the REPL, a context keeps its globals between {@link #run(String)} calls, so a
+ *   script can build on definitions made by an earlier one. A context must only be used
+ *   by one thread at a time, but separate contexts share no mutable state and can run
+ *   concurrently.
+ * </p>
+ */
+public final class LoxContext {
+  private final Interpreter interpreter;
+  private final ErrorCollector errors = new ErrorCollector();
+  private final ScriptCache cache;
+  private InterpreterMetrics metrics = null;
+
+  LoxContext(PrintStream out, ScriptCache cache) {
+    interpreter = new Interpreter(out, errors);
+    this.cache = cache;
+  }
+
+  private LoxContext(LoxContext parent, PrintStream out) {
+    interpreter = parent.interpreter.fork(out, errors);
+    cache = parent.cache;
+  }
+
+  /**
+   * Creates a context that starts with this one's globals, typically after it has run
+   * shared library code, without running anything again. The two are isolated from then
+   * on: neither sees changes the other makes. State is shared copy-on-write, so forking
+   * is cheap enough to do per request; see {@link Interpreter#fork}.
+   *
+   * <p>
+   *   Like {@link #run(String)}, forking must not overlap other uses of this context. The
+   *   fork itself may then be used from another thread.
+   * </p>
+   *
+   * @param out the stream the fork's {@code print} statements write to
+   * @return the new context
+   */
+  public LoxContext fork(PrintStream out) {
+    return new LoxContext(this, out);
+  }
+
+  /**
+   * Scans, parses, resolves and executes a string of Lox source code. If the context was
+   * created by an engine with a {@link ScriptCache}, the compiled form is taken from and
+   * stored in the cache.
+   *
+   * @param source the Lox source code to execute
+   * @return true if the script compiled and ran without errors
+   */
+  public boolean run(String source) {
+    errors.clear();
+    CompiledScript script = cache != null
+        ? cache.getOrCompile(source, errors, metrics)
+        : CompiledScript.compile(source, errors, metrics);
+    if (script == null) {
+      return false;
+    }
+
+    interpreter.interpret(script.statements());
+    return !errors.hadRuntimeError();
+  }
+
+  /**
+   * Executes an already compiled script.
+   *
+   * @param script the script to execute
+   * @return true if the script ran without errors
+   */
+  public boolean run(CompiledScript script) {
+    errors.clear();
+    interpreter.interpret(script.statements());
+    return !errors.hadRuntimeError();
+  }
+
+  /**
+   * Binds a global in this context, typically a host-provided native function.
+   *
+   * @param name the global name
+   * @param value the value to bind
+   */
+  public void define(String name, Object value) {
+    interpreter.defineGlobal(name, value);
+  }
+
+  /**
+   * Starts collecting metrics for this context, if it isn't already, and returns them.
+   * They count what its scripts execute from now on, the time spent compiling them and
+   * the context's compiled-script cache hits. Forks of the context are not counted. To
+   * publish the metrics over JMX:
+   *
+   * <pre>
+   *   context.enableMetrics().register("orders");
+   * </pre>
+   *
+   * @return the context's metrics
+   */
+  public InterpreterMetrics enableMetrics() {
+    if (metrics == null) {
+      metrics = new InterpreterMetrics();
+      interpreter.collectMetrics(metrics);
+    }
+    return metrics;
+  }
+
+  /**
+   * Returns the errors reported by the most recent {@link #run(String)} call.
+   *
+   * @return the diagnostics, in the order they were reported
+   */
+  public List<Diagnostic> diagnostics() {
+    return errors.diagnostics();
+  }
+}
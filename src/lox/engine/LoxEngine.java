@@ -0,0 +1,137 @@
+package lox.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lox.ErrorReporter;
+
+/**
+ * Entry point for embedding Lox in a Java application.
+ *
+ * <p>
+ *   The engine creates isolated {@link LoxContext}s and can run one-off scripts, each in a
+ *   fresh context, either on the calling thread or asynchronously on its executor. By
+ *   default the executor starts a virtual thread per script, so thousands of small
+ *   scripts can be in flight at once. The engine itself is thread-safe.
+ * </p>
+ *
+ * <p>
+ *   Contexts created by one engine share its {@link ScriptCache}, so a script that is run
+ *   repeatedly is only scanned, parsed and resolved once.
+ * </p>
+ */
+public final class LoxEngine implements AutoCloseable {
+  private final ExecutorService executor;
+  private final ScriptCache cache;
+
+  /**
+   * The printed output and errors of a script run by the engine.
+   *
+   * @param output everything the script printed
+   * @param diagnostics the errors reported, empty if the script succeeded
+   */
+  public record Result(String output, List<Diagnostic> diagnostics) {
+    public boolean succeeded() {
+      return diagnostics.isEmpty();
+    }
+  }
+
+  /**
+   * Creates an engine that runs asynchronous scripts on virtual threads and caches up to
+   * 1024 compiled scripts.
+   */
+  public LoxEngine() {
+    this(Executors.newVirtualThreadPerTaskExecutor(), new ScriptCache(1024, 64L << 20));
+  }
+
+  /**
+   * Creates an engine that runs asynchronous scripts on the given executor.
+   *
+   * @param executor the executor used by {@link #submit(String)}
+   * @param cache the compiled-script cache shared by the engine's contexts, or null to
+   *              compile every script afresh
+   */
+  public LoxEngine(ExecutorService executor, ScriptCache cache) {
+    this.executor = executor;
+    this.cache = cache;
+  }
+
+  /**
+   * Compiles a script through the engine's cache.
+   *
+   * @param source the Lox source code
+   * @param reporter where to report compile errors
+   * @return the compiled script, or null if it failed to compile
+   */
+  public CompiledScript compile(String source, ErrorReporter reporter) {
+    if (cache == null) {
+      return CompiledScript.compile(source, reporter);
+    }
+    return cache.getOrCompile(source, reporter);
+  }
+
+  /**
+   * Returns the engine's compiled-script cache, or null if caching is disabled.
+   *
+   * @return the cache
+   */
+  public ScriptCache cache() {
+    return cache;
+  }
+
+  /**
+   * Creates a context whose {@code print} statements write to {@code out}.
+   *
+   * @param out the output stream for the context
+   * @return the new context
+   */
+  public LoxContext newContext(PrintStream out) {
+    return new LoxContext(out, cache);
+  }
+
+  /**
+   * Creates a context whose output is discarded.
+   *
+   * @return the new context
+   */
+  public LoxContext newContext() {
+    return new LoxContext(new PrintStream(OutputStream.nullOutputStream()), cache);
+  }
+
+  /**
+   * Runs a script in a fresh context on the calling thread.
+   *
+   * @param source the Lox source code to execute
+   * @return the script's output and errors
+   */
+  public Result execute(String source) {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    LoxContext context =
+        new LoxContext(new PrintStream(buffer, true, StandardCharsets.UTF_8), cache);
+    context.run(source);
+    return new Result(buffer.toString(StandardCharsets.UTF_8), context.diagnostics());
+  }
+
+  /**
+   * Runs a script in a fresh context on the engine's executor.
+   *
+   * @param source the Lox source code to execute
+   * @return a future completed with the script's output and errors
+   */
+  public CompletableFuture<Result> submit(String source) {
+    return CompletableFuture.supplyAsync(() -> execute(source), executor);
+  }
+
+  /**
+   * Stops accepting new scripts. Scripts already submitted run to completion.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,155 @@
+package lox.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import lox.ErrorReporter;
+import lox.interpreter.InterpreterMetrics;
+
+/**
+ * A thread-safe, size-bounded cache of {@link CompiledScript}s keyed by a SHA-256 hash of
+ * their source.
+ *
+ * <p>
+ *   Entries are evicted least recently used first once either the entry count or the
+ *   total source length of cached scripts exceeds its bound. Compilation happens outside
+ *   the cache lock, so a slow compile never blocks lookups of other scripts. Scripts that
+ *   fail to compile are not cached.
+ * </p>
+ */
+public final class ScriptCache {
+  private final int maxEntries;
+  private final long maxSourceChars;
+  private final LinkedHashMap<String, CompiledScript> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long sourceChars = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * A snapshot of the cache's counters.
+   *
+   * @param hits lookups answered from the cache
+   * @param misses lookups that had to compile
+   * @param evictions entries dropped to stay within bounds
+   * @param size entries currently cached
+   * @param sourceChars total source length of the cached entries
+   */
+  public record Stats(long hits, long misses, long evictions, int size, long sourceChars) {
+    /**
+     * Returns the fraction of lookups answered from the cache, or 0 before any lookup.
+     *
+     * @return the hit rate between 0 and 1
+     */
+    public double hitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxEntries the maximum number of cached scripts
+   * @param maxSourceChars the maximum total source length of cached scripts
+   */
+  public ScriptCache(int maxEntries, long maxSourceChars) {
+    this.maxEntries = maxEntries;
+    this.maxSourceChars = maxSourceChars;
+  }
+
+  /**
+   * Returns the compiled form of {@code source}, compiling and caching it on a miss.
+   *
+   * @param source the Lox source code
+   * @param reporter where to report errors if the source has to be compiled
+   * @return the compiled script, or null if it failed to compile
+   */
+  public CompiledScript getOrCompile(String source, ErrorReporter reporter) {
+    return getOrCompile(source, reporter, null);
+  }
+
+  /**
+   * Returns the compiled form of {@code source}, compiling and caching it on a miss, and
+   * records the lookup, and the compile if there is one, in {@code metrics}.
+   *
+   * @param source the Lox source code
+   * @param reporter where to report errors if the source has to be compiled
+   * @param metrics the metrics of the interpreter the script is for, or null
+   * @return the compiled script, or null if it failed to compile
+   */
+  public CompiledScript getOrCompile(String source, ErrorReporter reporter,
+                                     InterpreterMetrics metrics) {
+    String key = hash(source);
+    synchronized (this) {
+      CompiledScript cached = entries.get(key);
+      if (cached != null) {
+        hits.increment();
+        if (metrics != null) {
+          metrics.recordCacheLookup(true);
+        }
+        return cached;
+      }
+    }
+
+    misses.increment();
+    if (metrics != null) {
+      metrics.recordCacheLookup(false);
+    }
+    CompiledScript script = CompiledScript.compile(source, reporter, metrics);
+    if (script == null) {
+      return null;
+    }
+
+    synchronized (this) {
+      CompiledScript raced = entries.putIfAbsent(key, script);
+      if (raced != null) {
+        // Another thread compiled the same source first, share its copy.
+        return raced;
+      }
+      sourceChars += script.sourceLength();
+      evict();
+    }
+    return script;
+  }
+
+  /**
+   * Drops every cached script. Counters are kept.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    sourceChars = 0;
+  }
+
+  public synchronized Stats stats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), sourceChars);
+  }
+
+  // Removes least recently used entries until the cache is within both bounds.
+  private void evict() {
+    Iterator<Map.Entry<String, CompiledScript>> eldest = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || sourceChars > maxSourceChars) && eldest.hasNext()) {
+      sourceChars -= eldest.next().getValue().sourceLength();
+      eldest.remove();
+      evictions.increment();
+    }
+  }
+
+  private static String hash(String source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] bytes = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(bytes);
+    } catch (NoSuchAlgorithmException error) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(error);
+    }
+  }
+}
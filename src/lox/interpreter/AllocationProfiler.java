@@ -0,0 +1,259 @@
+package lox.interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lox.ast.Stmt;
+import lox.module.Module;
+
+/**
+ * Counts the objects the interpreter allocates on behalf of Lox code, by the Lox source
+ * line and function that caused them.
+ *
+ * <p>
+ *   A JVM allocation profiler attributes these objects to the interpreter's visitors,
+ *   not to the script. Here the interpreter records each one as it makes it, with the
+ *   line of the expression responsible and the function, or module top level, it ran
+ *   in. A block's scope has no expression of its own and is put on the line of the last
+ *   call or allocation before it, normally the statement that opened the block.
+ *   Allocations made by natives are not counted.
+ * </p>
+ *
+ * <p>
+ *   Sizes are estimates for a 64-bit JVM with compressed pointers, including the hash
+ *   tables environments and instances keep their bindings in; the JIT may also remove
+ *   some allocations altogether. They are meant to rank lines, not to add up to the
+ *   heap's figures.
+ * </p>
+ */
+public final class AllocationProfiler {
+  /**
+   * The kinds of object counted.
+   */
+  enum Kind {
+    ENVIRONMENT("environments"),
+    BOUND_METHOD("bound methods"),
+    INSTANCE("instances"),
+    ARGUMENTS("argument lists"),
+    NUMBER("boxed numbers"),
+    STRING("strings");
+
+    final String label;
+
+    Kind(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final int KINDS = Kind.values().length;
+
+  private final List<Recorder> recorders = new ArrayList<>();
+
+  // Where allocations are counted: a line in a function, or in a module's top level if
+  // scope is a Module, or in the script if it is null.
+  private record Site(Object scope, int line) {
+  }
+
+  /**
+   * Counts the allocations of one interpreter. Only used by the interpreter's thread.
+   */
+  static final class Recorder {
+    private final AllocationProfiler profiler;
+    // Counts then byte totals, by kind, per site.
+    private final Map<Site, long[]> sites = new HashMap<>();
+    // Where allocations were being counted before each enter().
+    private final Deque<Site> entered = new ArrayDeque<>();
+    private Object scope;
+    private int line;
+
+    private Recorder(AllocationProfiler profiler, Recorder parent) {
+      this.profiler = profiler;
+      if (parent != null) {
+        scope = parent.scope;
+        line = parent.line;
+      }
+    }
+
+    AllocationProfiler profiler() {
+      return profiler;
+    }
+
+    /**
+     * Counts an allocation on the given line.
+     */
+    void record(int line, Kind kind, long bytes) {
+      this.line = line;
+      record(kind, bytes);
+    }
+
+    /**
+     * Counts an allocation on the line of the last one, or of the last call.
+     */
+    void record(Kind kind, long bytes) {
+      long[] counts =
+          sites.computeIfAbsent(new Site(scope, line), site -> new long[KINDS * 2]);
+      counts[kind.ordinal()]++;
+      counts[KINDS + kind.ordinal()] += bytes;
+    }
+
+    /**
+     * Counts a method bound to an instance, and the environment binding {@code this}.
+     */
+    void bound(int line) {
+      record(line, Kind.BOUND_METHOD, 24);
+      record(Kind.ENVIRONMENT, environmentBytes(1));
+    }
+
+    int line() {
+      return line;
+    }
+
+    /**
+     * Attributes allocations to a function, or to a module's top level, from the given
+     * line until {@link #exit()}.
+     */
+    void enter(Object scope, int line) {
+      entered.push(new Site(this.scope, this.line));
+      this.scope = scope;
+      this.line = line;
+    }
+
+    void exit() {
+      Site previous = entered.pop();
+      scope = previous.scope();
+      line = previous.line();
+    }
+  }
+
+  Recorder recorder(Recorder parent) {
+    Recorder recorder = new Recorder(this, parent);
+    synchronized (recorders) {
+      recorders.add(recorder);
+    }
+    return recorder;
+  }
+
+  /**
+   * Estimates the size of an environment made with {@code bindings} variables.
+   *
+   * @param bindings the number of variables
+   * @return the size in bytes
+   */
+  static long environmentBytes(int bindings) {
+    // The Environment and its HashMap, then the table and an entry per binding.
+    return 80 + (bindings > 0 ? 80 + 32L * bindings : 0);
+  }
+
+  /**
+   * Estimates the size of an instance, including a table for its first fields.
+   *
+   * @return the size in bytes
+   */
+  static long instanceBytes() {
+    return 160;
+  }
+
+  /**
+   * Estimates the size of an argument list of {@code count} values.
+   *
+   * @param count the number of arguments
+   * @return the size in bytes
+   */
+  static long argumentsBytes(int count) {
+    // The ArrayList, then the backing array it allocates on the first add.
+    return 24 + (count > 0 ? (16 + 4L * Math.max(count, 10) + 7) & ~7 : 0);
+  }
+
+  /**
+   * Estimates the size of a string of {@code length} Latin-1 characters.
+   *
+   * @param length the length
+   * @return the size in bytes
+   */
+  static long stringBytes(int length) {
+    return 24 + ((16 + length + 7) & ~7);
+  }
+
+  /**
+   * Prints the lines that allocated the most bytes, with their counts by kind, and then
+   * the totals by function. Call once the interpreters being profiled have finished.
+   *
+   * @param out where to print
+   * @param limit the most lines, and functions, to list
+   */
+  public void report(PrintStream out, int limit) {
+    Map<Site, long[]> byLine = new HashMap<>();
+    Map<Object, long[]> byScope = new HashMap<>();
+    synchronized (recorders) {
+      for (Recorder recorder : recorders) {
+        for (Map.Entry<Site, long[]> entry : recorder.sites.entrySet()) {
+          add(byLine.computeIfAbsent(entry.getKey(), site -> new long[KINDS * 2]),
+              entry.getValue());
+          add(byScope.computeIfAbsent(entry.getKey().scope(), scope -> new long[KINDS * 2]),
+              entry.getValue());
+        }
+      }
+    }
+
+    long total = 0;
+    for (long[] counts : byScope.values()) {
+      total += bytes(counts);
+    }
+    out.printf("Approximately %.1f MB allocated by Lox code.%n", total / 1e6);
+    printTable(out, "line", byLine.entrySet().stream()
+        .map(e -> Map.entry(label(e.getKey().scope()) + " line " + e.getKey().line(),
+            e.getValue()))
+        .toList(), limit);
+    printTable(out, "function", byScope.entrySet().stream()
+        .map(e -> Map.entry(label(e.getKey()), e.getValue()))
+        .toList(), limit);
+  }
+
+  private static String label(Object scope) {
+    if (scope instanceof Stmt.Function function) {
+      return function.name.lexeme + ":" + function.name.line;
+    }
+    if (scope instanceof Module module) {
+      return "<" + module.name() + ">";
+    }
+    return "<script>";
+  }
+
+  private static void add(long[] into, long[] counts) {
+    for (int i = 0; i < into.length; i++) {
+      into[i] += counts[i];
+    }
+  }
+
+  private static long bytes(long[] counts) {
+    long bytes = 0;
+    for (int i = KINDS; i < counts.length; i++) {
+      bytes += counts[i];
+    }
+    return bytes;
+  }
+
+  private static void printTable(PrintStream out, String heading,
+                                 List<Map.Entry<String, long[]>> rows, int limit) {
+    List<Map.Entry<String, long[]>> sorted = new ArrayList<>(rows);
+    sorted.sort((a, b) -> Long.compare(bytes(b.getValue()), bytes(a.getValue())));
+    out.println();
+    out.printf("%10s", "KB");
+    for (Kind kind : Kind.values()) {
+      out.printf(" %14s", kind.label);
+    }
+    out.printf("  %s%n", heading);
+    for (Map.Entry<String, long[]> row : sorted.subList(0, Math.min(limit, sorted.size()))) {
+      long[] counts = row.getValue();
+      out.printf("%10.1f", bytes(counts) / 1e3);
+      for (Kind kind : Kind.values()) {
+        out.printf(" %14d", counts[kind.ordinal()]);
+      }
+      out.printf("  %s%n", row.getKey());
+    }
+  }
+}
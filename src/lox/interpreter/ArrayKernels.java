@@ -0,0 +1,294 @@
+package lox.interpreter;
+
+import java.nio.DoubleBuffer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Bulk numeric operations over {@link NumberArray}s.
+ *
+ * <p>
+ *   Each kernel streams the off-heap chunks through a small on-heap block with the bulk
+ *   {@link DoubleBuffer} copy methods and runs its inner loop over that {@code double[]}.
+ *   Each kernel holds its arrays, as {@link NumberArray#acquire()} describes, until it
+ *   returns.
+ * </p>
+ *
+ * <p>
+ *   The inner loops come in two versions. When the JVM runs with
+ *   {@code --add-modules jdk.incubator.vector}, the loops in {@link VectorKernels} work a
+ *   whole SIMD register at a time. Otherwise, or when the system property
+ *   {@code lox.vectorKernels} is {@code false}, the plain loops here run instead. Simple
+ *   counted loops over arrays are what the JIT unrolls and compiles to SIMD instructions
+ *   itself, but it keeps reductions in order, so these keep four independent accumulators
+ *   so that successive adds don't wait on each other.
+ * </p>
+ */
+final class ArrayKernels {
+  static final int BLOCK = 1024;
+  // Whether the inner loops are the ones in VectorKernels. That class is loaded only if so.
+  private static final boolean VECTOR =
+      ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+          && Boolean.parseBoolean(System.getProperty("lox.vectorKernels", "true"));
+
+  private ArrayKernels() {
+  }
+
+  /**
+   * An element-wise operation applied to one block.
+   */
+  private interface BlockOp {
+    void apply(double[] block, int length);
+  }
+
+  /**
+   * A reduction of one block to a single number.
+   */
+  private interface BlockReduction {
+    double apply(double[] block, int length);
+  }
+
+  static double sum(NumberArray array) {
+    return reduce(array, VECTOR ? VectorKernels::sum : ArrayKernels::sum, Double::sum, 0);
+  }
+
+  static double min(NumberArray array) {
+    return reduce(array, VECTOR ? VectorKernels::min : ArrayKernels::min, Math::min,
+        Double.POSITIVE_INFINITY);
+  }
+
+  static double max(NumberArray array) {
+    return reduce(array, VECTOR ? VectorKernels::max : ArrayKernels::max, Math::max,
+        Double.NEGATIVE_INFINITY);
+  }
+
+  static double dot(NumberArray a, NumberArray b) {
+    DoubleBuffer[] chunksA = a.acquire();
+    try {
+      DoubleBuffer[] chunksB = b.acquire();
+      try {
+        return dot(chunksA, chunksB);
+      } finally {
+        b.release();
+      }
+    } finally {
+      a.release();
+    }
+  }
+
+  private static double dot(DoubleBuffer[] chunksA, DoubleBuffer[] chunksB) {
+    double[] blockA = new double[BLOCK];
+    double[] blockB = new double[BLOCK];
+    double dot = 0;
+    for (int c = 0; c < chunksA.length; c++) {
+      DoubleBuffer chunkA = chunksA[c];
+      DoubleBuffer chunkB = chunksB[c];
+      for (int offset = 0; offset < chunkA.limit(); offset += BLOCK) {
+        int n = Math.min(BLOCK, chunkA.limit() - offset);
+        chunkA.get(offset, blockA, 0, n);
+        chunkB.get(offset, blockB, 0, n);
+        dot += VECTOR ? VectorKernels.dot(blockA, blockB, n) : dot(blockA, blockB, n);
+      }
+    }
+    return dot;
+  }
+
+  /**
+   * Computes {@code y = alpha * x + y} in place.
+   */
+  static void axpy(double alpha, NumberArray x, NumberArray y) {
+    DoubleBuffer[] chunksX = x.acquire();
+    try {
+      DoubleBuffer[] chunksY = y.acquire();
+      try {
+        axpy(alpha, chunksX, chunksY);
+      } finally {
+        y.release();
+      }
+    } finally {
+      x.release();
+    }
+  }
+
+  private static void axpy(double alpha, DoubleBuffer[] chunksX, DoubleBuffer[] chunksY) {
+    double[] blockX = new double[BLOCK];
+    double[] blockY = new double[BLOCK];
+    for (int c = 0; c < chunksX.length; c++) {
+      DoubleBuffer chunkX = chunksX[c];
+      DoubleBuffer chunkY = chunksY[c];
+      for (int offset = 0; offset < chunkX.limit(); offset += BLOCK) {
+        int n = Math.min(BLOCK, chunkX.limit() - offset);
+        chunkX.get(offset, blockX, 0, n);
+        chunkY.get(offset, blockY, 0, n);
+        if (VECTOR) {
+          VectorKernels.axpy(alpha, blockX, blockY, n);
+        } else {
+          for (int i = 0; i < n; i++) {
+            blockY[i] += alpha * blockX[i];
+          }
+        }
+        chunkY.put(offset, blockY, 0, n);
+      }
+    }
+  }
+
+  /**
+   * Replaces each element with the sum of itself and all elements before it.
+   */
+  static void prefixSum(NumberArray array) {
+    double[] carry = {0};
+    forEachBlock(array, (block, n) -> {
+      double running = carry[0];
+      for (int i = 0; i < n; i++) {
+        running += block[i];
+        block[i] = running;
+      }
+      carry[0] = running;
+    });
+  }
+
+  /**
+   * Applies a named builtin operation to every element in place.
+   *
+   * @return false if the operation name is unknown
+   */
+  static boolean map(NumberArray array, String op) {
+    switch (op) {
+      case "neg":
+        forEachBlock(array, VECTOR ? VectorKernels::neg : (block, n) -> {
+          for (int i = 0; i < n; i++) {
+            block[i] = -block[i];
+          }
+        });
+        return true;
+      case "abs":
+        forEachBlock(array, VECTOR ? VectorKernels::abs : (block, n) -> {
+          for (int i = 0; i < n; i++) {
+            block[i] = Math.abs(block[i]);
+          }
+        });
+        return true;
+      case "square":
+        forEachBlock(array, VECTOR ? VectorKernels::square : (block, n) -> {
+          for (int i = 0; i < n; i++) {
+            block[i] = block[i] * block[i];
+          }
+        });
+        return true;
+      case "sqrt":
+        forEachBlock(array, VECTOR ? VectorKernels::sqrt : (block, n) -> {
+          for (int i = 0; i < n; i++) {
+            block[i] = Math.sqrt(block[i]);
+          }
+        });
+        return true;
+      case "floor":
+        return mapEach(array, Math::floor);
+      case "ceil":
+        return mapEach(array, Math::ceil);
+      case "exp":
+        return mapEach(array, Math::exp);
+      case "log":
+        return mapEach(array, Math::log);
+      default:
+        return false;
+    }
+  }
+
+  private static double sum(double[] block, int n) {
+    double s0 = 0;
+    double s1 = 0;
+    double s2 = 0;
+    double s3 = 0;
+    int i = 0;
+    for (; i + 3 < n; i += 4) {
+      s0 += block[i];
+      s1 += block[i + 1];
+      s2 += block[i + 2];
+      s3 += block[i + 3];
+    }
+    for (; i < n; i++) {
+      s0 += block[i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private static double dot(double[] blockA, double[] blockB, int n) {
+    double s0 = 0;
+    double s1 = 0;
+    double s2 = 0;
+    double s3 = 0;
+    int i = 0;
+    for (; i + 3 < n; i += 4) {
+      s0 += blockA[i] * blockB[i];
+      s1 += blockA[i + 1] * blockB[i + 1];
+      s2 += blockA[i + 2] * blockB[i + 2];
+      s3 += blockA[i + 3] * blockB[i + 3];
+    }
+    for (; i < n; i++) {
+      s0 += blockA[i] * blockB[i];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  private static double min(double[] block, int n) {
+    double min = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      min = Math.min(min, block[i]);
+    }
+    return min;
+  }
+
+  private static double max(double[] block, int n) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      max = Math.max(max, block[i]);
+    }
+    return max;
+  }
+
+  private static boolean mapEach(NumberArray array, DoubleUnaryOperator op) {
+    forEachBlock(array, (block, n) -> {
+      for (int i = 0; i < n; i++) {
+        block[i] = op.applyAsDouble(block[i]);
+      }
+    });
+    return true;
+  }
+
+  private static double reduce(NumberArray array, BlockReduction op,
+      DoubleBinaryOperator combine, double identity) {
+    DoubleBuffer[] chunks = array.acquire();
+    try {
+      double[] block = new double[BLOCK];
+      double result = identity;
+      for (DoubleBuffer chunk : chunks) {
+        for (int offset = 0; offset < chunk.limit(); offset += BLOCK) {
+          int n = Math.min(BLOCK, chunk.limit() - offset);
+          chunk.get(offset, block, 0, n);
+          result = combine.applyAsDouble(result, op.apply(block, n));
+        }
+      }
+      return result;
+    } finally {
+      array.release();
+    }
+  }
+
+  private static void forEachBlock(NumberArray array, BlockOp op) {
+    DoubleBuffer[] chunks = array.acquire();
+    try {
+      double[] block = new double[BLOCK];
+      for (DoubleBuffer chunk : chunks) {
+        for (int offset = 0; offset < chunk.limit(); offset += BLOCK) {
+          int n = Math.min(BLOCK, chunk.limit() - offset);
+          chunk.get(offset, block, 0, n);
+          op.apply(block, n);
+          chunk.put(offset, block, 0, n);
+        }
+      }
+    } finally {
+      array.release();
+    }
+  }
+}
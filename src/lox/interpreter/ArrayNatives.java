@@ -0,0 +1,170 @@
+package lox.interpreter;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Native functions exposing off-heap {@link NumberArray}s to Lox.
+ *
+ * <ul>
+ *   <li>{@code arrayNew(length)} - Allocates a zero-filled array in a temporary file.</li>
+ *   <li>{@code arrayOpen(path)} - Maps a binary file of doubles for reading and writing.</li>
+ *   <li>{@code arrayGet(array, index)} / {@code arraySet(array, index, value)} - Element
+ *   access.</li>
+ *   <li>{@code arrayLength(array)} - Returns the number of elements.</li>
+ *   <li>{@code arrayClose(array)} - Invalidates the array and releases its memory, or
+ *   flushes a mapped file, once no task is using it.</li>
+ * </ul>
+ *
+ * <p>
+ *   Bulk operations, implemented by {@link ArrayKernels}, run their loops in Java instead
+ *   of the interpreter:
+ * </p>
+ * <ul>
+ *   <li>{@code arraySum(array)}, {@code arrayMin(array)}, {@code arrayMax(array)} -
+ *   Reductions; min and max of an empty array are nil.</li>
+ *   <li>{@code arrayDot(a, b)} - Dot product of two arrays of equal length.</li>
+ *   <li>{@code arrayAxpy(alpha, x, y)} - Sets {@code y} to {@code alpha * x + y}.</li>
+ *   <li>{@code arrayMap(array, op)} - Applies "neg", "abs", "square", "sqrt", "floor",
+ *   "ceil", "exp" or "log" to every element.</li>
+ *   <li>{@code arrayPrefixSum(array)} - Replaces each element with its running total.</li>
+ * </ul>
+ */
+final class ArrayNatives {
+  private ArrayNatives() {
+  }
+
+  static void define(Environment globals) {
+    globals.define("arrayNew", new NativeFunction("arrayNew", 1, ArrayNatives::arrayNew));
+    globals.define("arrayOpen", new NativeFunction("arrayOpen", 1, ArrayNatives::arrayOpen));
+    globals.define("arrayGet", new NativeFunction("arrayGet", 2, ArrayNatives::arrayGet));
+    globals.define("arraySet", new NativeFunction("arraySet", 3, ArrayNatives::arraySet));
+    globals.define("arrayLength", new NativeFunction("arrayLength", 1,
+        (interpreter, args) -> (double) array(args.get(0)).length()));
+    globals.define("arrayClose", new NativeFunction("arrayClose", 1, ArrayNatives::arrayClose));
+
+    globals.define("arraySum", new NativeFunction("arraySum", 1,
+        (interpreter, args) -> ArrayKernels.sum(array(args.get(0)))));
+    globals.define("arrayMin", new NativeFunction("arrayMin", 1, ArrayNatives::arrayMin));
+    globals.define("arrayMax", new NativeFunction("arrayMax", 1, ArrayNatives::arrayMax));
+    globals.define("arrayDot", new NativeFunction("arrayDot", 2, ArrayNatives::arrayDot));
+    globals.define("arrayAxpy", new NativeFunction("arrayAxpy", 3, ArrayNatives::arrayAxpy));
+    globals.define("arrayMap", new NativeFunction("arrayMap", 2, ArrayNatives::arrayMap));
+    globals.define("arrayPrefixSum", new NativeFunction("arrayPrefixSum", 1,
+        ArrayNatives::arrayPrefixSum));
+  }
+
+  private static Object arrayNew(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof Double length) || length != Math.floor(length) || length < 0
+        || length > NumberArray.MAX_LENGTH) {
+      throw new RuntimeError("Array length must be a non-negative integer of at most "
+          + NumberArray.MAX_LENGTH + ".");
+    }
+    try {
+      return NumberArray.allocate((long) (double) length);
+    } catch (IOException error) {
+      throw new RuntimeError("Can't allocate array: " + error.getMessage());
+    }
+  }
+
+  private static Object arrayOpen(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof String path)) {
+      throw new RuntimeError("Array path must be a string.");
+    }
+    try {
+      return NumberArray.map(Paths.get(path));
+    } catch (IOException error) {
+      throw new RuntimeError("Can't map '" + path + "': " + error.getMessage());
+    }
+  }
+
+  private static Object arrayGet(Interpreter interpreter, List<Object> args) {
+    NumberArray array = array(args.get(0));
+    return array.get(index(array, args.get(1)));
+  }
+
+  private static Object arraySet(Interpreter interpreter, List<Object> args) {
+    NumberArray array = array(args.get(0));
+    long index = index(array, args.get(1));
+    if (!(args.get(2) instanceof Double value)) {
+      throw new RuntimeError("Array elements must be numbers.");
+    }
+    array.set(index, value);
+    return value;
+  }
+
+  private static Object arrayClose(Interpreter interpreter, List<Object> args) {
+    array(args.get(0)).close();
+    return null;
+  }
+
+  private static Object arrayMin(Interpreter interpreter, List<Object> args) {
+    NumberArray array = array(args.get(0));
+    return array.length() == 0 ? null : ArrayKernels.min(array);
+  }
+
+  private static Object arrayMax(Interpreter interpreter, List<Object> args) {
+    NumberArray array = array(args.get(0));
+    return array.length() == 0 ? null : ArrayKernels.max(array);
+  }
+
+  private static Object arrayDot(Interpreter interpreter, List<Object> args) {
+    NumberArray a = array(args.get(0));
+    NumberArray b = array(args.get(1));
+    checkSameLength(a, b);
+    return ArrayKernels.dot(a, b);
+  }
+
+  private static Object arrayAxpy(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof Double alpha)) {
+      throw new RuntimeError("Scale factor must be a number.");
+    }
+    NumberArray x = array(args.get(1));
+    NumberArray y = array(args.get(2));
+    checkSameLength(x, y);
+    ArrayKernels.axpy(alpha, x, y);
+    return y;
+  }
+
+  private static Object arrayMap(Interpreter interpreter, List<Object> args) {
+    NumberArray array = array(args.get(0));
+    if (!(args.get(1) instanceof String op) || !ArrayKernels.map(array, op)) {
+      throw new RuntimeError("Unknown array operation '" + Interpreter.stringify(args.get(1))
+          + "'.");
+    }
+    return array;
+  }
+
+  private static Object arrayPrefixSum(Interpreter interpreter, List<Object> args) {
+    NumberArray array = array(args.get(0));
+    ArrayKernels.prefixSum(array);
+    return array;
+  }
+
+  private static void checkSameLength(NumberArray a, NumberArray b) {
+    if (a.length() != b.length()) {
+      throw new RuntimeError("Arrays must have the same length.");
+    }
+  }
+
+  static NumberArray array(Object value) {
+    if (!(value instanceof NumberArray array)) {
+      throw new RuntimeError("Operand must be an array.");
+    }
+    if (array.isClosed()) {
+      throw new RuntimeError("Array is closed.");
+    }
+    return array;
+  }
+
+  private static long index(NumberArray array, Object value) {
+    if (!(value instanceof Double d) || d != Math.floor(d) || d < 0) {
+      throw new RuntimeError("Index must be a non-negative integer.");
+    }
+    if (d >= array.length()) {
+      throw new RuntimeError("Index out of bounds.");
+    }
+    return (long) (double) d;
+  }
+}
@@ -0,0 +1,79 @@
+package lox.interpreter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import lox.ast.Stmt;
+
+/**
+ * The Lox functions an interpreter is currently inside, kept for a {@link Profiler}.
+ *
+ * <p>
+ *   Only the interpreter's own thread pushes and pops, at the cost of an array store and
+ *   a release write of the depth, which needs no fence on common hardware. The
+ *   profiler's thread reads the stack while it changes, without locking; a sample taken
+ *   mid-call may be off by the frame being pushed or popped, which sampling tolerates. A
+ *   task's stack starts with a copy of the frames that spawned it, so its samples are
+ *   attributed below the caller.
+ * </p>
+ */
+final class CallStack {
+  private static final VarHandle DEPTH;
+
+  static {
+    try {
+      DEPTH = MethodHandles.lookup().findVarHandle(CallStack.class, "depth", int.class);
+    } catch (ReflectiveOperationException error) {
+      throw new ExceptionInInitializerError(error);
+    }
+  }
+
+  private final Profiler profiler;
+  private volatile Stmt.Function[] frames;
+  // Written with release semantics and read with acquire, so the sampling thread sees
+  // every frame below the depth it reads.
+  private int depth;
+
+  CallStack(Profiler profiler, CallStack parent) {
+    this.profiler = profiler;
+    if (parent == null) {
+      frames = new Stmt.Function[16];
+      depth = 0;
+    } else {
+      int prefix = parent.depth;
+      frames = Arrays.copyOf(parent.frames, Math.max(prefix * 2, 16));
+      depth = prefix;
+    }
+  }
+
+  Profiler profiler() {
+    return profiler;
+  }
+
+  void push(Stmt.Function function) {
+    int top = depth;
+    Stmt.Function[] current = frames;
+    if (top == current.length) {
+      current = Arrays.copyOf(current, top * 2);
+      frames = current;
+    }
+    current[top] = function;
+    DEPTH.setRelease(this, top + 1);
+  }
+
+  void pop() {
+    DEPTH.setRelease(this, depth - 1);
+  }
+
+  /**
+   * Returns a copy of the current frames, outermost first. Called from the profiler's
+   * thread.
+   *
+   * @return the frames
+   */
+  Stmt.Function[] sample() {
+    int top = (int) DEPTH.getAcquire(this);
+    Stmt.Function[] current = frames;
+    return Arrays.copyOf(current, Math.min(top, current.length));
+  }
+}
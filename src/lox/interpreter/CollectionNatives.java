@@ -0,0 +1,185 @@
+package lox.interpreter;
+
+import java.util.List;
+
+/**
+ * Native functions exposing persistent vectors and hash maps to Lox.
+ *
+ * <ul>
+ *   <li>{@code vector()} / {@code hashMap()} - Return an empty persistent collection.</li>
+ *   <li>{@code count(coll)} - Returns the number of elements or entries.</li>
+ *   <li>{@code get(coll, key)} - Looks up an index or key; missing map keys yield nil.</li>
+ *   <li>{@code assoc(coll, key, value)} - Binds an index or key.</li>
+ *   <li>{@code conj(vector, value)} - Appends to a vector.</li>
+ *   <li>{@code pop(vector)} - Drops the last element of a persistent vector.</li>
+ *   <li>{@code dissoc(map, key)} - Removes a key from a map.</li>
+ *   <li>{@code contains(coll, key)} - Tests whether an index or key is present.</li>
+ *   <li>{@code transient(coll)} / {@code persistent(coll)} - Switch to and from a mutable
+ *   builder. Updates on a transient modify it in place and return it.</li>
+ * </ul>
+ */
+final class CollectionNatives {
+  private CollectionNatives() {
+  }
+
+  static void define(Environment globals) {
+    globals.define("vector", new NativeFunction("vector", 0,
+        (interpreter, args) -> PersistentVector.EMPTY));
+    globals.define("hashMap", new NativeFunction("hashMap", 0,
+        (interpreter, args) -> PersistentHashMap.EMPTY));
+    globals.define("count", new NativeFunction("count", 1, CollectionNatives::count));
+    globals.define("get", new NativeFunction("get", 2, CollectionNatives::get));
+    globals.define("assoc", new NativeFunction("assoc", 3, CollectionNatives::assoc));
+    globals.define("conj", new NativeFunction("conj", 2, CollectionNatives::conj));
+    globals.define("pop", new NativeFunction("pop", 1, CollectionNatives::pop));
+    globals.define("dissoc", new NativeFunction("dissoc", 2, CollectionNatives::dissoc));
+    globals.define("contains", new NativeFunction("contains", 2, CollectionNatives::contains));
+    globals.define("transient", new NativeFunction("transient", 1,
+        CollectionNatives::toTransient));
+    globals.define("persistent", new NativeFunction("persistent", 1,
+        CollectionNatives::toPersistent));
+  }
+
+  private static Object count(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    if (coll instanceof PersistentVector vector) {
+      return (double) vector.count();
+    }
+    if (coll instanceof PersistentVector.Transient vector) {
+      return (double) vector.count();
+    }
+    if (coll instanceof PersistentHashMap map) {
+      return (double) map.count();
+    }
+    if (coll instanceof PersistentHashMap.Transient map) {
+      return (double) map.count();
+    }
+    throw notCollection("count");
+  }
+
+  private static Object get(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    Object key = args.get(1);
+    if (coll instanceof PersistentVector vector) {
+      return vector.get(index(key, vector.count()));
+    }
+    if (coll instanceof PersistentVector.Transient vector) {
+      return vector.get(index(key, vector.count()));
+    }
+    if (coll instanceof PersistentHashMap map) {
+      return map.get(key, null);
+    }
+    if (coll instanceof PersistentHashMap.Transient map) {
+      return map.get(key, null);
+    }
+    throw notCollection("get");
+  }
+
+  private static Object assoc(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    Object key = args.get(1);
+    Object value = args.get(2);
+    if (coll instanceof PersistentVector vector) {
+      return vector.assoc(index(key, vector.count() + 1), value);
+    }
+    if (coll instanceof PersistentVector.Transient vector) {
+      return vector.assoc(index(key, vector.count() + 1), value);
+    }
+    if (coll instanceof PersistentHashMap map) {
+      return map.assoc(key, value);
+    }
+    if (coll instanceof PersistentHashMap.Transient map) {
+      return map.assoc(key, value);
+    }
+    throw notCollection("assoc");
+  }
+
+  private static Object conj(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    if (coll instanceof PersistentVector vector) {
+      return vector.conj(args.get(1));
+    }
+    if (coll instanceof PersistentVector.Transient vector) {
+      return vector.conj(args.get(1));
+    }
+    throw new RuntimeError("Can only conj onto a vector.");
+  }
+
+  private static Object pop(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof PersistentVector vector)) {
+      throw new RuntimeError("Can only pop a persistent vector.");
+    }
+    if (vector.count() == 0) {
+      throw new RuntimeError("Can't pop an empty vector.");
+    }
+    return vector.pop();
+  }
+
+  private static Object dissoc(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    if (coll instanceof PersistentHashMap map) {
+      return map.without(args.get(1));
+    }
+    if (coll instanceof PersistentHashMap.Transient map) {
+      return map.without(args.get(1));
+    }
+    throw new RuntimeError("Can only dissoc from a map.");
+  }
+
+  private static Object contains(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    Object key = args.get(1);
+    if (coll instanceof PersistentHashMap map) {
+      return map.containsKey(key);
+    }
+    if (coll instanceof PersistentHashMap.Transient map) {
+      return map.containsKey(key);
+    }
+    int count;
+    if (coll instanceof PersistentVector vector) {
+      count = vector.count();
+    } else if (coll instanceof PersistentVector.Transient vector) {
+      count = vector.count();
+    } else {
+      throw notCollection("contains");
+    }
+    return key instanceof Double d && d == Math.floor(d) && d >= 0 && d < count;
+  }
+
+  private static Object toTransient(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    if (coll instanceof PersistentVector vector) {
+      return vector.asTransient();
+    }
+    if (coll instanceof PersistentHashMap map) {
+      return map.asTransient();
+    }
+    throw new RuntimeError("Can only make a transient from a persistent collection.");
+  }
+
+  private static Object toPersistent(Interpreter interpreter, List<Object> args) {
+    Object coll = args.get(0);
+    if (coll instanceof PersistentVector.Transient vector) {
+      return vector.persistent();
+    }
+    if (coll instanceof PersistentHashMap.Transient map) {
+      return map.persistent();
+    }
+    throw new RuntimeError("Can only make a persistent collection from a transient.");
+  }
+
+  // Converts a Lox number into an index below the given bound.
+  private static int index(Object key, int bound) {
+    if (!(key instanceof Double d) || d != Math.floor(d) || d < 0) {
+      throw new RuntimeError("Index must be a non-negative integer.");
+    }
+    if (d >= bound) {
+      throw new RuntimeError("Index out of bounds.");
+    }
+    return (int) (double) d;
+  }
+
+  private static RuntimeError notCollection(String name) {
+    return new RuntimeError("Can only call '" + name + "' on a vector or map.");
+  }
+}
@@ -0,0 +1,193 @@
+package lox.interpreter;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Native functions for running Lox code concurrently.
+ *
+ * <ul>
+ *   <li>{@code spawn(fn)} - Calls a function of no arguments on a new virtual thread and
+ *   returns a task.</li>
+ *   <li>{@code join(task)} - Waits for a task and returns its result. If the task failed,
+ *   the error is raised in the joining code.</li>
+ *   <li>{@code channel(capacity)} - Creates a bounded channel.</li>
+ *   <li>{@code send(channel, value)} - Adds a value, waiting while the channel is
+ *   full.</li>
+ *   <li>{@code receive(channel)} - Takes the oldest value, waiting while the channel is
+ *   empty. Returns nil once the channel is closed and drained.</li>
+ *   <li>{@code closeChannel(channel)} - Closes a channel; later sends are errors.</li>
+ * </ul>
+ *
+ * <p>
+ *   Each task runs in its own {@link Interpreter} that shares the spawning interpreter's
+ *   globals. The spawned function, values sent over channels and task results are
+ *   published with {@link Sharing} before another thread can see them.
+ * </p>
+ */
+final class ConcurrencyNatives {
+  private ConcurrencyNatives() {
+  }
+
+  static void define(Environment globals) {
+    globals.define("spawn", new NativeFunction("spawn", 1, ConcurrencyNatives::spawn));
+    globals.define("join", new NativeFunction("join", 1, ConcurrencyNatives::join));
+    globals.define("channel", new NativeFunction("channel", 1, ConcurrencyNatives::channel));
+    globals.define("send", new NativeFunction("send", 2,
+        (interpreter, args) -> {
+          channel(args.get(0)).send(args.get(1));
+          return null;
+        }));
+    globals.define("receive", new NativeFunction("receive", 1,
+        (interpreter, args) -> channel(args.get(0)).receive()));
+    globals.define("closeChannel", new NativeFunction("closeChannel", 1,
+        (interpreter, args) -> {
+          channel(args.get(0)).close();
+          return null;
+        }));
+  }
+
+  /**
+   * A function running on its own virtual thread.
+   */
+  static final class Task {
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    @Override
+    public String toString() {
+      return result.isDone() ? "<task done>" : "<task>";
+    }
+  }
+
+  /**
+   * A bounded first-in, first-out queue between tasks. Nil may be sent, so a receiver
+   * can only tell a closed channel from a nil value by knowing what was sent.
+   */
+  static final class Channel {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    Channel(int capacity) {
+      buffer = new Object[capacity];
+    }
+
+    void send(Object value) {
+      Sharing.publish(value);
+      lock.lock();
+      try {
+        while (count == buffer.length && !closed) {
+          notFull.awaitUninterruptibly();
+        }
+        if (closed) {
+          throw new RuntimeError("Can't send on a closed channel.");
+        }
+        buffer[(head + count) % buffer.length] = value;
+        count++;
+        notEmpty.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Object receive() {
+      lock.lock();
+      try {
+        while (count == 0 && !closed) {
+          notEmpty.awaitUninterruptibly();
+        }
+        if (count == 0) {
+          return null;
+        }
+        Object value = buffer[head];
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        count--;
+        notFull.signal();
+        return value;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void close() {
+      lock.lock();
+      try {
+        closed = true;
+        notEmpty.signalAll();
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<channel " + buffer.length + ">";
+    }
+  }
+
+  private static Object spawn(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof LoxCallable callable) || callable.arity() != 0) {
+      throw new RuntimeError("Can only spawn a function of no arguments.");
+    }
+
+    Sharing.publish(callable);
+    Task task = new Task();
+    // Created here, where the spawning interpreter's call stack is not changing.
+    Interpreter worker = new Interpreter(interpreter);
+    Thread.ofVirtual().name("lox-task").start(() -> {
+      try {
+        Object value = callable.call(worker, List.of());
+        Sharing.publish(value);
+        task.result.complete(value);
+      } catch (Throwable error) {
+        task.result.completeExceptionally(error);
+      } finally {
+        worker.finishTask();
+      }
+    });
+    return task;
+  }
+
+  private static Object join(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof Task task)) {
+      throw new RuntimeError("Can only join a task.");
+    }
+
+    try {
+      return task.result.get();
+    } catch (ExecutionException error) {
+      Throwable cause = error.getCause();
+      if (cause instanceof StackOverflowError) {
+        throw new RuntimeError("Task failed: Stack overflow.");
+      }
+      throw new RuntimeError("Task failed: " + cause.getMessage());
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeError("Interrupted while joining a task.");
+    }
+  }
+
+  private static Object channel(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof Double capacity) || capacity != Math.floor(capacity)
+        || capacity < 1 || capacity > Integer.MAX_VALUE) {
+      throw new RuntimeError("Channel capacity must be a positive integer.");
+    }
+    return new Channel((int) (double) capacity);
+  }
+
+  private static Channel channel(Object value) {
+    if (!(value instanceof Channel channel)) {
+      throw new RuntimeError("Operand must be a channel.");
+    }
+    return channel;
+  }
+}
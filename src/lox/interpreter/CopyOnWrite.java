@@ -0,0 +1,160 @@
+package lox.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The private copies an interpreter has made of frozen environments and instances.
+ *
+ * <p>
+ *   Forking an interpreter freezes every environment and instance it can reach, so the
+ *   fork and the original start from the same state without copying any of it. From
+ *   then on, each of them writes a frozen object through an overlay of its own, created
+ *   on the first write, and reads it through that overlay if there is one. Lox values
+ *   always refer to the frozen objects; overlays are only ever reached through here.
+ * </p>
+ *
+ * <p>
+ *   An interpreter and the tasks it spawns share one set of copies. Forking again
+ *   freezes only what changed since the last fork: the overlays written since, and
+ *   anything new they reach. The fork starts with the same, now frozen, overlays, so
+ *   forking an interpreter that has made no changes costs a map copy of what it changed
+ *   before. Classes, functions and persistent collections are immutable and need no
+ *   copies. Number arrays are not copied either: they stay shared between forks.
+ * </p>
+ */
+final class CopyOnWrite {
+  // Frozen environment or instance to this interpreter's overlay of it. Concurrent, as
+  // tasks read and write it in parallel.
+  private final Map<Object, Object> copies;
+
+  CopyOnWrite() {
+    this(new ConcurrentHashMap<>());
+  }
+
+  private CopyOnWrite(Map<Object, Object> copies) {
+    this.copies = copies;
+  }
+
+  /**
+   * Returns the environment to read bindings of {@code environment} from.
+   *
+   * @param environment an environment Lox code refers to
+   * @return its overlay, if this interpreter has written to it since it was frozen
+   */
+  Environment read(Environment environment) {
+    if (!environment.isFrozen()) {
+      return environment;
+    }
+    Object copy = copies.get(environment);
+    return copy == null ? environment : (Environment) copy;
+  }
+
+  /**
+   * Returns the environment to write bindings of {@code environment} to.
+   *
+   * @param environment an environment Lox code refers to
+   * @return the environment itself, or this interpreter's overlay if it is frozen
+   */
+  Environment write(Environment environment) {
+    if (!environment.isFrozen()) {
+      return environment;
+    }
+    return (Environment) copies.compute(environment, (original, copy) -> {
+      Environment current = copy == null ? (Environment) original : (Environment) copy;
+      return current.isFrozen() ? current.overlay() : current;
+    });
+  }
+
+  LoxInstance read(LoxInstance instance) {
+    if (!instance.isFrozen()) {
+      return instance;
+    }
+    Object copy = copies.get(instance);
+    return copy == null ? instance : (LoxInstance) copy;
+  }
+
+  LoxInstance write(LoxInstance instance) {
+    if (!instance.isFrozen()) {
+      return instance;
+    }
+    return (LoxInstance) copies.compute(instance, (original, copy) -> {
+      LoxInstance current = copy == null ? (LoxInstance) original : (LoxInstance) copy;
+      return current.isFrozen() ? current.overlay() : current;
+    });
+  }
+
+  /**
+   * Freezes the state reachable from {@code roots} and from this interpreter's overlays,
+   * and returns copies for a fork that starts from that state.
+   *
+   * @param roots the environments the interpreter refers to directly
+   * @return the fork's copies
+   */
+  CopyOnWrite fork(Iterable<Environment> roots) {
+    Deque<Object> pending = new ArrayDeque<>();
+    roots.forEach(pending::push);
+    copies.values().forEach(pending::push);
+
+    Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    while (!pending.isEmpty()) {
+      Object next = pending.pop();
+      if (!visited.add(next)) {
+        continue;
+      }
+      // Frozen objects only reach other frozen objects, so the walk stops at them.
+      if (next instanceof Environment environment) {
+        Iterable<Object> values = environment.freeze();
+        if (values != null) {
+          pushAll(pending, values);
+          if (environment.enclosing != null) {
+            pending.push(environment.enclosing);
+          }
+        }
+      } else if (next instanceof LoxInstance instance) {
+        Iterable<Object> fields = instance.freeze();
+        if (fields != null) {
+          pushAll(pending, fields);
+          pending.push(instance.klass());
+        }
+      } else if (next instanceof LoxFunction function) {
+        pending.push(function.closure());
+      } else if (next instanceof LoxClass klass) {
+        for (LoxFunction method : klass.methods()) {
+          pending.push(method.closure());
+        }
+        if (klass.superclass != null) {
+          pending.push(klass.superclass);
+        }
+      } else if (next instanceof PersistentVector vector) {
+        for (int i = 0; i < vector.count(); i++) {
+          pushIfMutable(pending, vector.get(i));
+        }
+      } else if (next instanceof PersistentHashMap map) {
+        map.forEach((key, entry) -> {
+          pushIfMutable(pending, key);
+          pushIfMutable(pending, entry);
+        });
+      }
+    }
+
+    return new CopyOnWrite(new ConcurrentHashMap<>(copies));
+  }
+
+  private static void pushAll(Deque<Object> pending, Iterable<Object> values) {
+    for (Object value : values) {
+      pushIfMutable(pending, value);
+    }
+  }
+
+  private static void pushIfMutable(Deque<Object> pending, Object value) {
+    if (Sharing.isMutableGraph(value)) {
+      pending.push(value);
+    }
+  }
+}
@@ -0,0 +1,429 @@
+package lox.interpreter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lox.ast.Expr;
+import lox.ast.Stmt;
+
+/**
+ * Decides whether a callable, or the body of a parallel for, is safe to run on several
+ * threads at once.
+ *
+ * <p>
+ *   A function is pure enough for the parallel natives if running it can't change state
+ *   that outlives the call. The analyzer walks the function's body, and the bodies of the
+ *   functions it calls, and rejects it if it finds:
+ * </p>
+ * <ul>
+ *   <li>an assignment to a variable declared outside the function,</li>
+ *   <li>a field store, except to {@code this} in an initializer,</li>
+ *   <li>a {@code print} or {@code import} statement,</li>
+ *   <li>a read of a captured variable holding a transient collection,</li>
+ *   <li>a call to a native not known to be free of effects, such as one that prints,
+ *   writes to an array, communicates with other tasks or was defined by a host,</li>
+ *   <li>a call to a native that calls a function argument, such as {@code parallelFor}
+ *   or {@code bench}, unless that function is pure itself, or</li>
+ *   <li>a call whose callee it can't identify, such as a method or a parameter.</li>
+ * </ul>
+ *
+ * <p>
+ *   Captured and global callees are looked up in the function's closure when the
+ *   analysis runs, so the answer describes the function as it is now. The analysis is
+ *   conservative: a rejected function may well be harmless, and is simply run on one
+ *   thread.
+ * </p>
+ */
+final class EffectAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  // Natives with no effects beyond their result and the transients they are given. Any
+  // other native, including those a host defines, may have effects: heapCensus, for
+  // example, prints its report, and arraySet, arrayAxpy, arrayMap and arrayPrefixSum write
+  // to an array that other calls may share.
+  private static final Set<String> PURE_NATIVES = Set.of(
+      "clock", "vector", "hashMap", "count", "get", "assoc", "conj", "pop", "dissoc",
+      "contains", "transient", "persistent", "arrayNew", "arrayOpen", "arrayGet",
+      "arrayLength", "arraySum", "arrayMin", "arrayMax", "arrayDot", "nanoTime",
+      "preciseClock");
+  // Natives that call one of their arguments, by the argument's position. They are as
+  // pure as that function, which they may call from several threads.
+  private static final Map<String, Integer> HIGHER_ORDER_NATIVES = Map.of(
+      "parallelMap", 1, "parallelReduce", 1, "parallelFor", 2, "bench", 0);
+  // The value of a captured variable that can't be looked up.
+  private static final Object UNKNOWN = new Object();
+
+  // Functions and classes being or already analyzed, so recursion terminates. Classes are
+  // kept apart because each analysis of one binds a new copy of its initializer.
+  private final Map<LoxFunction, Boolean> visited = new IdentityHashMap<>();
+  private final Map<LoxClass, Boolean> constructed = new IdentityHashMap<>();
+  // The analyzing interpreter's copies, through which captured values are read.
+  private final CopyOnWrite copies;
+  private boolean pure = true;
+
+  // State for the function currently being walked.
+  private Environment closure;
+  private boolean inInitializer;
+  // Names of functions declared in each scope opened since the function's parameters.
+  private List<Set<String>> scopes;
+  // Whether assignments marked as reductions belong to the parallel for being analyzed.
+  private boolean inLoopBody = false;
+  // The reduction variables of the parallel for being analyzed, which the functions its
+  // body calls must not read: they would see the value from before the loop.
+  private Set<String> reductions = Set.of();
+
+  private EffectAnalyzer(CopyOnWrite copies) {
+    this.copies = copies;
+  }
+
+  /**
+   * Returns whether the callable can be called concurrently without observable effects.
+   *
+   * @param callable the callable to analyze
+   * @param copies the copies of the interpreter that would call it
+   * @return true if it is safe to call from several threads at once
+   */
+  static boolean isPure(LoxCallable callable, CopyOnWrite copies) {
+    EffectAnalyzer analyzer = new EffectAnalyzer(copies);
+    analyzer.analyzeCallee(callable, null);
+    return analyzer.pure;
+  }
+
+  /**
+   * Returns whether the iterations of a parallel for can run concurrently. The body may
+   * accumulate into its reduction variables, which the interpreter keeps per piece, but
+   * no function it calls may read them.
+   *
+   * @param loop the loop, already checked by the Resolver
+   * @param enclosing the environment the loop runs in
+   * @param copies the copies of the interpreter running the loop
+   * @return true if its iterations are safe to run from several threads at once
+   */
+  static boolean isPure(Stmt.ParallelFor loop, Environment enclosing, CopyOnWrite copies) {
+    EffectAnalyzer analyzer = new EffectAnalyzer(copies);
+    analyzer.closure = enclosing;
+    analyzer.scopes = new ArrayList<>();
+    analyzer.inLoopBody = true;
+    analyzer.reductions = new HashSet<>();
+    for (Expr.Variable reduction : loop.reductions) {
+      analyzer.reductions.add(reduction.name.lexeme);
+    }
+    analyzer.beginScope();
+    loop.body.accept(analyzer);
+    return analyzer.pure;
+  }
+
+  // Analyzes a call of whatever the expression names, with the given arguments, or with
+  // unknown ones if they are null.
+  private void analyzeCall(Expr callee, List<Expr> arguments) {
+    if (!(callee instanceof Expr.Variable variable)) {
+      pure = false;
+      return;
+    }
+
+    if (isCaptured(variable.depth)) {
+      analyzeCallee(capturedValue(variable), arguments);
+    } else {
+      // A local callee is safe only if it names a function declared in this body, which
+      // is walked where it is declared.
+      Set<String> scope = scopes.get(scopes.size() - 1 - variable.depth);
+      if (!scope.contains(variable.name.lexeme)) {
+        pure = false;
+      }
+    }
+  }
+
+  private void analyzeCallee(Object callee, List<Expr> arguments) {
+    if (callee instanceof NativeFunction function) {
+      Integer callback = HIGHER_ORDER_NATIVES.get(function.name());
+      if (callback != null && arguments != null && callback < arguments.size()) {
+        analyzeCall(arguments.get(callback), null);
+      } else if (!PURE_NATIVES.contains(function.name())) {
+        pure = false;
+      }
+    } else if (callee instanceof LoxFunction function) {
+      analyzeFunction(function);
+    } else if (callee instanceof LoxClass klass) {
+      // Constructing an instance runs its initializer on a fresh object.
+      LoxFunction initializer = klass.findMethod("init");
+      if (initializer != null && constructed.put(klass, Boolean.TRUE) == null) {
+        // Bind it so its closure has the scope for 'this' that the resolver counted.
+        analyzeFunction(initializer.bind(null));
+      }
+    } else {
+      pure = false;
+    }
+  }
+
+  private void analyzeFunction(LoxFunction function) {
+    if (visited.put(function, Boolean.TRUE) != null) {
+      return;
+    }
+
+    Environment enclosingClosure = closure;
+    boolean enclosingInitializer = inInitializer;
+    boolean enclosingLoopBody = inLoopBody;
+    List<Set<String>> enclosingScopes = scopes;
+    closure = function.closure();
+    inInitializer = function.isInitializer();
+    inLoopBody = false;
+    scopes = new ArrayList<>();
+
+    Stmt.Function declaration = function.declaration();
+    beginScope();
+    walk(declaration.body);
+    endScope();
+
+    closure = enclosingClosure;
+    inInitializer = enclosingInitializer;
+    inLoopBody = enclosingLoopBody;
+    scopes = enclosingScopes;
+  }
+
+  private void walk(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (!pure) {
+        return;
+      }
+      statement.accept(this);
+    }
+  }
+
+  private void walk(Expr expr) {
+    if (pure) {
+      expr.accept(this);
+    }
+  }
+
+  private void beginScope() {
+    scopes.add(new HashSet<>());
+  }
+
+  private void endScope() {
+    scopes.remove(scopes.size() - 1);
+  }
+
+  // Whether a variable at this resolved depth lives outside the function being walked.
+  private boolean isCaptured(int depth) {
+    return depth < 0 || depth >= scopes.size();
+  }
+
+  // Looks up the current value of a captured variable, or UNKNOWN if it isn't defined.
+  private Object capturedValue(Expr.Variable expr) {
+    try {
+      if (expr.depth < 0) {
+        Environment globals = closure;
+        while (globals.enclosing != null) {
+          globals = globals.enclosing;
+        }
+        return copies.read(globals).get(expr.name);
+      }
+      return copies.read(closure.ancestor(expr.depth - scopes.size()))
+          .getAt(0, expr.name.lexeme);
+    } catch (RuntimeError error) {
+      return UNKNOWN;
+    }
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    if (expr.reduction && inLoopBody) {
+      walk(((Expr.Binary) expr.value).right);
+      return null;
+    }
+
+    // Reassigning a local function's name would let a call through it go anywhere.
+    if (isCaptured(expr.depth)
+        || scopes.get(scopes.size() - 1 - expr.depth).contains(expr.name.lexeme)) {
+      pure = false;
+      return null;
+    }
+    walk(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    walk(expr.left);
+    walk(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    for (Expr argument : expr.arguments) {
+      walk(argument);
+    }
+    if (pure) {
+      analyzeCall(expr.callee, expr.arguments);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    walk(expr.object);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    walk(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    walk(expr.left);
+    walk(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    if (!inInitializer || !(expr.object instanceof Expr.This)) {
+      pure = false;
+      return null;
+    }
+    walk(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    walk(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    if (isCaptured(expr.depth)) {
+      // The Resolver rejects reads in the body itself. A variable of the same name
+      // elsewhere is treated as the reduction too, to be safe.
+      if (!inLoopBody && reductions.contains(expr.name.lexeme)) {
+        pure = false;
+        return null;
+      }
+      Object value = capturedValue(expr);
+      if (value instanceof PersistentVector.Transient
+          || value instanceof PersistentHashMap.Transient) {
+        pure = false;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    walk(stmt.statements);
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    // Methods of a local class may mutate the instances they are called on.
+    pure = false;
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    walk(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    scopes.get(scopes.size() - 1).add(stmt.name.lexeme);
+    boolean enclosingInitializer = inInitializer;
+    inInitializer = false;
+    beginScope();
+    walk(stmt.body);
+    endScope();
+    inInitializer = enclosingInitializer;
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    walk(stmt.condition);
+    if (pure) {
+      stmt.thenBranch.accept(this);
+    }
+    if (pure && stmt.elseBranch != null) {
+      stmt.elseBranch.accept(this);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    pure = false;
+    return null;
+  }
+
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    // Inside a piece, a nested loop runs in order with its reductions assigned directly.
+    walk(stmt.start);
+    walk(stmt.end);
+    boolean enclosingLoopBody = inLoopBody;
+    inLoopBody = false;
+    beginScope();
+    if (pure) {
+      stmt.body.accept(this);
+    }
+    endScope();
+    inLoopBody = enclosingLoopBody;
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    pure = false;
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) {
+      walk(stmt.value);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) {
+      walk(stmt.initializer);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    walk(stmt.condition);
+    if (pure) {
+      stmt.body.accept(this);
+    }
+    return null;
+  }
+}
@@ -2,6 +2,7 @@ package lox.interpreter;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import lox.scanner.Token;
 
 /**
@@ -9,16 +10,39 @@ import lox.scanner.Token;
  * Implements lexical scoping through a chain of nested environments, where each
  * environment has a reference to its enclosing scope. Handles variable definition,
  * lookup, and assignment.
+ *
+ * <p>
+ *   An environment starts out confined to the thread that created it and is accessed
+ *   without synchronization. Once it becomes reachable from another thread, for example
+ *   because a closure over it was spawned, {@link Sharing} marks it shared and its
+ *   bindings move to a concurrent map.
+ * </p>
+ *
+ * <p>
+ *   Forking an interpreter freezes every environment it can reach; see
+ *   {@link CopyOnWrite}. A frozen environment never changes again. An interpreter that
+ *   writes to one writes to its own overlay instead, which holds the bindings it changed
+ *   and reads the rest from the frozen environment underneath.
+ * </p>
  */
 public class Environment {
+  // Marks a name that isn't defined, since null is a valid value.
+  private static final Object UNDEFINED = new Object();
+
   final Environment enclosing; // reference to its enclosing scope
-  private final Map<String, Object> values = new HashMap<>();
+  // A HashMap while thread-confined; a concurrent map with masked nils once shared.
+  private Map<String, Object> values = new HashMap<>();
+  private boolean shared = false;
+  private boolean frozen = false;
+  // The frozen environment this one overlays, or null.
+  private final Environment base;
 
   /**
    * Creates a new global environment with no enclosing scope.
    */
   Environment() {
     enclosing = null;
+    base = null;
   }
 
   /**
@@ -28,6 +52,29 @@ public class Environment {
    */
   Environment(Environment enclosing) {
     this.enclosing = enclosing;
+    base = null;
+  }
+
+  // Creates an overlay of a frozen environment. Overlays are shared from the start, as
+  // every task of the interpreter that owns one reaches it through the same copies.
+  private Environment(Environment base, boolean overlay) {
+    this.enclosing = base.enclosing;
+    this.base = base;
+    values = new ConcurrentHashMap<>();
+    shared = true;
+  }
+
+  /**
+   * Returns a new, empty overlay of this frozen environment.
+   *
+   * @return an environment that reads through to this one until a binding is written
+   */
+  Environment overlay() {
+    return new Environment(this, true);
+  }
+
+  boolean isFrozen() {
+    return frozen;
   }
 
   /**
@@ -38,7 +85,7 @@ public class Environment {
    * @param value the value to bind to the name
    */
   void define(String name, Object value) {
-    values.put(name, value);
+    put(name, value);
   }
 
   /**
@@ -49,13 +96,12 @@ public class Environment {
    * @throws RuntimeError if the variable is not found in any scope
    */
   Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
-    }
-
-    // Recursively lookup a variable.
-    if (enclosing != null) {
-      return enclosing.get(name);
+    for (Environment environment = this; environment != null;
+         environment = environment.enclosing) {
+      Object value = environment.lookup(name.lexeme);
+      if (value != UNDEFINED) {
+        return value;
+      }
     }
 
     throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
@@ -69,22 +115,19 @@ public class Environment {
    * @throws RuntimeError if the variable does not exist in any scope
    */
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
-    // Recursively lookup a variable.
-    if (enclosing != null) {
-      enclosing.assign(name, value);
-      return;
+    for (Environment environment = this; environment != null;
+         environment = environment.enclosing) {
+      if (environment.replace(name.lexeme, value)) {
+        return;
+      }
     }
 
     throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
   }
 
-  Object getAt(Integer distance, String name) {
-    return ancestor(distance).values.get(name);
+  Object getAt(int distance, String name) {
+    Object value = ancestor(distance).lookup(name);
+    return value == UNDEFINED ? null : value;
   }
 
   Environment ancestor(int distance) {
@@ -96,7 +139,96 @@ public class Environment {
     return environment;
   }
 
-  void assignAt(Integer distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+  void assignAt(int distance, Token name, Object value) {
+    ancestor(distance).put(name.lexeme, value);
+  }
+
+  /**
+   * Returns a copy of the bindings in this scope alone, not its enclosing ones.
+   *
+   * @return the bindings by name
+   */
+  Map<String, Object> bindings() {
+    Map<String, Object> bindings = base == null ? new HashMap<>() : base.bindings();
+    values.forEach((name, value) -> bindings.put(name, shared ? Sharing.unmask(value) : value));
+    return bindings;
+  }
+
+  private Object lookup(String name) {
+    Object value;
+    if (!shared) {
+      value = values.getOrDefault(name, UNDEFINED);
+    } else {
+      Object masked = values.get(name);
+      value = masked == null ? UNDEFINED : Sharing.unmask(masked);
+    }
+    return value == UNDEFINED && base != null ? base.lookup(name) : value;
+  }
+
+  private void put(String name, Object value) {
+    if (frozen) {
+      throw new IllegalStateException("Can't write to a frozen environment.");
+    }
+    if (!shared) {
+      values.put(name, value);
+      return;
+    }
+    Sharing.publish(value);
+    values.put(name, Sharing.mask(value));
+  }
+
+  private boolean replace(String name, Object value) {
+    // An overlay may replace a binding it reads from underneath; put rejects writes to a
+    // frozen environment.
+    if (base != null || frozen) {
+      if (lookup(name) == UNDEFINED) {
+        return false;
+      }
+      put(name, value);
+      return true;
+    }
+    if (!shared) {
+      if (!values.containsKey(name)) {
+        return false;
+      }
+      values.put(name, value);
+      return true;
+    }
+    Sharing.publish(value);
+    return values.replace(name, Sharing.mask(value)) != null;
+  }
+
+  /**
+   * Marks this environment as reachable from several threads.
+   *
+   * @return the values it holds, which the caller must publish in turn, or null if it was
+   *         already shared
+   */
+  Iterable<Object> share() {
+    // A frozen environment never changes, so any thread may read it.
+    if (shared || frozen) {
+      return null;
+    }
+    Map<String, Object> confined = values;
+    values = Sharing.concurrentCopy(confined);
+    shared = true;
+    return confined.values();
+  }
+
+  /**
+   * Makes this environment read-only, leaving writes to the overlays of interpreters.
+   *
+   * @return the values bound in it, not those of an environment it overlays, which the
+   *         caller must freeze in turn, or null if it was already frozen
+   */
+  Iterable<Object> freeze() {
+    if (frozen) {
+      return null;
+    }
+    frozen = true;
+    if (!shared) {
+      return values.values();
+    }
+    return values.values().stream().map(Sharing::unmask).toList();
   }
 }
@@ -0,0 +1,218 @@
+package lox.interpreter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import lox.ast.Stmt;
+import lox.module.Module;
+
+/**
+ * The Java Flight Recorder events the interpreter emits, so recordings of a JVM running
+ * Lox show Lox-level activity next to the GC and JIT events around it.
+ *
+ * <p>
+ *   All are disabled by default, which costs next to nothing: while an event type is
+ *   disabled its methods are empty and the JIT removes the event object. They can be
+ *   enabled in a running JVM, for example:
+ * </p>
+ * <pre>
+ *   jcmd PID JFR.start +lox.FunctionCall#enabled=true +lox.FunctionCall#threshold=0ms
+ * </pre>
+ *
+ * <p>
+ *   Java stack traces are off, as they show only the interpreter's visitors. Timed events
+ *   have a threshold so that recordings keep the slow cases, which can be lowered the
+ *   same way.
+ * </p>
+ *
+ * <p>
+ *   Loading the event classes costs a few hundred milliseconds of startup, so nothing
+ *   creates an event until JFR has been initialized in the JVM, which {@link #refresh}
+ *   checks each time a script is run. Until then each event site is a single check of a
+ *   static flag, and the interpreter calls only the static methods here, whose bodies
+ *   refer to the event classes only through {@link Recorder}. A recording started in a
+ *   running JVM is therefore seen from the next script the interpreter runs.
+ * </p>
+ */
+final class Events {
+  private static volatile boolean active = false;
+
+  private Events() {
+  }
+
+  /**
+   * Starts creating events if JFR has been initialized since the last check.
+   */
+  static void refresh() {
+    if (!active && FlightRecorder.isInitialized()) {
+      active = true;
+    }
+  }
+
+  static Object beginCall() {
+    return active ? Recorder.beginCall() : null;
+  }
+
+  static void endCall(Object event, Stmt.Function declaration) {
+    if (event != null) {
+      Recorder.endCall(event, declaration);
+    }
+  }
+
+  static Object beginInstantiation() {
+    return active ? Recorder.beginInstantiation() : null;
+  }
+
+  static void endInstantiation(Object event, String className, LoxFunction initializer) {
+    if (event != null) {
+      Recorder.endInstantiation(event, className, initializer);
+    }
+  }
+
+  static Object beginInterpret() {
+    return active ? Recorder.beginInterpret() : null;
+  }
+
+  static void endInterpret(Object event, Module module, int statements) {
+    if (event != null) {
+      Recorder.endInterpret(event, module, statements);
+    }
+  }
+
+  static void failure(RuntimeError error) {
+    if (active) {
+      Recorder.failure(error);
+    }
+  }
+
+  // Everything that uses the event classes as such, which the verifier would load along
+  // with this class.
+  private static final class Recorder {
+    private Recorder() {
+    }
+
+    static Object beginCall() {
+      return begin(new FunctionCall());
+    }
+
+    static Object beginInstantiation() {
+      return begin(new Instantiation());
+    }
+
+    static Object beginInterpret() {
+      return begin(new Interpret());
+    }
+
+    private static Event begin(Event event) {
+      event.begin();
+      return event;
+    }
+
+    static void endCall(Object event, Stmt.Function declaration) {
+      FunctionCall call = (FunctionCall) event;
+      call.end();
+      if (call.shouldCommit()) {
+        call.function = declaration.name.lexeme;
+        call.line = declaration.name.line;
+        call.commit();
+      }
+    }
+
+    static void endInstantiation(Object event, String className, LoxFunction initializer) {
+      Instantiation instantiation = (Instantiation) event;
+      instantiation.end();
+      if (instantiation.shouldCommit()) {
+        instantiation.className = className;
+        instantiation.line = initializer == null ? 0 : initializer.declaration().name.line;
+        instantiation.commit();
+      }
+    }
+
+    static void endInterpret(Object event, Module module, int statements) {
+      Interpret interpret = (Interpret) event;
+      interpret.end();
+      if (interpret.shouldCommit()) {
+        interpret.module = module == null ? "" : module.name();
+        interpret.statements = statements;
+        interpret.commit();
+      }
+    }
+
+    static void failure(RuntimeError error) {
+      Failure failure = new Failure();
+      if (failure.isEnabled()) {
+        failure.message = error.getMessage();
+        failure.line = error.token == null ? 0 : error.token.line;
+        failure.commit();
+      }
+    }
+  }
+
+  @Name("lox.FunctionCall")
+  @Label("Lox Function Call")
+  @Description("A call to a Lox function or method, including everything it calls")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  static final class FunctionCall extends Event {
+    @Label("Function")
+    String function;
+
+    @Label("Line")
+    @Description("The line the function is declared on")
+    int line;
+  }
+
+  @Name("lox.Instantiation")
+  @Label("Lox Instantiation")
+  @Description("The creation of a Lox instance, including its initializer")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  static final class Instantiation extends Event {
+    @Label("Class")
+    String className;
+
+    @Label("Line")
+    @Description("The line the initializer is declared on, or 0 if there is none")
+    int line;
+  }
+
+  @Name("lox.Interpret")
+  @Label("Lox Interpret")
+  @Description("The execution of a script or program by its host, including its imports")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  @Threshold("0 ms")
+  static final class Interpret extends Event {
+    @Label("Module")
+    @Description("The module's name, or empty for a script run from source")
+    String module;
+
+    @Label("Statements")
+    int statements;
+  }
+
+  @Name("lox.RuntimeError")
+  @Label("Lox Runtime Error")
+  @Description("A runtime error that stopped a script")
+  @Category("Lox")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class Failure extends Event {
+    @Label("Message")
+    String message;
+
+    @Label("Line")
+    int line;
+  }
+}
@@ -0,0 +1,469 @@
+package lox.interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A census of the Lox objects reachable from an interpreter's globals, its modules and
+ * the environment chain it is currently in.
+ *
+ * <p>
+ *   A JVM heap dump of a Lox program shows environments, instances and hash map entries,
+ *   with nothing to say which Lox class or closure they belong to. The census walks the
+ *   Lox object graph instead and reports, per Lox class, how many instances are live and
+ *   how much they retain; how many environment chains are live and how deep they are;
+ *   the closures whose environments retain the most; and the largest strings.
+ * </p>
+ *
+ * <p>
+ *   An object's retained size is the size of everything that would become unreachable
+ *   without it, found from the graph's dominator tree with Lengauer and Tarjan's
+ *   algorithm. A class retains what any of its instances retains, counted once. Sizes
+ *   are estimated as in {@link AllocationProfiler}, with numbers counted in the object
+ *   holding them and number arrays counting the data they keep off the heap.
+ *   Take a census only while no task of the interpreter is running.
+ * </p>
+ */
+final class HeapCensus {
+  private final CopyOnWrite copies;
+  private final Map<Object, Integer> ids = new IdentityHashMap<>();
+  // Node 0 is a virtual root referring to every root.
+  private final List<Object> objects = new ArrayList<>();
+  private final List<int[]> successors = new ArrayList<>();
+  private long[] shallow = new long[64];
+  private final boolean[] isRoot;
+  // Filled in by dominate().
+  private int[] idom;
+  private long[] retained;
+  private int[] buffer = new int[16];
+  private int edges;
+
+  private HeapCensus(CopyOnWrite copies, List<Environment> roots) {
+    this.copies = copies;
+    objects.add(null);
+    int[] rootEdges = new int[roots.size()];
+    for (int i = 0; i < rootEdges.length; i++) {
+      rootEdges[i] = id(roots.get(i));
+    }
+    successors.add(rootEdges);
+    for (int node = 1; node < objects.size(); node++) {
+      visit(node);
+    }
+    isRoot = new boolean[objects.size()];
+    for (int root : rootEdges) {
+      isRoot[root] = true;
+    }
+  }
+
+  /**
+   * Walks the objects reachable from {@code roots}.
+   *
+   * @param copies the interpreter's copies, through which its state is read
+   * @param roots the globals, module environments and current environment chain
+   * @return the census
+   */
+  static HeapCensus take(CopyOnWrite copies, List<Environment> roots) {
+    HeapCensus census = new HeapCensus(copies, roots);
+    census.dominate();
+    return census;
+  }
+
+  private int id(Object value) {
+    Integer id = ids.get(value);
+    if (id != null) {
+      return id;
+    }
+    ids.put(value, objects.size());
+    objects.add(value);
+    return objects.size() - 1;
+  }
+
+  // Records the object's references and estimates its size.
+  private void visit(int node) {
+    Object object = objects.get(node);
+    edges = 0;
+    long size;
+    if (object instanceof Environment environment) {
+      Map<String, Object> bindings = copies.read(environment).bindings();
+      if (environment.enclosing != null) {
+        edge(environment.enclosing);
+      }
+      size = AllocationProfiler.environmentBytes(bindings.size()) + values(bindings.values());
+    } else if (object instanceof LoxInstance instance) {
+      Map<String, Object> fields = copies.read(instance).fields();
+      edge(instance.klass());
+      // An instance keeps its fields in a hash table, as an environment does.
+      size = AllocationProfiler.environmentBytes(fields.size()) + values(fields.values());
+    } else if (object instanceof LoxFunction function) {
+      edge(function.closure());
+      size = 24;
+    } else if (object instanceof LoxClass klass) {
+      if (klass.superclass != null) {
+        edge(klass.superclass);
+      }
+      int methods = 0;
+      for (LoxFunction method : klass.methods()) {
+        edge(method);
+        methods++;
+      }
+      size = AllocationProfiler.environmentBytes(methods);
+    } else if (object instanceof String string) {
+      size = AllocationProfiler.stringBytes(string.length());
+    } else if (object instanceof PersistentVector vector) {
+      size = 32 + 5L * vector.count();
+      for (int i = 0; i < vector.count(); i++) {
+        size += value(vector.get(i));
+      }
+    } else if (object instanceof PersistentHashMap map) {
+      long[] values = {48 + 48L * map.count()};
+      map.forEach((key, value) -> values[0] += value(key) + value(value));
+      size = values[0];
+    } else if (object instanceof NumberArray array) {
+      boolean holdsData = !array.isClosed() && array.source() == null;
+      size = 48 + (holdsData ? 8 * array.length() : 0);
+    } else {
+      // A native, task or channel.
+      size = 24;
+    }
+
+    successors.add(Arrays.copyOf(buffer, edges));
+    if (node == shallow.length) {
+      shallow = Arrays.copyOf(shallow, node * 2);
+    }
+    shallow[node] = size;
+  }
+
+  private long values(Collection<Object> values) {
+    long size = 0;
+    for (Object value : values) {
+      size += value(value);
+    }
+    return size;
+  }
+
+  // Follows a reference to an object, or returns the size of a boxed number held inline.
+  private long value(Object value) {
+    if (value == null || value instanceof Boolean) {
+      return 0;
+    }
+    if (value instanceof Double) {
+      return 16;
+    }
+    edge(value);
+    return 0;
+  }
+
+  private void edge(Object target) {
+    if (edges == buffer.length) {
+      buffer = Arrays.copyOf(buffer, edges * 2);
+    }
+    buffer[edges++] = id(target);
+  }
+
+  private void dominate() {
+    int count = objects.size();
+    // Number the nodes in depth-first preorder, remembering each one's parent.
+    int[] number = new int[count];
+    int[] vertex = new int[count];
+    int[] parent = new int[count];
+    int[] stack = new int[count];
+    int[] next = new int[count];
+    Arrays.fill(number, -1);
+    int depth = 0;
+    int numbered = 0;
+    stack[depth++] = 0;
+    number[0] = numbered;
+    vertex[numbered++] = 0;
+    while (depth > 0) {
+      int node = stack[depth - 1];
+      int[] out = successors.get(node);
+      if (next[node] < out.length) {
+        int target = out[next[node]++];
+        if (number[target] == -1) {
+          number[target] = numbered;
+          vertex[numbered++] = target;
+          parent[target] = node;
+          stack[depth++] = target;
+        }
+      } else {
+        depth--;
+      }
+    }
+
+    int[][] predecessors = predecessors();
+    int[] semi = number.clone();
+    int[] label = new int[count];
+    int[] ancestor = new int[count];
+    int[] bucket = new int[count];
+    int[] bucketNext = new int[count];
+    for (int node = 0; node < count; node++) {
+      label[node] = node;
+    }
+    Arrays.fill(ancestor, -1);
+    Arrays.fill(bucket, -1);
+    idom = new int[count];
+    for (int i = count - 1; i > 0; i--) {
+      int node = vertex[i];
+      for (int predecessor : predecessors[node]) {
+        int candidate = eval(predecessor, ancestor, label, semi);
+        if (semi[candidate] < semi[node]) {
+          semi[node] = semi[candidate];
+        }
+      }
+      int semidominator = vertex[semi[node]];
+      bucketNext[node] = bucket[semidominator];
+      bucket[semidominator] = node;
+      ancestor[node] = parent[node];
+
+      int linked = parent[node];
+      for (int waiting = bucket[linked]; waiting != -1; waiting = bucketNext[waiting]) {
+        int candidate = eval(waiting, ancestor, label, semi);
+        idom[waiting] = semi[candidate] < semi[waiting] ? candidate : linked;
+      }
+      bucket[linked] = -1;
+    }
+    for (int i = 1; i < count; i++) {
+      int node = vertex[i];
+      if (idom[node] != vertex[semi[node]]) {
+        idom[node] = idom[idom[node]];
+      }
+    }
+    idom[0] = 0;
+
+    // A node's dominator comes before it in preorder, so sizes add up in one pass.
+    retained = Arrays.copyOf(shallow, count);
+    for (int i = count - 1; i > 0; i--) {
+      int node = vertex[i];
+      retained[idom[node]] += retained[node];
+    }
+  }
+
+  // Returns the node with the smallest semidominator on the path from the root of the
+  // linked forest tree containing the node down to it, compressing the path.
+  private static int eval(int node, int[] ancestor, int[] label, int[] semi) {
+    if (ancestor[node] == -1) {
+      return node;
+    }
+    List<Integer> path = new ArrayList<>();
+    for (int at = node; ancestor[ancestor[at]] != -1; at = ancestor[at]) {
+      path.add(at);
+    }
+    for (int i = path.size() - 1; i >= 0; i--) {
+      int at = path.get(i);
+      int up = ancestor[at];
+      if (semi[label[up]] < semi[label[at]]) {
+        label[at] = label[up];
+      }
+      ancestor[at] = ancestor[up];
+    }
+    return label[node];
+  }
+
+  private int[][] predecessors() {
+    int count = objects.size();
+    int[] sizes = new int[count];
+    for (int[] out : successors) {
+      for (int target : out) {
+        sizes[target]++;
+      }
+    }
+    int[][] predecessors = new int[count][];
+    for (int node = 0; node < count; node++) {
+      predecessors[node] = new int[sizes[node]];
+      sizes[node] = 0;
+    }
+    for (int node = 0; node < count; node++) {
+      for (int target : successors.get(node)) {
+        predecessors[target][sizes[target]++] = node;
+      }
+    }
+    return predecessors;
+  }
+
+  /**
+   * Prints the census.
+   *
+   * @param out where to print
+   * @param limit the most classes, closures and strings to list
+   */
+  void report(PrintStream out, int limit) {
+    out.printf("%d Lox objects reachable, approximately %.1f KB.%n",
+        objects.size() - 1, retained[0] / 1e3);
+    reportClasses(out, limit);
+    reportEnvironments(out);
+    reportClosures(out, limit);
+    reportStrings(out, limit);
+  }
+
+  private void reportClasses(PrintStream out, int limit) {
+    // Each class's instances, and their shallow and retained sizes.
+    Map<LoxClass, long[]> classes = new IdentityHashMap<>();
+    for (int node = 1; node < objects.size(); node++) {
+      if (objects.get(node) instanceof LoxInstance instance) {
+        long[] totals = classes.computeIfAbsent(instance.klass(), klass -> new long[3]);
+        totals[0]++;
+        totals[1] += shallow[node];
+      }
+    }
+
+    // Walk the dominator tree, adding an instance's retained size to its class unless
+    // an instance of the same class dominates it.
+    int[][] children = dominatorTree();
+    Map<LoxClass, Integer> onPath = new IdentityHashMap<>();
+    int[] stack = new int[objects.size()];
+    int[] next = new int[objects.size()];
+    int depth = 0;
+    stack[depth++] = 0;
+    while (depth > 0) {
+      int node = stack[depth - 1];
+      LoxClass klass = objects.get(node) instanceof LoxInstance instance
+          ? instance.klass()
+          : null;
+      if (next[node] == 0 && klass != null
+          && onPath.merge(klass, 1, Integer::sum) == 1) {
+        classes.get(klass)[2] += retained[node];
+      }
+      if (next[node] < children[node].length) {
+        stack[depth++] = children[node][next[node]++];
+      } else {
+        depth--;
+        if (klass != null) {
+          onPath.merge(klass, -1, Integer::sum);
+        }
+      }
+    }
+
+    List<Map.Entry<LoxClass, long[]>> rows = new ArrayList<>(classes.entrySet());
+    rows.sort((a, b) -> Long.compare(b.getValue()[2], a.getValue()[2]));
+    out.println();
+    out.printf("%10s %12s %12s  %s%n", "instances", "shallow KB", "retained KB", "class");
+    for (Map.Entry<LoxClass, long[]> row : rows.subList(0, Math.min(limit, rows.size()))) {
+      long[] totals = row.getValue();
+      out.printf("%10d %12.1f %12.1f  %s%n", totals[0], totals[1] / 1e3, totals[2] / 1e3,
+          row.getKey().name);
+    }
+  }
+
+  private int[][] dominatorTree() {
+    int count = objects.size();
+    int[] sizes = new int[count];
+    for (int node = 1; node < count; node++) {
+      sizes[idom[node]]++;
+    }
+    int[][] children = new int[count][];
+    for (int node = 0; node < count; node++) {
+      children[node] = new int[sizes[node]];
+      sizes[node] = 0;
+    }
+    for (int node = 1; node < count; node++) {
+      children[idom[node]][sizes[idom[node]]++] = node;
+    }
+    return children;
+  }
+
+  private void reportEnvironments(PrintStream out) {
+    // A chain is a path from an environment no other live environment encloses to the
+    // outermost one.
+    int count = objects.size();
+    int[] depths = new int[count];
+    boolean[] enclosing = new boolean[count];
+    int environments = 0;
+    for (int node = 1; node < count; node++) {
+      if (objects.get(node) instanceof Environment environment) {
+        environments++;
+        if (environment.enclosing != null) {
+          enclosing[ids.get(environment.enclosing)] = true;
+        }
+      }
+    }
+
+    int chains = 0;
+    long totalDepth = 0;
+    int maxDepth = 0;
+    for (int node = 1; node < count; node++) {
+      if (objects.get(node) instanceof Environment && !enclosing[node]) {
+        int depth = depth(node, depths);
+        chains++;
+        totalDepth += depth;
+        maxDepth = Math.max(maxDepth, depth);
+      }
+    }
+    out.println();
+    out.printf("%d environments in %d chains, %.1f deep on average and %d at most.%n",
+        environments, chains, chains == 0 ? 0 : (double) totalDepth / chains, maxDepth);
+  }
+
+  // The number of environments from this one out, remembered for those on the way.
+  private int depth(int node, int[] depths) {
+    List<Integer> unknown = new ArrayList<>();
+    Environment environment = (Environment) objects.get(node);
+    int depth = 0;
+    while (environment != null) {
+      int id = ids.get(environment);
+      if (depths[id] != 0) {
+        depth = depths[id];
+        break;
+      }
+      unknown.add(id);
+      environment = environment.enclosing;
+    }
+    for (int i = unknown.size() - 1; i >= 0; i--) {
+      depths[unknown.get(i)] = ++depth;
+    }
+    return depth;
+  }
+
+  private void reportClosures(PrintStream out, int limit) {
+    // The functions closing over each environment that isn't a root.
+    Map<Integer, List<LoxFunction>> closures = new HashMap<>();
+    for (int node = 1; node < objects.size(); node++) {
+      if (objects.get(node) instanceof LoxFunction function) {
+        int closure = ids.get(function.closure());
+        if (!isRoot[closure]) {
+          closures.computeIfAbsent(closure, id -> new ArrayList<>()).add(function);
+        }
+      }
+    }
+
+    List<Map.Entry<Integer, List<LoxFunction>>> rows = new ArrayList<>(closures.entrySet());
+    rows.sort((a, b) -> Long.compare(retained[b.getKey()], retained[a.getKey()]));
+    out.println();
+    out.printf("%12s %9s  %s%n", "retained KB", "bindings", "closed over by");
+    for (Map.Entry<Integer, List<LoxFunction>> row
+        : rows.subList(0, Math.min(limit, rows.size()))) {
+      Environment environment = (Environment) objects.get(row.getKey());
+      List<LoxFunction> functions = row.getValue();
+      String first = functions.get(0).declaration().name.lexeme + ":"
+          + functions.get(0).declaration().name.line;
+      out.printf("%12.1f %9d  %s%s%n", retained[row.getKey()] / 1e3,
+          copies.read(environment).bindings().size(), first,
+          functions.size() > 1 ? " and " + (functions.size() - 1) + " more" : "");
+    }
+  }
+
+  private void reportStrings(PrintStream out, int limit) {
+    List<String> strings = new ArrayList<>();
+    for (Object object : objects) {
+      if (object instanceof String string) {
+        strings.add(string);
+      }
+    }
+    strings.sort((a, b) -> Integer.compare(b.length(), a.length()));
+    out.println();
+    out.printf("%10s  %s%n", "length", "string");
+    for (String string : strings.subList(0, Math.min(limit, strings.size()))) {
+      out.printf("%10d  %s%n", string.length(), preview(string));
+    }
+  }
+
+  private static String preview(String string) {
+    String shown = string.length() > 60 ? string.substring(0, 57) + "..." : string;
+    return '"' + shown.replace("\n", "\\n").replace("\t", "\\t") + '"';
+  }
+}
@@ -1,12 +1,18 @@
 package lox.interpreter;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import lox.ErrorReporter;
 import lox.Lox;
 import lox.ast.Expr;
 import lox.ast.Stmt;
+import lox.module.Module;
 import lox.scanner.Token;
 import lox.scanner.TokenType;
 
@@ -21,35 +27,129 @@ import lox.scanner.TokenType;
  */
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   // Fixed reference to the outermost environment.
-  final Environment globals = new Environment();
-  private Environment environment = globals;
-  // Side table to store resolution information.
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  final Environment globals;
+  private Environment environment;
+  // The module whose top level is executing, and each module's environment once run.
+  private Module currentModule = null;
+  private final Map<Module, Environment> modules = new HashMap<>();
+  // This interpreter's copies of what was frozen when it, or its parent, was forked.
+  private final CopyOnWrite copies;
+  private final PrintStream out;
+  private final ErrorReporter reporter;
+  // While this interpreter runs a piece of a parallel for, the running result of each
+  // reduction in the piece, by variable name.
+  private Map<String, Partial> partials = null;
+  // The Lox functions being called, while a profiler is recording them.
+  private CallStack stack = null;
+  // Counts allocations by Lox line, while an allocation profiler is recording them.
+  private AllocationProfiler.Recorder allocations = null;
+  // Live counters for JMX, while metrics are being collected.
+  private InterpreterMetrics metrics = null;
+
+  private record Partial(Token operator, Object value) {
+  }
 
   /**
    * Creates a new Lox interpreter and initializes the global environment with native functions.
    * <ul>
    *   <li>{@code clock()} - Returns the current time in seconds.</li>
+   *   <li>The high-resolution timing and benchmark natives, see
+   *   {@link TimingNatives}.</li>
+   *   <li>{@code heapCensus()} - Prints a census of the reachable Lox objects, see
+   *   {@link #heapCensus}.</li>
+   *   <li>The persistent collection natives, see {@link CollectionNatives}.</li>
+   *   <li>The off-heap number array natives, see {@link ArrayNatives}.</li>
+   *   <li>The task and channel natives, see {@link ConcurrencyNatives}.</li>
+   *   <li>The fork-join natives, see {@link ParallelNatives}.</li>
    * </ul>
    *
    */
   public Interpreter() {
-    globals.define("clock", new LoxCallable() {
-      @Override
-      public int arity() {
-        return 0;
-      }
+    this(System.out, Lox.CONSOLE);
+  }
 
-      @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        return (double) System.currentTimeMillis() / 1000.0;
-      }
+  /**
+   * Creates an interpreter that prints to {@code out} and reports runtime errors to
+   * {@code reporter}. Interpreters share no mutable state, so separate instances may run
+   * on separate threads.
+   *
+   * @param out the stream {@code print} statements write to
+   * @param reporter where to report runtime errors
+   */
+  public Interpreter(PrintStream out, ErrorReporter reporter) {
+    this.out = out;
+    this.reporter = reporter;
+    this.globals = new Environment();
+    this.environment = globals;
+    this.copies = new CopyOnWrite();
+    globals.define("clock", new NativeFunction("clock", 0,
+        (interpreter, arguments) -> (double) System.currentTimeMillis() / 1000.0));
+    globals.define("heapCensus", new NativeFunction("heapCensus", 0,
+        (interpreter, arguments) -> {
+          interpreter.heapCensus(interpreter.out, 10);
+          return null;
+        }));
+    CollectionNatives.define(globals);
+    TimingNatives.define(globals);
+    ArrayNatives.define(globals);
+    ConcurrencyNatives.define(globals);
+    ParallelNatives.define(globals);
+  }
 
-      @Override
-      public String toString() {
-        return "<native fn>";
-      }
-    });
+  /**
+   * Creates an interpreter for a task spawned by {@code parent}. It shares the parent's
+   * globals, output and error reporter, but has its own call stack. Anything the task
+   * can reach from the parent must have been published through {@link Sharing} first.
+   *
+   * @param parent the interpreter that spawned the task
+   */
+  Interpreter(Interpreter parent) {
+    this.out = parent.out;
+    this.reporter = parent.reporter;
+    this.globals = parent.globals;
+    this.environment = globals;
+    this.copies = parent.copies;
+    if (parent.stack != null) {
+      this.stack = parent.stack.profiler().register(parent.stack);
+    }
+    if (parent.allocations != null) {
+      this.allocations = parent.allocations.profiler().recorder(parent.allocations);
+    }
+    this.metrics = parent.metrics;
+  }
+
+  private Interpreter(Interpreter parent, PrintStream out, ErrorReporter reporter,
+                      CopyOnWrite copies) {
+    this.out = out;
+    this.reporter = reporter;
+    this.globals = parent.globals;
+    this.environment = globals;
+    this.modules.putAll(parent.modules);
+    this.copies = copies;
+  }
+
+  /**
+   * Returns an interpreter that starts from this one's current state but is isolated
+   * from it: changes either one makes later, to globals, captured variables or fields,
+   * are not seen by the other.
+   *
+   * <p>
+   *   Nothing is copied up front. Forking freezes the state both interpreters can
+   *   reach, and each then keeps private copies of only the environments and instances
+   *   it writes to; see {@link CopyOnWrite}. Forking an interpreter that has already
+   *   been forked, and not changed since, is nearly free. A typical use is to load
+   *   shared library code once, then fork per request. Only fork an interpreter while it
+   *   isn't running, and while no task it spawned is.
+   * </p>
+   *
+   * @param out the stream the fork's {@code print} statements write to
+   * @param reporter where the fork reports runtime errors
+   * @return the new interpreter
+   */
+  public Interpreter fork(PrintStream out, ErrorReporter reporter) {
+    List<Environment> roots = new ArrayList<>(modules.values());
+    roots.add(globals);
+    return new Interpreter(this, out, reporter, copies.fork(roots));
   }
 
   /**
@@ -59,24 +159,194 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param statements The expression to evaluate
    */
   public void interpret(List<Stmt> statements) {
+    Events.refresh();
+    Object event = Events.beginInterpret();
+    long start = metrics != null ? System.nanoTime() : 0;
     try {
       for (Stmt statement : statements) {
         execute(statement);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      Events.failure(error);
+      if (metrics != null) {
+        metrics.runtimeErrors.increment();
+      }
+      reporter.runtimeError(error);
+    } finally {
+      if (metrics != null) {
+        metrics.executeNanos.add(System.nanoTime() - start);
+      }
+      Events.endInterpret(event, currentModule, statements.size());
     }
   }
 
-  private void execute(Stmt stmt) {
-    stmt.accept(this);
+  /**
+   * Runs the entry module of a program loaded by a {@link lox.module.ModuleLoader}. Its
+   * imported modules are executed the first time they are imported.
+   *
+   * @param program the entry module
+   */
+  public void interpret(Module program) {
+    Module previous = currentModule;
+    currentModule = program;
+    if (allocations != null) {
+      allocations.enter(program, 1);
+    }
+    try {
+      interpret(program.statements());
+    } finally {
+      currentModule = previous;
+      if (allocations != null) {
+        allocations.exit();
+      }
+    }
+  }
+
+  /**
+   * Binds a global variable, typically a host-provided native function.
+   *
+   * @param name the global name
+   * @param value the value to bind
+   */
+  public void defineGlobal(String name, Object value) {
+    copies.write(globals).define(name, value);
+  }
+
+  /**
+   * Saves the globals, and every value reachable from them, to a snapshot file that
+   * {@link #restoreGlobals} can load into a fresh interpreter. See {@link Snapshot}.
+   *
+   * @param file the snapshot file, which is replaced
+   * @throws IOException if the file can't be written
+   * @throws IllegalArgumentException if a reachable value can't be saved, such as a task
+   */
+  public void saveGlobals(Path file) throws IOException {
+    Snapshot.write(globals, copies, file);
+  }
+
+  /**
+   * Defines the globals saved in a snapshot file, linking its natives to this
+   * interpreter's natives of the same name.
+   *
+   * @param file the snapshot file
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if the file is not a valid snapshot, or needs a
+   *                                  native this interpreter doesn't have
+   */
+  public void restoreGlobals(Path file) throws IOException {
+    Snapshot.read(globals, copies, file);
+  }
+
+  /**
+   * Prints a census of the Lox objects reachable from the globals, the modules run so
+   * far and the scope the interpreter is in: instances and retained size by class, live
+   * environment chains, the closures retaining the most, and the largest strings. See
+   * {@link HeapCensus}. Only call it while no task this interpreter spawned is running.
+   *
+   * @param out where to print
+   * @param limit the most classes, closures and strings to list
+   */
+  public void heapCensus(PrintStream out, int limit) {
+    List<Environment> roots = new ArrayList<>();
+    roots.add(globals);
+    roots.addAll(modules.values());
+    for (Environment scope = environment; scope != null; scope = scope.enclosing) {
+      roots.add(scope);
+    }
+    HeapCensus.take(copies, roots).report(out, limit);
+  }
+
+  /**
+   * Records the Lox functions this interpreter, and every task it spawns from now on,
+   * is in, for {@code profiler} to sample. See {@link Profiler}.
+   *
+   * @param profiler the profiler
+   */
+  public void profile(Profiler profiler) {
+    stack = profiler.register(null);
+  }
+
+  /**
+   * Counts the objects this interpreter, and every task it spawns from now on, allocates
+   * for Lox code, in {@code profiler}. See {@link AllocationProfiler}.
+   *
+   * @param profiler the allocation profiler
+   */
+  public void profileAllocations(AllocationProfiler profiler) {
+    allocations = profiler.recorder(null);
+  }
+
+  /**
+   * Counts what this interpreter, and every task it spawns from now on, executes and
+   * allocates in {@code metrics}. See {@link InterpreterMetrics}.
+   *
+   * @param metrics the metrics
+   */
+  public void collectMetrics(InterpreterMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the metrics being collected, or null if there are none.
+   *
+   * @return the metrics
+   */
+  InterpreterMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Counts a method bound to an instance at {@code line}, and the environment binding
+   * {@code this}, for whichever of the allocation profiler and metrics are on.
+   */
+  void bound(int line) {
+    if (allocations != null) {
+      allocations.bound(line);
+    }
+    if (metrics != null) {
+      metrics.environments.increment();
+    }
+  }
+
+  /**
+   * Returns where allocations are being counted, or null if they are not.
+   *
+   * @return the recorder
+   */
+  AllocationProfiler.Recorder allocations() {
+    return allocations;
+  }
+
+  /**
+   * Returns the call stack being recorded for a profiler, or null if there is none.
+   *
+   * @return the call stack
+   */
+  CallStack callStack() {
+    return stack;
+  }
+
+  /**
+   * Ends a task's interpreter, so a profiler stops sampling it.
+   */
+  void finishTask() {
+    if (stack != null) {
+      stack.profiler().unregister(stack);
+    }
+  }
+
+  CopyOnWrite copies() {
+    return copies;
   }
 
-  public void resolve(Expr expr, int depth) {
-    locals.put(expr, depth);
+  private void execute(Stmt stmt) {
+    if (metrics != null) {
+      metrics.statements.increment();
+    }
+    stmt.accept(this);
   }
 
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null) {
       return "nil";
     }
@@ -93,15 +363,32 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
+    if (expr.reduction && partials != null) {
+      return reduce(expr);
+    }
+
     Object value = evaluate(expr.value);
+    assign(expr.name, expr.depth, value);
+    return value;
+  }
 
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      environment.assignAt(distance, expr.name, value);
+  private void assign(Token name, int depth, Object value) {
+    if (depth >= 0) {
+      copies.write(environment.ancestor(depth)).assignAt(0, name, value);
     } else {
-      globals.assign(expr.name, value);
+      copies.write(globals).assign(name, value);
     }
+  }
 
+  // Folds "x = x + e" into this piece's partial result for x instead of into x.
+  private Object reduce(Expr.Assign expr) {
+    Expr.Binary update = (Expr.Binary) expr.value;
+    Object value = evaluate(update.right);
+    Partial partial = partials.get(expr.name.lexeme);
+    if (partial != null) {
+      value = binary(update.operator, partial.value, value);
+    }
+    partials.put(expr.name.lexeme, new Partial(update.operator, value));
     return value;
   }
 
@@ -109,38 +396,46 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   public Object visitBinaryExpr(Expr.Binary expr) {
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
+    return binary(expr.operator, left, right);
+  }
 
-    switch (expr.operator.type) {
+  private Object binary(Token operator, Object left, Object right) {
+    switch (operator.type) {
       case MINUS:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left - (double) right;
+        checkNumberOperands(operator, left, right);
+        return number(operator, (double) left - (double) right);
       case SLASH:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left / (double) right;
+        checkNumberOperands(operator, left, right);
+        return number(operator, (double) left / (double) right);
       case STAR:
-        checkNumberOperands(expr.operator, left, right);
-        return (double) left * (double) right;
+        checkNumberOperands(operator, left, right);
+        return number(operator, (double) left * (double) right);
       case PLUS:
         if (left instanceof Double && right instanceof Double) {
-          return (double) left + (double) right;
+          return number(operator, (double) left + (double) right);
         }
 
         if (left instanceof String && right instanceof String) {
-          return (String) left + (String) right;
+          String result = (String) left + (String) right;
+          if (allocations != null) {
+            allocations.record(operator.line, AllocationProfiler.Kind.STRING,
+                AllocationProfiler.stringBytes(result.length()));
+          }
+          return result;
         }
 
-        throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
       case GREATER:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double) left > (double) right;
       case GREATER_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double) left >= (double) right;
       case LESS:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double) left < (double) right;
       case LESS_EQUAL:
-        checkNumberOperands(expr.operator, left, right);
+        checkNumberOperands(operator, left, right);
         return (double) left <= (double) right;
       case BANG_EQUAL:
         return !isEqual(left, right);
@@ -152,6 +447,14 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  // Boxes the result of arithmetic, counting the Double if allocations are profiled.
+  private Object number(Token operator, double value) {
+    if (allocations != null) {
+      allocations.record(operator.line, AllocationProfiler.Kind.NUMBER, 16);
+    }
+    return value;
+  }
+
   @Override
   public Object visitCallExpr(Expr.Call expr) {
     Object callee = evaluate(expr.callee);
@@ -160,6 +463,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     for (Expr argument : expr.arguments) {
       arguments.add(evaluate(argument));
     }
+    if (allocations != null) {
+      // Also puts what the callee allocates on entry on this line.
+      allocations.record(expr.paren.line, AllocationProfiler.Kind.ARGUMENTS,
+          AllocationProfiler.argumentsBytes(arguments.size()));
+    }
 
     if (!(callee instanceof LoxCallable function)) { // Pattern variable.
       throw new RuntimeError(expr.paren, "Can only call functions and classes.");
@@ -169,14 +477,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       throw new RuntimeError(expr.paren,
         "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
     }
-    return function.call(this, arguments);
+
+    if (metrics != null) {
+      metrics.calls.increment();
+    }
+    try {
+      return function.call(this, arguments);
+    } catch (RuntimeError error) {
+      // Errors raised by natives don't know their call site.
+      if (error.token != null) {
+        throw error;
+      }
+      throw new RuntimeError(expr.paren, error.getMessage());
+    }
   }
 
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     Object object = evaluate(expr.object);
     if (object instanceof LoxInstance) {
-      return ((LoxInstance) object).get(expr.name);
+      return copies.read((LoxInstance) object).get(expr.name, this);
     }
 
     throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -231,17 +551,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     Object value = evaluate(expr.value);
-    ((LoxInstance) object).set(expr.name, value);
+    copies.write((LoxInstance) object).set(expr.name, value);
     return value;
   }
 
   @Override
   public Object visitSuperExpr(Expr.Super expr) {
     // Look up 'super' in the proper environment.
-    int distance = locals.get(expr);
-    LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
+    int distance = expr.depth;
+    LoxClass superclass = (LoxClass) getAt(distance, "super");
     // Retrieve the instance of the current object.
-    LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
+    LoxInstance object = (LoxInstance) getAt(distance - 1, "this");
 
     // Lookup and bind the method, starting at the superclass.
     LoxFunction method = superclass.findMethod(expr.method.lexeme);
@@ -250,12 +570,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
     }
 
+    bound(expr.method.line);
     return method.bind(object);
   }
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookUpVariable(expr.keyword, expr);
+    return lookUpVariable(expr.keyword, expr.depth);
   }
 
   @Override
@@ -265,7 +586,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     switch (expr.operator.type) {
       case MINUS:
         checkNumberOperand(expr.operator, right);
-        return -(double) right;
+        return number(expr.operator, -(double) right);
       case BANG:
         return !isTruthy(right);
     }
@@ -300,6 +621,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
+    if (allocations != null) {
+      allocations.record(AllocationProfiler.Kind.ENVIRONMENT,
+          AllocationProfiler.environmentBytes(1));
+    }
+    if (metrics != null) {
+      metrics.environments.increment();
+    }
     executeBlock(stmt.statements, new Environment(environment));
     return null;
   }
@@ -314,7 +642,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     }
 
-    environment.define(stmt.name.lexeme, null);
+    copies.write(environment).define(stmt.name.lexeme, null);
 
     // Evaluate a subclass and create a new environment.
     if (stmt.superclass != null) {
@@ -337,7 +665,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment = environment.enclosing;
     }
 
-    environment.assign(stmt.name, klass);
+    copies.write(environment).assign(stmt.name, klass);
     return null;
   }
 
@@ -363,7 +691,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
     LoxFunction function = new LoxFunction(stmt, environment, false);
-    environment.define(stmt.name.lexeme, function);
+    copies.write(environment).define(stmt.name.lexeme, function);
     return null;
   }
 
@@ -377,10 +705,115 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    Module module = currentModule == null ? null : currentModule.dependency(stmt);
+    if (module == null) {
+      throw new RuntimeError(stmt.keyword, "Can only import from a file loaded as a module.");
+    }
+
+    // Run each module once, on first import.
+    Environment exports = modules.get(module);
+    if (exports == null) {
+      exports = new Environment(globals);
+      modules.put(module, exports);
+      Module previous = currentModule;
+      currentModule = module;
+      if (allocations != null) {
+        allocations.enter(module, 1);
+      }
+      try {
+        executeBlock(module.statements(), exports);
+      } finally {
+        currentModule = previous;
+        if (allocations != null) {
+          allocations.exit();
+        }
+      }
+    }
+
+    for (String name : module.exports()) {
+      copies.write(environment).define(name, copies.read(exports).getAt(0, name));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    Object start = evaluate(stmt.start);
+    Object end = evaluate(stmt.end);
+    if (!(start instanceof Double first) || !(end instanceof Double last)) {
+      throw new RuntimeError(stmt.keyword, "Parallel for bounds must be numbers.");
+    }
+    double iterations = Math.ceil(last - first);
+    if (iterations <= 0) {
+      return null;
+    }
+    if (iterations > Integer.MAX_VALUE) {
+      throw new RuntimeError(stmt.keyword, "Parallel for range is too large.");
+    }
+    int count = (int) iterations;
+    Environment outer = environment;
+
+    // Inside another loop's piece, or if the body may have effects the iterations could
+    // observe, run it here in order like an ordinary loop.
+    if (partials != null || !EffectAnalyzer.isPure(stmt, outer, copies)) {
+      Map<String, Partial> enclosing = partials;
+      partials = null;
+      try {
+        for (int i = 0; i < count; i++) {
+          iterate(stmt, outer, first + i);
+        }
+      } finally {
+        partials = enclosing;
+      }
+      return null;
+    }
+
+    Sharing.publish(outer);
+    List<Object> pieces = ParallelNatives.fork(this, count, (worker, from, to) -> {
+      worker.partials = new HashMap<>();
+      for (int i = from; i < to; i++) {
+        worker.iterate(stmt, outer, first + i);
+      }
+      return worker.partials;
+    });
+
+    // Combine the pieces' results in iteration order.
+    for (Object piece : pieces) {
+      @SuppressWarnings("unchecked")
+      Map<String, Partial> results = (Map<String, Partial>) piece;
+      for (Expr.Variable variable : stmt.reductions) {
+        Partial partial = results.get(variable.name.lexeme);
+        if (partial != null) {
+          Object current = lookUpVariable(variable.name, variable.depth);
+          assign(variable.name, variable.depth,
+              binary(partial.operator, current, partial.value));
+        }
+      }
+    }
+    return null;
+  }
+
+  // Runs the body once in a fresh scope binding the loop variable.
+  private void iterate(Stmt.ParallelFor stmt, Environment outer, double index) {
+    if (allocations != null) {
+      allocations.record(stmt.keyword.line, AllocationProfiler.Kind.ENVIRONMENT,
+          AllocationProfiler.environmentBytes(1));
+      allocations.record(AllocationProfiler.Kind.NUMBER, 16);
+    }
+    if (metrics != null) {
+      metrics.environments.increment();
+    }
+    Environment iteration = new Environment(outer);
+    iteration.define(stmt.name.lexeme, index);
+    executeBlock(Collections.singletonList(stmt.body), iteration);
+  }
+
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     Object value = evaluate(stmt.expression);
-    System.out.println(stringify(value));
+    out.println(stringify(value));
     return null;
   }
 
@@ -402,7 +835,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    copies.write(environment).define(stmt.name.lexeme, value);
     return null;
   }
 
@@ -416,15 +849,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookUpVariable(expr.name, expr);
+    return lookUpVariable(expr.name, expr.depth);
   }
 
-  private Object lookUpVariable(Token name, Expr expr) {
-    Integer distance = locals.get(expr);
-    if (distance != null) {
-      return environment.getAt(distance, name.lexeme);
+  private Object lookUpVariable(Token name, int depth) {
+    if (depth >= 0) {
+      return getAt(depth, name.lexeme);
     } else {
-      return globals.get(name);
+      if (metrics != null) {
+        metrics.globalLookups.increment();
+      }
+      return copies.read(globals).get(name);
     }
   }
+
+  private Object getAt(int distance, String name) {
+    return copies.read(environment.ancestor(distance)).getAt(0, name);
+  }
 }
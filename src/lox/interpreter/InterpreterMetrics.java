@@ -0,0 +1,238 @@
+package lox.interpreter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live counters for one interpreter, and the tasks it spawns, published as a JMX MBean so
+ * that long-running embedded interpreters show up in existing monitoring.
+ *
+ * <p>
+ *   An interpreter counts only once given metrics with
+ *   {@link Interpreter#collectMetrics}; until then each counting site is a single null
+ *   check. Counting is then an uncontended {@link LongAdder} increment, a few nanoseconds
+ *   on the statements, calls and allocations it counts. Compile times and cache lookups
+ *   are recorded by the host that compiles the scripts, such as
+ *   {@link lox.engine.LoxContext}.
+ * </p>
+ *
+ * <p>
+ *   Rates need no background thread: the counts are snapshotted when a rate is read, at
+ *   most every ten seconds, and a rate is the change since the snapshot before last.
+ * </p>
+ */
+public final class InterpreterMetrics implements InterpreterMetricsMBean {
+  private static final long WINDOW_NANOS = 10_000_000_000L;
+
+  // Indexes of the rated counts in a snapshot.
+  private static final int STATEMENTS = 0;
+  private static final int CALLS = 1;
+  private static final int INSTANCES = 2;
+  private static final int ENVIRONMENTS = 3;
+  private static final int GLOBAL_LOOKUPS = 4;
+  private static final int RUNTIME_ERRORS = 5;
+
+  final LongAdder statements = new LongAdder();
+  final LongAdder calls = new LongAdder();
+  final LongAdder instances = new LongAdder();
+  final LongAdder environments = new LongAdder();
+  final LongAdder globalLookups = new LongAdder();
+  final LongAdder runtimeErrors = new LongAdder();
+  final LongAdder executeNanos = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheMisses = new LongAdder();
+  private final LongAdder scanNanos = new LongAdder();
+  private final LongAdder parseNanos = new LongAdder();
+  private final LongAdder resolveNanos = new LongAdder();
+
+  private long[] previous;
+  private long previousTime;
+  private long[] current;
+  private long currentTime;
+  private ObjectName registered = null;
+
+  /**
+   * Creates metrics with every count at zero.
+   */
+  public InterpreterMetrics() {
+    restartRates();
+  }
+
+  /**
+   * Adds the time spent compiling a script, by phase.
+   *
+   * @param scan nanoseconds spent scanning
+   * @param parse nanoseconds spent parsing
+   * @param resolve nanoseconds spent resolving
+   */
+  public void recordCompile(long scan, long parse, long resolve) {
+    scanNanos.add(scan);
+    parseNanos.add(parse);
+    resolveNanos.add(resolve);
+  }
+
+  /**
+   * Counts a lookup in a compiled-script cache.
+   *
+   * @param hit true if the script was cached, false if it had to be compiled
+   */
+  public void recordCacheLookup(boolean hit) {
+    (hit ? cacheHits : cacheMisses).increment();
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server, as
+   * {@code lox:type=Interpreter,name=NAME}.
+   *
+   * @param name a name for the interpreter, unique in the JVM
+   * @return the name the MBean was registered under
+   * @throws JMException if the name is taken, or the MBean can't be registered
+   */
+  public synchronized ObjectName register(String name) throws JMException {
+    ObjectName objectName =
+        new ObjectName("lox:type=Interpreter,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    registered = objectName;
+    return objectName;
+  }
+
+  /**
+   * Removes these metrics from the platform MBean server, if {@link #register} put them
+   * there.
+   *
+   * @throws JMException if the MBean can't be unregistered
+   */
+  public synchronized void unregister() throws JMException {
+    if (registered != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+      registered = null;
+    }
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    return statements.sum();
+  }
+
+  @Override
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  @Override
+  public long getInstancesCreated() {
+    return instances.sum();
+  }
+
+  @Override
+  public long getEnvironmentsAllocated() {
+    return environments.sum();
+  }
+
+  @Override
+  public long getGlobalLookups() {
+    return globalLookups.sum();
+  }
+
+  @Override
+  public long getRuntimeErrors() {
+    return runtimeErrors.sum();
+  }
+
+  @Override
+  public long getCompileCacheHits() {
+    return cacheHits.sum();
+  }
+
+  @Override
+  public long getCompileCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  @Override
+  public double getStatementsPerSecond() {
+    return rate(STATEMENTS);
+  }
+
+  @Override
+  public double getCallsPerSecond() {
+    return rate(CALLS);
+  }
+
+  @Override
+  public double getInstancesPerSecond() {
+    return rate(INSTANCES);
+  }
+
+  @Override
+  public double getEnvironmentsPerSecond() {
+    return rate(ENVIRONMENTS);
+  }
+
+  @Override
+  public double getGlobalLookupsPerSecond() {
+    return rate(GLOBAL_LOOKUPS);
+  }
+
+  @Override
+  public double getRuntimeErrorsPerSecond() {
+    return rate(RUNTIME_ERRORS);
+  }
+
+  @Override
+  public double getScanMillis() {
+    return scanNanos.sum() / 1e6;
+  }
+
+  @Override
+  public double getParseMillis() {
+    return parseNanos.sum() / 1e6;
+  }
+
+  @Override
+  public double getResolveMillis() {
+    return resolveNanos.sum() / 1e6;
+  }
+
+  @Override
+  public double getExecuteMillis() {
+    return executeNanos.sum() / 1e6;
+  }
+
+  @Override
+  public synchronized void reset() {
+    for (LongAdder adder : new LongAdder[] {statements, calls, instances, environments,
+        globalLookups, runtimeErrors, executeNanos, cacheHits, cacheMisses, scanNanos,
+        parseNanos, resolveNanos}) {
+      adder.reset();
+    }
+    restartRates();
+  }
+
+  private void restartRates() {
+    previous = counts();
+    current = previous;
+    previousTime = System.nanoTime();
+    currentTime = previousTime;
+  }
+
+  private long[] counts() {
+    return new long[] {statements.sum(), calls.sum(), instances.sum(), environments.sum(),
+        globalLookups.sum(), runtimeErrors.sum()};
+  }
+
+  private synchronized double rate(int index) {
+    long now = System.nanoTime();
+    long[] counts = counts();
+    if (now - currentTime >= WINDOW_NANOS) {
+      previous = current;
+      previousTime = currentTime;
+      current = counts;
+      currentTime = now;
+    }
+    long elapsed = now - previousTime;
+    return elapsed == 0 ? 0 : (counts[index] - previous[index]) * 1e9 / elapsed;
+  }
+}
@@ -0,0 +1,53 @@
+package lox.interpreter;
+
+/**
+ * The management interface of {@link InterpreterMetrics}, as JMX clients see it.
+ *
+ * <p>
+ *   Counts are totals since the metrics were created or last reset. Rates are per second,
+ *   averaged over the last ten to twenty seconds. Times are the wall-clock time spent in
+ *   each phase, in milliseconds.
+ * </p>
+ */
+public interface InterpreterMetricsMBean {
+  long getStatementsExecuted();
+
+  long getCalls();
+
+  long getInstancesCreated();
+
+  long getEnvironmentsAllocated();
+
+  long getGlobalLookups();
+
+  long getRuntimeErrors();
+
+  long getCompileCacheHits();
+
+  long getCompileCacheMisses();
+
+  double getStatementsPerSecond();
+
+  double getCallsPerSecond();
+
+  double getInstancesPerSecond();
+
+  double getEnvironmentsPerSecond();
+
+  double getGlobalLookupsPerSecond();
+
+  double getRuntimeErrorsPerSecond();
+
+  double getScanMillis();
+
+  double getParseMillis();
+
+  double getResolveMillis();
+
+  double getExecuteMillis();
+
+  /**
+   * Sets every count and time back to zero.
+   */
+  void reset();
+}
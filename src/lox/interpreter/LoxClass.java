@@ -50,6 +50,14 @@ public class LoxClass implements LoxCallable {
     return null;
   }
 
+  Iterable<LoxFunction> methods() {
+    return methods.values();
+  }
+
+  Map<String, LoxFunction> methodsByName() {
+    return Map.copyOf(methods);
+  }
+
   @Override
   public String toString() {
     return name;
@@ -66,12 +74,29 @@ public class LoxClass implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
+    Object event = Events.beginInstantiation();
     LoxInstance instance = new LoxInstance(this);
     LoxFunction initializer = findMethod("init");
+    AllocationProfiler.Recorder allocations = interpreter.allocations();
+    if (allocations != null) {
+      allocations.record(AllocationProfiler.Kind.INSTANCE,
+          AllocationProfiler.instanceBytes());
+      if (initializer != null) {
+        allocations.bound(allocations.line());
+      }
+    }
+    InterpreterMetrics metrics = interpreter.metrics();
+    if (metrics != null) {
+      metrics.instances.increment();
+      if (initializer != null) {
+        metrics.environments.increment();
+      }
+    }
     if (initializer != null) {
       initializer.bind(instance).call(interpreter, arguments);
     }
 
+    Events.endInstantiation(event, name, initializer);
     return instance;
   }
 }
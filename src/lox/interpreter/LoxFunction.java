@@ -1,6 +1,7 @@
 package lox.interpreter;
 
 import java.util.List;
+import lox.ast.LazyBody;
 import lox.ast.Stmt;
 
 /**
@@ -45,6 +46,18 @@ public class LoxFunction implements LoxCallable {
     return new LoxFunction(declaration, environment, isInitializer);
   }
 
+  Environment closure() {
+    return closure;
+  }
+
+  Stmt.Function declaration() {
+    return declaration;
+  }
+
+  boolean isInitializer() {
+    return isInitializer;
+  }
+
   @Override
   public int arity() {
     return declaration.params.size();
@@ -52,11 +65,32 @@ public class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
+    // A deferred body is compiled by its first call, which reports any errors in it.
+    if (declaration.body instanceof LazyBody body && !body.compile()) {
+      throw new RuntimeError("Can't call '" + declaration.name.lexeme
+          + "' because its body has errors.");
+    }
+
     Environment environment = new Environment(closure);
     for (int i = 0; i < declaration.params.size(); i++) {
       environment.define(declaration.params.get(i).lexeme, arguments.get(i));
     }
 
+    AllocationProfiler.Recorder allocations = interpreter.allocations();
+    if (allocations != null) {
+      allocations.record(AllocationProfiler.Kind.ENVIRONMENT,
+          AllocationProfiler.environmentBytes(declaration.params.size()));
+      allocations.enter(declaration, declaration.name.line);
+    }
+    InterpreterMetrics metrics = interpreter.metrics();
+    if (metrics != null) {
+      metrics.environments.increment();
+    }
+    CallStack stack = interpreter.callStack();
+    if (stack != null) {
+      stack.push(declaration);
+    }
+    Object event = Events.beginCall();
     try {
       interpreter.executeBlock(declaration.body, environment);
     } catch (Return returnValue) {
@@ -65,6 +99,14 @@ public class LoxFunction implements LoxCallable {
       }
 
       return returnValue.value;
+    } finally {
+      if (stack != null) {
+        stack.pop();
+      }
+      if (allocations != null) {
+        allocations.exit();
+      }
+      Events.endCall(event, declaration);
     }
 
     if (isInitializer) {
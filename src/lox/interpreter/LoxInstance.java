@@ -2,6 +2,7 @@ package lox.interpreter;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import lox.scanner.Token;
 
 /**
@@ -14,30 +15,159 @@ import lox.scanner.Token;
  *   to looking up methods in its class. Methods are bound to the instance when accessed,
  *   allowing them to access 'this'.
  * </p>
+ *
+ * <p>
+ *   Like an {@link Environment}, an instance is accessed without synchronization until
+ *   {@link Sharing} marks it reachable from another thread and moves its fields to a
+ *   concurrent map. Forking an interpreter freezes it, and each interpreter then writes
+ *   its fields to an overlay of its own, as it does for environments.
+ * </p>
  */
 public class LoxInstance {
+  // Marks a field that isn't set, since null is a valid value.
+  private static final Object UNDEFINED = new Object();
+
   private final LoxClass klass;
-  private final Map<String, Object> fields = new HashMap<>();
+  // A HashMap while thread-confined; a concurrent map with masked nils once shared.
+  private Map<String, Object> fields = new HashMap<>();
+  private boolean shared = false;
+  private boolean frozen = false;
+  // The frozen instance this one overlays, or null.
+  private final LoxInstance base;
 
   LoxInstance(LoxClass klass) {
     this.klass = klass;
+    this.base = null;
+  }
+
+  private LoxInstance(LoxInstance base) {
+    this.klass = base.klass;
+    this.base = base;
+    fields = new ConcurrentHashMap<>();
+    shared = true;
+  }
+
+  /**
+   * Returns a new, empty overlay of this frozen instance. Lox code never sees the
+   * overlay itself: methods are bound to the original instance.
+   *
+   * @return an instance that reads through to this one until a field is set
+   */
+  LoxInstance overlay() {
+    return new LoxInstance(this);
+  }
+
+  boolean isFrozen() {
+    return frozen;
+  }
+
+  // The instance Lox code refers to, which this one may be an overlay of.
+  private LoxInstance original() {
+    return base == null ? this : base.original();
   }
 
   Object get(Token name) {
-    if (fields.containsKey(name.lexeme)) {
-      return fields.get(name.lexeme);
+    return get(name, null);
+  }
+
+  /**
+   * Looks up a property, counting the method it binds, if it does, for
+   * {@code interpreter} unless that is null.
+   */
+  Object get(Token name, Interpreter interpreter) {
+    Object value = field(name.lexeme);
+    if (value != UNDEFINED) {
+      return value;
     }
 
     LoxFunction method = klass.findMethod(name.lexeme);
     if (method != null) {
-      return method.bind(this);
+      if (interpreter != null) {
+        interpreter.bound(name.line);
+      }
+      return method.bind(original());
     }
 
     throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
   }
 
   void set(Token name, Object value) {
-    fields.put(name.lexeme, value);
+    set(name.lexeme, value);
+  }
+
+  private Object field(String name) {
+    if (!shared) {
+      if (fields.containsKey(name)) {
+        return fields.get(name);
+      }
+    } else {
+      Object value = fields.get(name);
+      if (value != null) {
+        return Sharing.unmask(value);
+      }
+    }
+    return base == null ? UNDEFINED : base.field(name);
+  }
+
+  void set(String name, Object value) {
+    if (frozen) {
+      throw new IllegalStateException("Can't write to a frozen instance.");
+    }
+    if (!shared) {
+      fields.put(name, value);
+      return;
+    }
+    Sharing.publish(value);
+    fields.put(name, Sharing.mask(value));
+  }
+
+  /**
+   * Returns a copy of the instance's fields.
+   *
+   * @return the field values by name
+   */
+  Map<String, Object> fields() {
+    Map<String, Object> copy = base == null ? new HashMap<>() : base.fields();
+    fields.forEach((name, value) -> copy.put(name, shared ? Sharing.unmask(value) : value));
+    return copy;
+  }
+
+  LoxClass klass() {
+    return klass;
+  }
+
+  /**
+   * Marks this instance as reachable from several threads.
+   *
+   * @return the field values, which the caller must publish in turn, or null if it was
+   *         already shared
+   */
+  Iterable<Object> share() {
+    // A frozen instance never changes, so any thread may read it.
+    if (shared || frozen) {
+      return null;
+    }
+    Map<String, Object> confined = fields;
+    fields = Sharing.concurrentCopy(confined);
+    shared = true;
+    return confined.values();
+  }
+
+  /**
+   * Makes this instance read-only, leaving writes to the overlays of interpreters.
+   *
+   * @return the fields set on it, not on an instance it overlays, which the caller must
+   *         freeze in turn, or null if it was already frozen
+   */
+  Iterable<Object> freeze() {
+    if (frozen) {
+      return null;
+    }
+    frozen = true;
+    if (!shared) {
+      return fields.values();
+    }
+    return fields.values().stream().map(Sharing::unmask).toList();
   }
 
   @Override
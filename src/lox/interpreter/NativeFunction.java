@@ -0,0 +1,58 @@
+package lox.interpreter;
+
+import java.util.List;
+
+/**
+ * A built-in function implemented in Java and exposed to Lox code as a global.
+ *
+ * <p>
+ *   Natives are defined in the global environment when an interpreter is created.
+ *   A native that fails reports the problem by throwing a {@link RuntimeError}
+ *   without a token; the interpreter attaches the call site before reporting it.
+ * </p>
+ */
+public class NativeFunction implements LoxCallable {
+  /**
+   * The Java implementation of a native function.
+   */
+  @FunctionalInterface
+  public interface Body {
+    Object call(Interpreter interpreter, List<Object> arguments);
+  }
+
+  private final String name;
+  private final int arity;
+  private final Body body;
+
+  /**
+   * Creates a native function.
+   *
+   * @param name the global name the native is bound to
+   * @param arity the number of arguments the native expects
+   * @param body the Java implementation
+   */
+  public NativeFunction(String name, int arity, Body body) {
+    this.name = name;
+    this.arity = arity;
+    this.body = body;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  @Override
+  public int arity() {
+    return arity;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter, List<Object> arguments) {
+    return body.call(interpreter, arguments);
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
@@ -0,0 +1,233 @@
+package lox.interpreter;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-length array of numbers stored outside the Java heap.
+ *
+ * <p>
+ *   Elements are raw 64-bit doubles in native byte order, so an array of n numbers costs
+ *   8n bytes outside the heap instead of n boxed {@code Double}s on it. Every array is a
+ *   memory-mapped file, so reads and writes go straight to the page cache. A mapped array
+ *   wraps an existing binary file. An allocated one wraps a temporary file, which is
+ *   deleted as soon as it is opened, in {@code java.io.tmpdir}. Neither counts against
+ *   the heap or {@code -XX:MaxDirectMemorySize}, so arrays may be far larger than the
+ *   heap. An allocated array is limited by the space in the temporary directory, and by
+ *   memory too if that directory is a tmpfs.
+ * </p>
+ *
+ * <p>
+ *   A single NIO buffer is limited to 2 GB, so storage is split into chunks of
+ *   {@value #CHUNK_ELEMENTS} elements, up to {@link #MAX_LENGTH} elements in all.
+ * </p>
+ *
+ * <p>
+ *   {@link #close()} releases an allocated array's memory as soon as no task is using it,
+ *   by truncating its temporary file, and flushes a mapped array's writes to its file.
+ *   Element accesses and kernels hold the array between {@link #acquire()} and
+ *   {@link #release()}, so a close from another task waits for them instead of pulling
+ *   the pages out from under them. Using the array after it is closed is a runtime error.
+ * </p>
+ */
+public final class NumberArray {
+  private static final int CHUNK_BITS = 27;
+  static final int CHUNK_ELEMENTS = 1 << CHUNK_BITS;
+  private static final long CHUNK_MASK = CHUNK_ELEMENTS - 1;
+  // The most elements an array can have: as many chunks as an array can index.
+  public static final long MAX_LENGTH = (long) Integer.MAX_VALUE * CHUNK_ELEMENTS;
+  // Set in the state once the array is closed. The bits below count its current users.
+  private static final int CLOSED = 1 << 30;
+
+  private final long length;
+  private final String source;
+  // The deleted temporary file behind an allocated array, or null if the array is mapped.
+  private final FileChannel temporary;
+  private final MappedByteBuffer[] buffers;
+  private final DoubleBuffer[] chunks;
+  private final AtomicInteger state = new AtomicInteger();
+
+  private NumberArray(long length, String source, FileChannel temporary,
+      MappedByteBuffer[] buffers) {
+    this.length = length;
+    this.source = source;
+    this.temporary = temporary;
+    this.buffers = buffers;
+    this.chunks = new DoubleBuffer[buffers.length];
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i].order(ByteOrder.nativeOrder());
+      chunks[i] = buffers[i].asDoubleBuffer();
+    }
+  }
+
+  /**
+   * Allocates a zero-filled array backed by a temporary file.
+   *
+   * @param length the number of elements
+   * @return the new array
+   * @throws IllegalArgumentException if the length is negative or over
+   *                                  {@link #MAX_LENGTH}
+   * @throws IOException if the temporary file can't be created or mapped
+   */
+  public static NumberArray allocate(long length) throws IOException {
+    if (length < 0 || length > MAX_LENGTH) {
+      throw new IllegalArgumentException("Invalid array length " + length + ".");
+    }
+    Path path = Files.createTempFile("lox-array", ".bin");
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    try {
+      // Mapping past the end grows the file, sparsely, so untouched pages cost nothing.
+      return new NumberArray(length, null, channel, mapChunks(channel, length));
+    } catch (IOException | RuntimeException error) {
+      channel.close();
+      throw error;
+    }
+  }
+
+  /**
+   * Maps a binary file of native-order doubles for reading and writing. Trailing bytes
+   * that don't form a whole element are ignored.
+   *
+   * @param path the file to map
+   * @return the mapped array
+   * @throws IOException if the file can't be opened or mapped, or holds more than
+   *                     {@link #MAX_LENGTH} elements
+   */
+  public static NumberArray map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long length = channel.size() / Double.BYTES;
+      if (length > MAX_LENGTH) {
+        throw new IOException("File is too large to map.");
+      }
+      // The mapping stays valid after the channel is closed.
+      return new NumberArray(length, path.toString(), null, mapChunks(channel, length));
+    }
+  }
+
+  private static MappedByteBuffer[] mapChunks(FileChannel channel, long length)
+      throws IOException {
+    MappedByteBuffer[] buffers = new MappedByteBuffer[chunkCount(length)];
+    for (int i = 0; i < buffers.length; i++) {
+      long offset = (long) i * CHUNK_ELEMENTS * Double.BYTES;
+      long size = (long) chunkSize(length, i) * Double.BYTES;
+      buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+    }
+    return buffers;
+  }
+
+  // The file the array is mapped from, or null if it was allocated.
+  String source() {
+    return source;
+  }
+
+  public long length() {
+    return length;
+  }
+
+  public double get(long index) {
+    DoubleBuffer[] current = acquire();
+    try {
+      return current[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+    } finally {
+      release();
+    }
+  }
+
+  public void set(long index, double value) {
+    DoubleBuffer[] current = acquire();
+    try {
+      current[(int) (index >>> CHUNK_BITS)].put((int) (index & CHUNK_MASK), value);
+    } finally {
+      release();
+    }
+  }
+
+  /**
+   * Starts a use of the backing buffers, each holding {@value #CHUNK_ELEMENTS} elements
+   * except possibly the last. Bulk operations loop over these directly. Every call must
+   * be followed by a call to {@link #release()}, and the buffers must not be used after
+   * it.
+   *
+   * @return the chunks
+   */
+  DoubleBuffer[] acquire() {
+    while (true) {
+      int current = state.get();
+      if ((current & CLOSED) != 0) {
+        throw new RuntimeError("Array is closed.");
+      }
+      if (state.compareAndSet(current, current + 1)) {
+        return chunks;
+      }
+    }
+  }
+
+  /**
+   * Ends a use of the buffers started by {@link #acquire()}, freeing them if the array
+   * was closed meanwhile and this was the last use.
+   */
+  void release() {
+    if (state.decrementAndGet() == CLOSED) {
+      free();
+    }
+  }
+
+  public boolean isClosed() {
+    return (state.get() & CLOSED) != 0;
+  }
+
+  /**
+   * Closes the array, so later uses of it are runtime errors. Its memory is released,
+   * and writes to a mapped file are flushed, once uses already underway have finished.
+   * Closing a closed array does nothing.
+   */
+  public void close() {
+    int previous = state.getAndUpdate(current -> current | CLOSED);
+    if (previous == 0) {
+      free();
+    }
+  }
+
+  private void free() {
+    try {
+      if (temporary != null) {
+        // The mappings last until they are garbage collected, but without the file's
+        // pages behind them they hold only address space.
+        temporary.truncate(0);
+        temporary.close();
+      } else {
+        for (MappedByteBuffer buffer : buffers) {
+          buffer.force();
+        }
+      }
+    } catch (IOException error) {
+      // Nothing uses the array anymore, and its memory is reclaimed with the mappings.
+    }
+  }
+
+  private static int chunkCount(long length) {
+    return (int) ((length + CHUNK_ELEMENTS - 1) >>> CHUNK_BITS);
+  }
+
+  private static int chunkSize(long length, int chunk) {
+    return (int) Math.min(CHUNK_ELEMENTS, length - ((long) chunk << CHUNK_BITS));
+  }
+
+  @Override
+  public String toString() {
+    String state = isClosed() ? " closed" : "";
+    if (source != null) {
+      return "<array " + length + " mapped from " + source + state + ">";
+    }
+    return "<array " + length + state + ">";
+  }
+}
@@ -0,0 +1,226 @@
+package lox.interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Native functions that split independent calls across the common {@link ForkJoinPool}.
+ *
+ * <ul>
+ *   <li>{@code parallelMap(vector, fn)} - Returns a vector of {@code fn(element)} for each
+ *   element, in order.</li>
+ *   <li>{@code parallelReduce(vector, fn, identity)} - Combines the elements with
+ *   {@code fn(accumulator, element)}. Ranges are folded from {@code identity} separately
+ *   and their results combined with {@code fn}, so {@code fn} must be associative and
+ *   {@code identity} neutral for it.</li>
+ *   <li>{@code parallelFor(start, end, fn)} - Calls {@code fn(i)} for each integer from
+ *   {@code start} up to but not including {@code end}.</li>
+ * </ul>
+ *
+ * <p>
+ *   The range is split in halves until pieces are small enough to keep every worker busy
+ *   without drowning in task overhead. Each piece runs in its own {@link Interpreter} that
+ *   shares the caller's globals. A function that {@link EffectAnalyzer} can't prove free
+ *   of side effects is instead called on the caller's thread, in order, as a loop would.
+ *   The {@code parallel for} statement forks its iterations with {@link #fork} too.
+ * </p>
+ */
+final class ParallelNatives {
+  // Pieces per worker; more pieces balance uneven iterations better.
+  private static final int PIECES_PER_WORKER = 4;
+
+  private ParallelNatives() {
+  }
+
+  static void define(Environment globals) {
+    globals.define("parallelMap", new NativeFunction("parallelMap", 2,
+        ParallelNatives::parallelMap));
+    globals.define("parallelReduce", new NativeFunction("parallelReduce", 3,
+        ParallelNatives::parallelReduce));
+    globals.define("parallelFor", new NativeFunction("parallelFor", 3,
+        ParallelNatives::parallelFor));
+  }
+
+  /**
+   * Runs one piece of a range on a worker.
+   */
+  interface Leaf {
+    Object run(Interpreter worker, int start, int end);
+  }
+
+  /**
+   * Splits a range in halves, forking until the pieces are small enough.
+   */
+  @SuppressWarnings("serial") // Tasks are never serialized.
+  private static final class Piece extends RecursiveTask<List<Object>> {
+    private final Interpreter parent;
+    private final Leaf leaf;
+    private final int start;
+    private final int end;
+    private final int grain;
+
+    Piece(Interpreter parent, Leaf leaf, int start, int end, int grain) {
+      this.parent = parent;
+      this.leaf = leaf;
+      this.start = start;
+      this.end = end;
+      this.grain = grain;
+    }
+
+    @Override
+    protected List<Object> compute() {
+      if (end - start <= grain) {
+        List<Object> result = new ArrayList<>(1);
+        Interpreter worker = new Interpreter(parent);
+        try {
+          result.add(leaf.run(worker, start, end));
+        } finally {
+          worker.finishTask();
+        }
+        return result;
+      }
+
+      int middle = (start + end) >>> 1;
+      Piece left = new Piece(parent, leaf, start, middle, grain);
+      Piece right = new Piece(parent, leaf, middle, end, grain);
+      right.fork();
+      List<Object> results = left.compute();
+      results.addAll(right.join());
+      return results;
+    }
+  }
+
+  /**
+   * Runs {@code leaf} over pieces of {@code [0, count)} on the common pool, each in a
+   * fresh interpreter sharing {@code parent}'s globals. Everything the leaf reaches must
+   * already be published.
+   *
+   * @return the result of each piece, in range order
+   */
+  static List<Object> fork(Interpreter parent, int count, Leaf leaf) {
+    int pieces = ForkJoinPool.getCommonPoolParallelism() * PIECES_PER_WORKER;
+    int grain = Math.max(1, count / pieces);
+    return ForkJoinPool.commonPool().invoke(new Piece(parent, leaf, 0, count, grain));
+  }
+
+  // Forks the range if the callable is free of side effects, or runs it here as one piece.
+  private static List<Object> run(Interpreter interpreter, LoxCallable callable, int count,
+                                  Leaf leaf) {
+    if (!EffectAnalyzer.isPure(callable, interpreter.copies())) {
+      List<Object> result = new ArrayList<>(1);
+      result.add(leaf.run(interpreter, 0, count));
+      return result;
+    }
+
+    Sharing.publish(callable);
+    return fork(interpreter, count, leaf);
+  }
+
+  private static Object parallelMap(Interpreter interpreter, List<Object> args) {
+    PersistentVector vector = vector(args.get(0));
+    LoxCallable fn = callable(args.get(1), 1);
+    if (vector.count() == 0) {
+      return vector;
+    }
+
+    Sharing.publish(vector);
+    List<Object> pieces = run(interpreter, fn, vector.count(), (worker, start, end) -> {
+      Object[] results = new Object[end - start];
+      for (int i = start; i < end; i++) {
+        results[i - start] = fn.call(worker, Collections.singletonList(vector.get(i)));
+      }
+      return results;
+    });
+
+    PersistentVector.Transient mapped = PersistentVector.EMPTY.asTransient();
+    for (Object piece : pieces) {
+      for (Object result : (Object[]) piece) {
+        mapped.conj(result);
+      }
+    }
+    return mapped.persistent();
+  }
+
+  private static Object parallelReduce(Interpreter interpreter, List<Object> args) {
+    PersistentVector vector = vector(args.get(0));
+    LoxCallable fn = callable(args.get(1), 2);
+    Object identity = args.get(2);
+    if (vector.count() == 0) {
+      return identity;
+    }
+
+    // Each piece folds its own range, then the partial results are folded in order.
+    Sharing.publish(vector);
+    Sharing.publish(identity);
+    List<Object> partials = run(interpreter, fn, vector.count(), (worker, start, end) -> {
+      Object accumulator = identity;
+      for (int i = start; i < end; i++) {
+        accumulator = fn.call(worker, arguments(accumulator, vector.get(i)));
+      }
+      return accumulator;
+    });
+
+    if (partials.size() == 1) {
+      return partials.get(0);
+    }
+    Object result = identity;
+    for (Object partial : partials) {
+      result = fn.call(interpreter, arguments(result, partial));
+    }
+    return result;
+  }
+
+  private static Object parallelFor(Interpreter interpreter, List<Object> args) {
+    int start = integer(args.get(0));
+    int end = integer(args.get(1));
+    LoxCallable fn = callable(args.get(2), 1);
+    if (end <= start) {
+      return null;
+    }
+    if ((long) end - start > Integer.MAX_VALUE) {
+      throw new RuntimeError("Range is too large.");
+    }
+
+    run(interpreter, fn, end - start, (worker, from, to) -> {
+      for (int i = from; i < to; i++) {
+        fn.call(worker, Collections.singletonList((double) (start + i)));
+      }
+      return null;
+    });
+    return null;
+  }
+
+  private static List<Object> arguments(Object first, Object second) {
+    // Not List.of(), which rejects nil.
+    List<Object> arguments = new ArrayList<>(2);
+    arguments.add(first);
+    arguments.add(second);
+    return arguments;
+  }
+
+  private static PersistentVector vector(Object value) {
+    if (!(value instanceof PersistentVector vector)) {
+      throw new RuntimeError("Operand must be a vector.");
+    }
+    return vector;
+  }
+
+  private static LoxCallable callable(Object value, int arity) {
+    if (!(value instanceof LoxCallable callable) || callable.arity() != arity) {
+      throw new RuntimeError("Expected a function of " + arity + " argument"
+          + (arity == 1 ? "" : "s") + ".");
+    }
+    return callable;
+  }
+
+  private static int integer(Object value) {
+    if (!(value instanceof Double d) || d != Math.floor(d)
+        || d < Integer.MIN_VALUE || d > Integer.MAX_VALUE) {
+      throw new RuntimeError("Range bounds must be integers.");
+    }
+    return (int) (double) d;
+  }
+}
@@ -0,0 +1,597 @@
+package lox.interpreter;
+
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map with structural sharing, implemented as a hash array mapped trie.
+ *
+ * <p>
+ *   Each trie level consumes five bits of the key's hash. A node stores a 32-bit bitmap of
+ *   occupied slots and a compact array holding only those slots, each either a key/value pair
+ *   or a child node. Keys whose full hashes collide share a collision node. Updates copy only
+ *   the nodes on the path to the changed entry, so lookups and updates cost O(log32 n).
+ * </p>
+ *
+ * <p>
+ *   Keys are compared with {@code equals}, matching Lox's {@code ==}. Because node slots use
+ *   a null key to mark a child node, the {@code nil} key is stored outside the trie.
+ * </p>
+ */
+public final class PersistentHashMap {
+  public static final PersistentHashMap EMPTY = new PersistentHashMap(0, null, false, null);
+
+  private final int count;
+  private final Node root;
+  private final boolean hasNull;
+  private final Object nullValue;
+
+  private PersistentHashMap(int count, Node root, boolean hasNull, Object nullValue) {
+    this.count = count;
+    this.root = root;
+    this.hasNull = hasNull;
+    this.nullValue = nullValue;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Looks up a key.
+   *
+   * @param key the key
+   * @param notFound the value returned when the key is absent
+   * @return the mapped value, or {@code notFound}
+   */
+  public Object get(Object key, Object notFound) {
+    if (key == null) {
+      return hasNull ? nullValue : notFound;
+    }
+    return root == null ? notFound : root.find(0, hash(key), key, notFound);
+  }
+
+  public boolean containsKey(Object key) {
+    return get(key, NOT_FOUND) != NOT_FOUND;
+  }
+
+  /**
+   * Returns a map with {@code key} bound to {@code value}.
+   *
+   * @param key the key
+   * @param value the value
+   * @return the new map
+   */
+  public PersistentHashMap assoc(Object key, Object value) {
+    if (key == null) {
+      if (hasNull && value == nullValue) {
+        return this;
+      }
+      return new PersistentHashMap(hasNull ? count : count + 1, root, true, value);
+    }
+    Box addedLeaf = new Box();
+    Node newRoot = (root == null ? BitmapNode.EMPTY : root)
+        .assoc(null, 0, hash(key), key, value, addedLeaf);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap(addedLeaf.set ? count + 1 : count, newRoot, hasNull, nullValue);
+  }
+
+  /**
+   * Returns a map without {@code key}.
+   *
+   * @param key the key to remove
+   * @return the new map
+   */
+  public PersistentHashMap without(Object key) {
+    if (key == null) {
+      return hasNull ? new PersistentHashMap(count - 1, root, false, null) : this;
+    }
+    if (root == null) {
+      return this;
+    }
+    Box removedLeaf = new Box();
+    Node newRoot = root.without(null, 0, hash(key), key, removedLeaf);
+    if (!removedLeaf.set) {
+      return this;
+    }
+    return new PersistentHashMap(count - 1, newRoot, hasNull, nullValue);
+  }
+
+  /**
+   * Returns a mutable view of this map for bulk updates.
+   *
+   * @return a new transient sharing this map's structure
+   */
+  public Transient asTransient() {
+    return new Transient(this);
+  }
+
+  /**
+   * Visits every entry in unspecified order.
+   *
+   * @param action the callback receiving each key and value
+   */
+  public void forEach(BiConsumer<Object, Object> action) {
+    if (hasNull) {
+      action.accept(null, nullValue);
+    }
+    if (root != null) {
+      root.forEach(action);
+    }
+  }
+
+  /**
+   * Visits every entry that hasn't been published yet, and marks the trie nodes holding
+   * them as published so that later calls skip them. The entry for the {@code nil} key,
+   * which is outside the trie, is visited every time.
+   *
+   * @param action the callback receiving each key and value
+   */
+  void forEachUnshared(BiConsumer<Object, Object> action) {
+    if (hasNull) {
+      action.accept(null, nullValue);
+    }
+    if (root != null) {
+      root.forEachUnshared(action);
+    }
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof PersistentHashMap map) || map.count != count) {
+      return false;
+    }
+    boolean[] equal = {true};
+    forEach((key, value) -> {
+      Object found = map.get(key, NOT_FOUND);
+      if (found == NOT_FOUND || (value == null ? found != null : !value.equals(found))) {
+        equal[0] = false;
+      }
+    });
+    return equal[0];
+  }
+
+  @Override
+  public int hashCode() {
+    int[] hash = {0};
+    forEach((key, value) ->
+        hash[0] += (key == null ? 0 : key.hashCode()) ^ (value == null ? 0 : value.hashCode()));
+    return hash[0];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    forEach((key, value) -> {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(Interpreter.stringify(key)).append(": ").append(Interpreter.stringify(value));
+    });
+    return builder.append("}").toString();
+  }
+
+  private static final Object NOT_FOUND = new Object();
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int mask(int hash, int shift) {
+    return (hash >>> shift) & 0x1f;
+  }
+
+  private static int bitpos(int hash, int shift) {
+    return 1 << mask(hash, shift);
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == b || a.equals(b);
+  }
+
+  // Out-parameter recording whether an operation added or removed an entry.
+  private static final class Box {
+    boolean set;
+  }
+
+  /**
+   * A trie node. A non-null {@code edit} is the token of the transient allowed to update
+   * the node in place; persistent operations pass a null edit and always copy.
+   */
+  private interface Node {
+    Object find(int shift, int hash, Object key, Object notFound);
+
+    Node assoc(Object edit, int shift, int hash, Object key, Object value, Box addedLeaf);
+
+    Node without(Object edit, int shift, int hash, Object key, Box removedLeaf);
+
+    void forEach(BiConsumer<Object, Object> action);
+
+    void forEachUnshared(BiConsumer<Object, Object> action);
+  }
+
+  private static final class BitmapNode implements Node {
+    static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+    final Object edit;
+    int bitmap;
+    // Pairs of (key, value), or (null, child node).
+    Object[] array;
+    boolean shared;
+
+    BitmapNode(Object edit, int bitmap, Object[] array) {
+      this.edit = edit;
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key, Object notFound) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return notFound;
+      }
+      int index = index(bit);
+      Object storedKey = array[2 * index];
+      Object storedValue = array[2 * index + 1];
+      if (storedKey == null) {
+        return ((Node) storedValue).find(shift + 5, hash, key, notFound);
+      }
+      return equal(key, storedKey) ? storedValue : notFound;
+    }
+
+    @Override
+    public Node assoc(Object edit, int shift, int hash, Object key, Object value, Box addedLeaf) {
+      int bit = bitpos(hash, shift);
+      int index = index(bit);
+
+      if ((bitmap & bit) != 0) {
+        Object storedKey = array[2 * index];
+        Object storedValue = array[2 * index + 1];
+        if (storedKey == null) {
+          Node child = ((Node) storedValue).assoc(edit, shift + 5, hash, key, value, addedLeaf);
+          return child == storedValue ? this : editAndSet(edit, 2 * index + 1, child);
+        }
+        if (equal(key, storedKey)) {
+          return value == storedValue ? this : editAndSet(edit, 2 * index + 1, value);
+        }
+        // Two keys share this slot, push both down a level.
+        addedLeaf.set = true;
+        Node child = createNode(edit, shift + 5, storedKey, storedValue, hash, key, value);
+        BitmapNode editable = editable(edit);
+        editable.array[2 * index] = null;
+        editable.array[2 * index + 1] = child;
+        return editable;
+      }
+
+      int n = Integer.bitCount(bitmap);
+      Object[] newArray = new Object[2 * (n + 1)];
+      System.arraycopy(array, 0, newArray, 0, 2 * index);
+      newArray[2 * index] = key;
+      newArray[2 * index + 1] = value;
+      System.arraycopy(array, 2 * index, newArray, 2 * (index + 1), 2 * (n - index));
+      addedLeaf.set = true;
+      if (edit != null && this.edit == edit) {
+        bitmap |= bit;
+        array = newArray;
+        return this;
+      }
+      return new BitmapNode(edit, bitmap | bit, newArray);
+    }
+
+    @Override
+    public Node without(Object edit, int shift, int hash, Object key, Box removedLeaf) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int index = index(bit);
+      Object storedKey = array[2 * index];
+      Object storedValue = array[2 * index + 1];
+      if (storedKey == null) {
+        Node child = ((Node) storedValue).without(edit, shift + 5, hash, key, removedLeaf);
+        if (child == storedValue) {
+          return this;
+        }
+        if (child != null) {
+          return editAndSet(edit, 2 * index + 1, child);
+        }
+      } else if (equal(key, storedKey)) {
+        removedLeaf.set = true;
+      } else {
+        return this;
+      }
+
+      if (bitmap == bit) {
+        return null;
+      }
+      int n = Integer.bitCount(bitmap);
+      Object[] newArray = new Object[2 * (n - 1)];
+      System.arraycopy(array, 0, newArray, 0, 2 * index);
+      System.arraycopy(array, 2 * (index + 1), newArray, 2 * index, 2 * (n - index - 1));
+      if (edit != null && this.edit == edit) {
+        bitmap ^= bit;
+        array = newArray;
+        return this;
+      }
+      return new BitmapNode(edit, bitmap ^ bit, newArray);
+    }
+
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == null) {
+          ((Node) array[i + 1]).forEach(action);
+        } else {
+          action.accept(array[i], array[i + 1]);
+        }
+      }
+    }
+
+    @Override
+    public void forEachUnshared(BiConsumer<Object, Object> action) {
+      if (shared) {
+        return;
+      }
+      shared = true;
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == null) {
+          ((Node) array[i + 1]).forEachUnshared(action);
+        } else {
+          action.accept(array[i], array[i + 1]);
+        }
+      }
+    }
+
+    private BitmapNode editable(Object edit) {
+      if (edit != null && this.edit == edit) {
+        return this;
+      }
+      return new BitmapNode(edit, bitmap, array.clone());
+    }
+
+    private BitmapNode editAndSet(Object edit, int i, Object value) {
+      BitmapNode editable = editable(edit);
+      editable.array[i] = value;
+      return editable;
+    }
+
+    private static Node createNode(Object edit, int shift, Object key1, Object value1,
+                                   int hash2, Object key2, Object value2) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(edit, hash1, new Object[] {key1, value1, key2, value2});
+      }
+      Box addedLeaf = new Box();
+      return EMPTY
+          .assoc(edit, shift, hash1, key1, value1, addedLeaf)
+          .assoc(edit, shift, hash2, key2, value2, addedLeaf);
+    }
+  }
+
+  private static final class CollisionNode implements Node {
+    final Object edit;
+    final int hash;
+    Object[] array;
+    boolean shared;
+
+    CollisionNode(Object edit, int hash, Object[] array) {
+      this.edit = edit;
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (equal(key, array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key, Object notFound) {
+      int index = hash == this.hash ? indexOf(key) : -1;
+      return index < 0 ? notFound : array[index + 1];
+    }
+
+    @Override
+    public Node assoc(Object edit, int shift, int hash, Object key, Object value, Box addedLeaf) {
+      if (hash != this.hash) {
+        // Nest this node in a bitmap node and add the new key beside it.
+        return new BitmapNode(edit, bitpos(this.hash, shift), new Object[] {null, this})
+            .assoc(edit, shift, hash, key, value, addedLeaf);
+      }
+
+      int index = indexOf(key);
+      if (index >= 0) {
+        if (array[index + 1] == value) {
+          return this;
+        }
+        CollisionNode editable = editable(edit);
+        editable.array[index + 1] = value;
+        return editable;
+      }
+
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      addedLeaf.set = true;
+      if (edit != null && this.edit == edit) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(edit, hash, newArray);
+    }
+
+    @Override
+    public Node without(Object edit, int shift, int hash, Object key, Box removedLeaf) {
+      int index = indexOf(key);
+      if (index < 0) {
+        return this;
+      }
+      removedLeaf.set = true;
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+      if (edit != null && this.edit == edit) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(edit, hash, newArray);
+    }
+
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        action.accept(array[i], array[i + 1]);
+      }
+    }
+
+    @Override
+    public void forEachUnshared(BiConsumer<Object, Object> action) {
+      if (!shared) {
+        shared = true;
+        forEach(action);
+      }
+    }
+
+    private CollisionNode editable(Object edit) {
+      if (edit != null && this.edit == edit) {
+        return this;
+      }
+      return new CollisionNode(edit, hash, array.clone());
+    }
+  }
+
+  /**
+   * A mutable, single-owner view of a {@link PersistentHashMap}.
+   *
+   * <p>
+   *   Nodes copied by a transient carry its edit token, so repeated inserts into the same
+   *   region of the trie reuse those nodes instead of copying a path each time. Once
+   *   {@link #persistent()} is called the transient can no longer be used.
+   * </p>
+   */
+  public static final class Transient {
+    private Object edit;
+    private int count;
+    private Node root;
+    private boolean hasNull;
+    private Object nullValue;
+
+    private Transient(PersistentHashMap map) {
+      edit = new Object();
+      count = map.count;
+      root = map.root;
+      hasNull = map.hasNull;
+      nullValue = map.nullValue;
+    }
+
+    public int count() {
+      ensureEditable();
+      return count;
+    }
+
+    public Object get(Object key, Object notFound) {
+      ensureEditable();
+      if (key == null) {
+        return hasNull ? nullValue : notFound;
+      }
+      return root == null ? notFound : root.find(0, hash(key), key, notFound);
+    }
+
+    public boolean containsKey(Object key) {
+      return get(key, NOT_FOUND) != NOT_FOUND;
+    }
+
+    /**
+     * Binds {@code key} to {@code value} in place.
+     *
+     * @param key the key
+     * @param value the value
+     * @return this transient
+     */
+    public Transient assoc(Object key, Object value) {
+      ensureEditable();
+      if (key == null) {
+        if (!hasNull) {
+          count++;
+        }
+        hasNull = true;
+        nullValue = value;
+        return this;
+      }
+      Box addedLeaf = new Box();
+      root = (root == null ? BitmapNode.EMPTY : root)
+          .assoc(edit, 0, hash(key), key, value, addedLeaf);
+      if (addedLeaf.set) {
+        count++;
+      }
+      return this;
+    }
+
+    /**
+     * Removes {@code key} in place.
+     *
+     * @param key the key to remove
+     * @return this transient
+     */
+    public Transient without(Object key) {
+      ensureEditable();
+      if (key == null) {
+        if (hasNull) {
+          count--;
+        }
+        hasNull = false;
+        nullValue = null;
+        return this;
+      }
+      if (root == null) {
+        return this;
+      }
+      Box removedLeaf = new Box();
+      root = root.without(edit, 0, hash(key), key, removedLeaf);
+      if (removedLeaf.set) {
+        count--;
+      }
+      return this;
+    }
+
+    /**
+     * Seals this transient and returns the resulting persistent map.
+     *
+     * @return the persistent map
+     */
+    public PersistentHashMap persistent() {
+      ensureEditable();
+      edit = null;
+      return new PersistentHashMap(count, root, hasNull, nullValue);
+    }
+
+    private void ensureEditable() {
+      if (edit == null) {
+        throw new RuntimeError("Transient used after persistent() call.");
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<transient map>";
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package lox.interpreter;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * An immutable vector with structural sharing, exposed to Lox through the collection natives.
+ *
+ * <p>
+ *   Elements live in a 32-way trie whose leaves hold 32 elements each, plus a tail array
+ *   holding the last (up to 32) elements. Lookups and updates walk at most log32(n) levels
+ *   and copy only the nodes on that path, so an updated vector shares everything else with
+ *   the original. Appends usually only copy the small tail.
+ * </p>
+ *
+ * <p>
+ *   A {@link Transient} is a mutable view used to build a vector in bulk. Nodes it creates
+ *   are tagged with its edit token and are mutated in place until {@link Transient#persistent()}
+ *   seals it again.
+ * </p>
+ */
+public final class PersistentVector {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  private static final Node EMPTY_NODE = new Node(null, new Object[WIDTH]);
+  public static final PersistentVector EMPTY =
+      new PersistentVector(0, BITS, EMPTY_NODE, new Object[0]);
+
+  private static final class Node {
+    final Object edit; // Token of the transient allowed to mutate this node.
+    final Object[] array;
+    // Whether the elements under this node have been published to other threads.
+    boolean shared;
+
+    Node(Object edit, Object[] array) {
+      this.edit = edit;
+      this.array = array;
+    }
+  }
+
+  private final int count;
+  private final int shift;
+  private final Node root;
+  private final Object[] tail;
+
+  private PersistentVector(int count, int shift, Node root, Object[] tail) {
+    this.count = count;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Returns the element at the given index.
+   *
+   * @param i the index, which must be within bounds
+   * @return the element
+   */
+  public Object get(int i) {
+    return arrayFor(count, shift, root, tail, i)[i & MASK];
+  }
+
+  /**
+   * Returns a vector with {@code value} appended.
+   *
+   * @param value the value to append
+   * @return the new vector
+   */
+  public PersistentVector conj(Object value) {
+    // Room in the tail.
+    if (count - tailOffset(count) < WIDTH) {
+      Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = value;
+      return new PersistentVector(count + 1, shift, root, newTail);
+    }
+
+    // Full tail, push it into the tree.
+    Node tailNode = new Node(root.edit, tail);
+    Node newRoot;
+    int newShift = shift;
+    if ((count >>> BITS) > (1 << shift)) {
+      // Root overflow, grow the tree by one level.
+      newRoot = new Node(root.edit, new Object[WIDTH]);
+      newRoot.array[0] = root;
+      newRoot.array[1] = newPath(root.edit, shift, tailNode);
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(shift, root, tailNode);
+    }
+    return new PersistentVector(count + 1, newShift, newRoot, new Object[] {value});
+  }
+
+  private Node pushTail(int level, Node parent, Node tailNode) {
+    int index = ((count - 1) >>> level) & MASK;
+    Node node = new Node(parent.edit, parent.array.clone());
+    Node toInsert;
+    if (level == BITS) {
+      toInsert = tailNode;
+    } else {
+      Node child = (Node) parent.array[index];
+      toInsert = child != null
+          ? pushTail(level - BITS, child, tailNode)
+          : newPath(root.edit, level - BITS, tailNode);
+    }
+    node.array[index] = toInsert;
+    return node;
+  }
+
+  /**
+   * Returns a vector with the element at index {@code i} replaced. Assigning at
+   * {@code count()} appends.
+   *
+   * @param i the index, from zero to {@code count()} inclusive
+   * @param value the new value
+   * @return the new vector
+   */
+  public PersistentVector assoc(int i, Object value) {
+    if (i == count) {
+      return conj(value);
+    }
+    checkIndex(i, count);
+
+    if (i >= tailOffset(count)) {
+      Object[] newTail = tail.clone();
+      newTail[i & MASK] = value;
+      return new PersistentVector(count, shift, root, newTail);
+    }
+
+    return new PersistentVector(count, shift, doAssoc(shift, root, i, value), tail);
+  }
+
+  private static Node doAssoc(int level, Node node, int i, Object value) {
+    Node copy = new Node(node.edit, node.array.clone());
+    if (level == 0) {
+      copy.array[i & MASK] = value;
+    } else {
+      int index = (i >>> level) & MASK;
+      copy.array[index] = doAssoc(level - BITS, (Node) node.array[index], i, value);
+    }
+    return copy;
+  }
+
+  /**
+   * Returns a vector without its last element.
+   *
+   * @return the new vector
+   * @throws IllegalStateException if the vector is empty
+   */
+  public PersistentVector pop() {
+    if (count == 0) {
+      throw new IllegalStateException("Can't pop an empty vector.");
+    }
+    if (count == 1) {
+      return EMPTY;
+    }
+    if (count - tailOffset(count) > 1) {
+      return new PersistentVector(count - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+    }
+
+    // The tail empties, so the last leaf of the tree becomes the new tail.
+    Object[] newTail = arrayFor(count, shift, root, tail, count - 2);
+    Node newRoot = popTail(shift, root);
+    int newShift = shift;
+    if (newRoot == null) {
+      newRoot = EMPTY_NODE;
+    }
+    if (shift > BITS && newRoot.array[1] == null) {
+      newRoot = (Node) newRoot.array[0];
+      newShift -= BITS;
+    }
+    return new PersistentVector(count - 1, newShift, newRoot, newTail);
+  }
+
+  private Node popTail(int level, Node node) {
+    int index = ((count - 2) >>> level) & MASK;
+    if (level > BITS) {
+      Node newChild = popTail(level - BITS, (Node) node.array[index]);
+      if (newChild == null && index == 0) {
+        return null;
+      }
+      Node copy = new Node(root.edit, node.array.clone());
+      copy.array[index] = newChild;
+      return copy;
+    } else if (index == 0) {
+      return null;
+    }
+    Node copy = new Node(root.edit, node.array.clone());
+    copy.array[index] = null;
+    return copy;
+  }
+
+  /**
+   * Returns a mutable view of this vector for bulk updates.
+   *
+   * @return a new transient sharing this vector's structure
+   */
+  public Transient asTransient() {
+    return new Transient(this);
+  }
+
+  /**
+   * Passes each element that hasn't been published yet to {@code action}, and marks the
+   * trie nodes holding them as published. Later calls skip those nodes, so publishing a
+   * vector built from a published one visits only the copied path and the tail, which
+   * isn't a node and is visited every time.
+   *
+   * @param action the callback receiving each element
+   */
+  void forEachUnshared(Consumer<Object> action) {
+    forEachUnshared(shift, root, action);
+    for (Object value : tail) {
+      action.accept(value);
+    }
+  }
+
+  private static void forEachUnshared(int level, Node node, Consumer<Object> action) {
+    if (node == null || node.shared) {
+      return;
+    }
+    node.shared = true;
+    for (Object child : node.array) {
+      if (level == 0) {
+        action.accept(child);
+      } else {
+        forEachUnshared(level - BITS, (Node) child, action);
+      }
+    }
+  }
+
+  private static int tailOffset(int count) {
+    if (count < WIDTH) {
+      return 0;
+    }
+    return ((count - 1) >>> BITS) << BITS;
+  }
+
+  private static Object[] arrayFor(int count, int shift, Node root, Object[] tail, int i) {
+    checkIndex(i, count);
+    if (i >= tailOffset(count)) {
+      return tail;
+    }
+    Node node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Node) node.array[(i >>> level) & MASK];
+    }
+    return node.array;
+  }
+
+  private static Node newPath(Object edit, int level, Node node) {
+    if (level == 0) {
+      return node;
+    }
+    Node path = new Node(edit, new Object[WIDTH]);
+    path.array[0] = newPath(edit, level - BITS, node);
+    return path;
+  }
+
+  private static void checkIndex(int i, int count) {
+    if (i < 0 || i >= count) {
+      throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + count);
+    }
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof PersistentVector vector) || vector.count != count) {
+      return false;
+    }
+    for (int i = 0; i < count; i++) {
+      Object a = get(i);
+      Object b = vector.get(i);
+      if (a == null ? b != null : !a.equals(b)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < count; i++) {
+      Object element = get(i);
+      hash = 31 * hash + (element == null ? 0 : element.hashCode());
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(Interpreter.stringify(get(i)));
+    }
+    return builder.append("]").toString();
+  }
+
+  /**
+   * A mutable, single-owner view of a {@link PersistentVector}.
+   *
+   * <p>
+   *   Nodes copied by a transient carry its edit token and are updated in place on later
+   *   writes, so building a vector of n elements allocates roughly n / 32 leaves instead
+   *   of copying a path per element. Once {@link #persistent()} is called the transient
+   *   can no longer be used.
+   * </p>
+   */
+  public static final class Transient {
+    private Object edit;
+    private int count;
+    private int shift;
+    private Node root;
+    private Object[] tail;
+
+    private Transient(PersistentVector vector) {
+      edit = new Object();
+      count = vector.count;
+      shift = vector.shift;
+      root = new Node(edit, vector.root.array.clone());
+      tail = new Object[WIDTH];
+      System.arraycopy(vector.tail, 0, tail, 0, vector.tail.length);
+    }
+
+    public int count() {
+      ensureEditable();
+      return count;
+    }
+
+    public Object get(int i) {
+      ensureEditable();
+      return arrayFor(count, shift, root, tail, i)[i & MASK];
+    }
+
+    /**
+     * Appends a value in place.
+     *
+     * @param value the value to append
+     * @return this transient
+     */
+    public Transient conj(Object value) {
+      ensureEditable();
+      if (count - tailOffset(count) < WIDTH) {
+        tail[count & MASK] = value;
+        count++;
+        return this;
+      }
+
+      Node tailNode = new Node(edit, tail);
+      tail = new Object[WIDTH];
+      tail[0] = value;
+      if ((count >>> BITS) > (1 << shift)) {
+        Node newRoot = new Node(edit, new Object[WIDTH]);
+        newRoot.array[0] = root;
+        newRoot.array[1] = newPath(edit, shift, tailNode);
+        root = newRoot;
+        shift += BITS;
+      } else {
+        root = pushTail(shift, root, tailNode);
+      }
+      count++;
+      return this;
+    }
+
+    private Node pushTail(int level, Node parent, Node tailNode) {
+      Node node = editable(parent);
+      int index = ((count - 1) >>> level) & MASK;
+      Node toInsert;
+      if (level == BITS) {
+        toInsert = tailNode;
+      } else {
+        Node child = (Node) node.array[index];
+        toInsert = child != null
+            ? pushTail(level - BITS, child, tailNode)
+            : newPath(edit, level - BITS, tailNode);
+      }
+      node.array[index] = toInsert;
+      return node;
+    }
+
+    /**
+     * Replaces the element at index {@code i} in place. Assigning at {@code count()} appends.
+     *
+     * @param i the index, from zero to {@code count()} inclusive
+     * @param value the new value
+     * @return this transient
+     */
+    public Transient assoc(int i, Object value) {
+      ensureEditable();
+      if (i == count) {
+        return conj(value);
+      }
+      checkIndex(i, count);
+
+      if (i >= tailOffset(count)) {
+        tail[i & MASK] = value;
+      } else {
+        root = doAssoc(shift, root, i, value);
+      }
+      return this;
+    }
+
+    private Node doAssoc(int level, Node node, int i, Object value) {
+      Node editable = editable(node);
+      if (level == 0) {
+        editable.array[i & MASK] = value;
+      } else {
+        int index = (i >>> level) & MASK;
+        editable.array[index] = doAssoc(level - BITS, (Node) editable.array[index], i, value);
+      }
+      return editable;
+    }
+
+    /**
+     * Seals this transient and returns the resulting persistent vector.
+     *
+     * @return the persistent vector
+     */
+    public PersistentVector persistent() {
+      ensureEditable();
+      edit = null;
+      Object[] trimmed = Arrays.copyOf(tail, count - tailOffset(count));
+      return new PersistentVector(count, shift, root, trimmed);
+    }
+
+    private Node editable(Node node) {
+      if (node.edit == edit) {
+        return node;
+      }
+      return new Node(edit, node.array.clone());
+    }
+
+    private void ensureEditable() {
+      if (edit == null) {
+        throw new RuntimeError("Transient used after persistent() call.");
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<transient vector>";
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package lox.interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import lox.ast.Stmt;
+
+/**
+ * A sampling profiler for Lox code.
+ *
+ * <p>
+ *   A JVM profiler sees only the interpreter's own methods, the same few visitors for
+ *   every Lox function. This one samples the Lox call stacks instead: interpreters
+ *   being profiled keep a {@link CallStack} of the functions they are in, and a
+ *   background thread copies every live stack at a fixed rate. Samples are wall-clock
+ *   time, so a function waiting for a task or for {@code clock()} counts as running,
+ *   and with tasks the samples of all threads add up.
+ * </p>
+ *
+ * <p>
+ *   Frames are labelled {@code name:line}, with the line of the function's declaration,
+ *   under a {@code <script>} root frame for top-level code. The results are reported as
+ *   the self and total time of each function, and as folded stacks, one line per
+ *   distinct stack with its sample count, which flame graph tools read.
+ * </p>
+ */
+public final class Profiler {
+  private static final String ROOT = "<script>";
+
+  private final long intervalNanos;
+  private final Set<CallStack> stacks = ConcurrentHashMap.newKeySet();
+  // Sample counts by folded stack. Only touched by the sampling thread until it stops.
+  private final Map<String, Long> folded = new HashMap<>();
+  private final Map<Stmt.Function, String> labels = new IdentityHashMap<>();
+  private volatile boolean running = false;
+  private Thread sampler = null;
+  private long samples = 0;
+
+  /**
+   * Creates a profiler that samples {@code rate} times a second once started.
+   *
+   * @param rate the sampling rate in hertz
+   */
+  public Profiler(int rate) {
+    this.intervalNanos = 1_000_000_000L / Math.max(rate, 1);
+  }
+
+  CallStack register(CallStack parent) {
+    CallStack stack = new CallStack(this, parent);
+    stacks.add(stack);
+    return stack;
+  }
+
+  void unregister(CallStack stack) {
+    stacks.remove(stack);
+  }
+
+  /**
+   * Starts sampling on a daemon thread.
+   */
+  public void start() {
+    running = true;
+    sampler = Thread.ofPlatform().daemon().name("lox-profiler").start(this::sample);
+  }
+
+  /**
+   * Stops sampling and waits for the sampling thread to finish.
+   */
+  public void stop() {
+    running = false;
+    try {
+      sampler.join();
+    } catch (InterruptedException error) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void sample() {
+    long next = System.nanoTime();
+    StringBuilder key = new StringBuilder();
+    while (running) {
+      next += intervalNanos;
+      LockSupport.parkNanos(next - System.nanoTime());
+      for (CallStack stack : stacks) {
+        key.setLength(0);
+        key.append(ROOT);
+        for (Stmt.Function frame : stack.sample()) {
+          if (frame != null) {
+            key.append(';').append(label(frame));
+          }
+        }
+        folded.merge(key.toString(), 1L, Long::sum);
+        samples++;
+      }
+    }
+  }
+
+  private String label(Stmt.Function function) {
+    return labels.computeIfAbsent(function,
+        f -> f.name.lexeme + ":" + f.name.line);
+  }
+
+  /**
+   * Prints the functions with the most samples, by self time, with their self and total
+   * time. Call after {@link #stop()}.
+   *
+   * @param out where to print
+   * @param limit the most functions to list
+   */
+  public void report(PrintStream out, int limit) {
+    Map<String, long[]> times = new HashMap<>();
+    for (Map.Entry<String, Long> entry : folded.entrySet()) {
+      String[] frames = entry.getKey().split(";");
+      long count = entry.getValue();
+      times.computeIfAbsent(frames[frames.length - 1], f -> new long[2])[0] += count;
+      // A recursive function counts once per sample toward its total.
+      Set<String> seen = new HashSet<>();
+      for (String frame : frames) {
+        if (seen.add(frame)) {
+          times.computeIfAbsent(frame, f -> new long[2])[1] += count;
+        }
+      }
+    }
+
+    List<Map.Entry<String, long[]>> rows = new ArrayList<>(times.entrySet());
+    rows.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+    double millisPerSample = intervalNanos / 1e6;
+    out.printf("%d samples, %.1f ms apart.%n", samples, millisPerSample);
+    out.printf("%10s %7s %10s %7s  %s%n", "self ms", "self%", "total ms", "total%",
+        "function");
+    for (Map.Entry<String, long[]> row : rows.subList(0, Math.min(limit, rows.size()))) {
+      long self = row.getValue()[0];
+      long total = row.getValue()[1];
+      out.printf("%10.1f %6.1f%% %10.1f %6.1f%%  %s%n", self * millisPerSample,
+          percent(self), total * millisPerSample, percent(total), row.getKey());
+    }
+  }
+
+  private double percent(long count) {
+    return samples == 0 ? 0 : 100.0 * count / samples;
+  }
+
+  /**
+   * Writes the samples as folded stacks: one line per distinct stack, its frames
+   * separated by {@code ;} outermost first, then a space and its sample count. Call
+   * after {@link #stop()}.
+   *
+   * @param file the file, which is replaced
+   * @throws IOException if the file can't be written
+   */
+  public void writeFolded(Path file) throws IOException {
+    List<String> lines = new ArrayList<>(folded.size());
+    for (Map.Entry<String, Long> entry : folded.entrySet()) {
+      lines.add(entry.getKey() + " " + entry.getValue());
+    }
+    lines.sort(null);
+    Files.write(file, lines, StandardCharsets.UTF_8);
+  }
+}
@@ -1,13 +1,22 @@
 package lox.interpreter;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import lox.ErrorReporter;
 import lox.Lox;
 import lox.ast.Expr;
+import lox.ast.LazyBody;
 import lox.ast.Stmt;
 import lox.scanner.Token;
+import lox.scanner.TokenType;
 
 /**
  * Performs static analysis on Lox source code to resolve variable bindings.
@@ -22,16 +31,31 @@ import lox.scanner.Token;
  * </p>
  *
  * <p>
+ *   The depth of each resolved variable is recorded on its expression node, so a resolved
+ *   tree carries everything needed to run it and can be shared between interpreters.
  *   After resolution, the interpreter can use the resolved scope depths to look up
  *   variables directly in their enclosing environments without doing a dynamic scope chain
  *   traversal.
  * </p>
+ *
+ * <p>
+ *   A function body the parser deferred is resolved when it is first parsed, by a copy
+ *   of this resolver taken at the declaration, so it binds exactly as it would have if
+ *   resolved in place. Only bodies inside a parallel for are parsed and resolved at
+ *   once, since the loop's checks need everything in it.
+ * </p>
  */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
+  private final ErrorReporter reporter;
   private final Stack<Map<String, Boolean>> scopes;
+  // The top-level scope of a module, where declarations may be repeated like globals.
+  private Map<String, Boolean> moduleScope = null;
   private FunctionType currentFunction = FunctionType.NONE;
   private ClassType currentClass = ClassType.NONE;
+  // The parallel for whose body is being resolved, if any.
+  private ParallelLoop parallelLoop = null;
+  // Whether this resolver, if it is a copy for a deferred body, has reported an error.
+  private boolean hadError = false;
 
   private enum FunctionType {
     NONE,
@@ -46,18 +70,120 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     SUBCLASS
   }
 
-  public Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
+  /**
+   * What the body of a parallel for does with variables declared outside it. The only
+   * writes allowed are reductions: statements of the form {@code x = x + e} or
+   * {@code x = x * e} directly in the body, where {@code x} is not otherwise read.
+   */
+  private static final class ParallelLoop {
+    final Stmt.ParallelFor stmt;
+    final int scope; // Index in scopes of the scope holding the loop variable.
+    int functions = 0; // Functions declared in the body that are being resolved.
+    Expr statement = null; // The expression statement being resolved.
+    final Map<String, Expr.Assign> reductions = new LinkedHashMap<>();
+    // The "x" on the right of each reduction, which is the one read allowed.
+    final Set<Expr.Variable> operands = Collections.newSetFromMap(new IdentityHashMap<>());
+    final Map<String, Token> reads = new HashMap<>();
+
+    ParallelLoop(Stmt.ParallelFor stmt, int scope) {
+      this.stmt = stmt;
+      this.scope = scope;
+    }
+  }
+
+  public Resolver() {
+    this(Lox.CONSOLE);
+  }
+
+  /**
+   * Creates a resolver that reports resolution errors to the given reporter.
+   *
+   * @param reporter where to report errors
+   */
+  public Resolver(ErrorReporter reporter) {
+    this.reporter = reporter;
     scopes = new Stack<>();
   }
 
+  /**
+   * Copies a resolver's state at a function declaration, to resolve the function's body
+   * when it is parsed. Block scopes are copied, since declarations after the function
+   * mustn't be visible to it; a module's top-level scope is shared, since all its names
+   * are declared before anything is resolved.
+   */
+  private Resolver(Resolver original) {
+    ErrorReporter target = original.reporter;
+    this.reporter = new ErrorReporter() {
+      @Override
+      public void report(int line, String where, String message) {
+        hadError = true;
+        target.report(line, where, message);
+      }
+
+      @Override
+      public void runtimeError(RuntimeError error) {
+        target.runtimeError(error);
+      }
+    };
+    scopes = new Stack<>();
+    for (Map<String, Boolean> scope : original.scopes) {
+      scopes.push(scope == original.moduleScope ? scope : new HashMap<>(scope));
+    }
+    moduleScope = original.moduleScope;
+    currentClass = original.currentClass;
+  }
+
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
+    Expr.Variable operand = reductionOperand(expr);
+    if (operand != null) {
+      parallelLoop.operands.add(operand);
+    }
     resolve(expr.value);
-    resolveLocal(expr, expr.name);
+    expr.depth = resolveLocal(expr.name);
+    if (parallelLoop != null) {
+      checkParallelWrite(expr, operand);
+    }
     return null;
   }
 
+  // Returns the "x" in "x = x + e" or "x = x * e" inside a parallel for, or null.
+  private Expr.Variable reductionOperand(Expr.Assign expr) {
+    if (parallelLoop != null
+        && expr.value instanceof Expr.Binary binary
+        && (binary.operator.type == TokenType.PLUS || binary.operator.type == TokenType.STAR)
+        && binary.left instanceof Expr.Variable operand
+        && operand.name.lexeme.equals(expr.name.lexeme)) {
+      return operand;
+    }
+    return null;
+  }
+
+  private void checkParallelWrite(Expr.Assign expr, Expr.Variable operand) {
+    int scope = expr.depth < 0 ? -1 : scopes.size() - 1 - expr.depth;
+    if (scope > parallelLoop.scope) {
+      return;
+    }
+    if (scope == parallelLoop.scope) {
+      reporter.error(expr.name, "Can't assign to the loop variable of a parallel for.");
+      return;
+    }
+
+    if (operand == null || parallelLoop.functions > 0 || parallelLoop.statement != expr) {
+      reporter.error(expr.name,
+          "Iterations of a parallel for can't share the written variable '"
+          + expr.name.lexeme + "'.");
+      return;
+    }
+    Expr.Assign first = parallelLoop.reductions.putIfAbsent(expr.name.lexeme, expr);
+    if (first != null && ((Expr.Binary) first.value).operator.type
+        != ((Expr.Binary) expr.value).operator.type) {
+      reporter.error(expr.name, "Reduction variable '" + expr.name.lexeme
+          + "' must use the same operator throughout a parallel for.");
+    }
+    expr.reduction = true;
+  }
+
   @Override
   public Void visitBinaryExpr(Expr.Binary expr) {
     resolve(expr.left);
@@ -110,23 +236,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+      reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
     } else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+      reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
     }
 
-    resolveLocal(expr, expr.keyword);
+    expr.depth = resolveLocal(expr.keyword);
     return null;
   }
 
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+      reporter.error(expr.keyword, "Can't use 'this' outside of a class.");
       return null;
     }
 
-    resolveLocal(expr, expr.keyword);
+    expr.depth = resolveLocal(expr.keyword);
     return null;
   }
 
@@ -140,21 +266,28 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitVariableExpr(Expr.Variable expr) {
     // Check if variable is being used in its own initializer.
     if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name, "Can't read local variable in its own initializer.");
+      reporter.error(expr.name, "Can't read local variable in its own initializer.");
+    }
+    expr.depth = resolveLocal(expr.name);
+
+    if (parallelLoop != null && !parallelLoop.operands.contains(expr)) {
+      int scope = expr.depth < 0 ? -1 : scopes.size() - 1 - expr.depth;
+      if (scope < parallelLoop.scope) {
+        parallelLoop.reads.putIfAbsent(expr.name.lexeme, expr.name);
+      }
     }
-    resolveLocal(expr, expr.name);
     return null;
   }
 
-  private void resolveLocal(Expr expr, Token name) {
-    // Tell the interpreter how many scopes up to look.
+  // Returns how many scopes up the interpreter should look for the variable.
+  private int resolveLocal(Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
       if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
-        return;
+        return scopes.size() - 1 - i;
       }
     }
     // If we get here, leave unresolved and assume global.
+    return -1;
   }
 
   @Override
@@ -174,7 +307,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     define(stmt.name);
 
     if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-      Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+      reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
     }
 
     if (stmt.superclass != null) {
@@ -229,6 +362,36 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
   }
 
+  /**
+   * Resolves the statements of an imported module. The module's top level is resolved
+   * as a scope of its own, so its declarations bind in the module's environment rather
+   * than in the globals. All top-level names, including those bound by its imports, are
+   * declared up front so that functions can refer to each other in any order.
+   *
+   * @param statements the module's statements
+   * @param importedNames the names its import statements bind
+   */
+  public void resolveModule(List<Stmt> statements, Collection<String> importedNames) {
+    beginScope();
+    moduleScope = scopes.peek();
+    for (String name : importedNames) {
+      moduleScope.put(name, true);
+    }
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Var var) {
+        moduleScope.put(var.name.lexeme, true);
+      } else if (statement instanceof Stmt.Function function) {
+        moduleScope.put(function.name.lexeme, true);
+      } else if (statement instanceof Stmt.Class klass) {
+        moduleScope.put(klass.name.lexeme, true);
+      }
+    }
+
+    resolve(statements);
+    endScope();
+    moduleScope = null;
+  }
+
   private void resolve(Stmt stmt) {
     stmt.accept(this);
   }
@@ -239,6 +402,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitExpressionStmt(Stmt.Expression stmt) {
+    if (parallelLoop != null) {
+      parallelLoop.statement = stmt.expression;
+    }
     resolve(stmt.expression);
     return null;
   }
@@ -253,17 +419,45 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   }
 
   private void resolveFunction(Stmt.Function function, FunctionType type) {
+    if (parallelLoop == null && function.body instanceof LazyBody body && !body.isParsed()
+        && !mayMisuseContext(body, type)) {
+      Resolver deferred = new Resolver(this);
+      body.deferResolution(statements -> {
+        deferred.resolveBody(function, type, statements);
+        return !deferred.hadError;
+      });
+      return;
+    }
+    resolveBody(function, type, function.body);
+  }
+
+  // Whether a deferred body uses a keyword that could be an error where it is declared,
+  // in which case it is resolved now so the error is reported whether or not it is called.
+  private boolean mayMisuseContext(LazyBody body, FunctionType type) {
+    return body.mentions(TokenType.SUPER) && currentClass != ClassType.SUBCLASS
+        || body.mentions(TokenType.THIS) && currentClass == ClassType.NONE
+        || body.mentions(TokenType.RETURN) && type == FunctionType.INITIALIZER
+        || body.mentions(TokenType.IMPORT);
+  }
+
+  private void resolveBody(Stmt.Function function, FunctionType type, List<Stmt> body) {
     FunctionType enclosingFunction = currentFunction;
     currentFunction = type;
+    if (parallelLoop != null) {
+      parallelLoop.functions++;
+    }
 
     beginScope();
     for (Token param : function.params) {
       declare(param);
       define(param);
     }
-    resolve(function.body);
+    resolve(body);
     endScope();
     currentFunction = enclosingFunction;
+    if (parallelLoop != null) {
+      parallelLoop.functions--;
+    }
   }
 
   @Override
@@ -276,6 +470,54 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    // The imported names are declared by resolveModule, or are globals in the entry file.
+    int topLevelScopes = moduleScope == null ? 0 : 1;
+    if (currentFunction != FunctionType.NONE || scopes.size() > topLevelScopes) {
+      reporter.error(stmt.keyword, "Can only import at the top level.");
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    if (parallelLoop != null) {
+      reporter.error(stmt.keyword, "Can't nest a parallel for inside another.");
+    }
+
+    resolve(stmt.start);
+    if (stmt.end != null) {
+      resolve(stmt.end);
+    }
+
+    ParallelLoop enclosingLoop = parallelLoop;
+    beginScope();
+    declare(stmt.name);
+    define(stmt.name);
+    parallelLoop = new ParallelLoop(stmt, scopes.size() - 1);
+    resolve(stmt.body);
+    ParallelLoop loop = parallelLoop;
+    parallelLoop = enclosingLoop;
+    endScope();
+
+    // Resolve each reduction variable from the scope around the loop, where the
+    // interpreter combines the iterations' partial results into it.
+    List<Expr.Variable> reductions = new ArrayList<>();
+    for (Expr.Assign reduction : loop.reductions.values()) {
+      Token read = loop.reads.get(reduction.name.lexeme);
+      if (read != null) {
+        reporter.error(read, "Can't read reduction variable '" + read.lexeme
+            + "' inside a parallel for.");
+      }
+      Expr.Variable variable = new Expr.Variable(reduction.name);
+      variable.depth = resolveLocal(reduction.name);
+      reductions.add(variable);
+    }
+    stmt.reductions = reductions;
+    return null;
+  }
+
   @Override
   public Void visitPrintStmt(Stmt.Print stmt) {
     resolve(stmt.expression);
@@ -285,12 +527,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Can't return from top-level code.");
+      reporter.error(stmt.keyword, "Can't return from top-level code.");
+    } else if (parallelLoop != null && parallelLoop.functions == 0) {
+      reporter.error(stmt.keyword, "Can't return from inside a parallel for.");
     }
 
     if (stmt.value != null) {
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+        reporter.error(stmt.keyword, "Can't return a value from an initializer.");
       }
       resolve(stmt.value);
     }
@@ -313,9 +557,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     Map<String, Boolean> scope = scopes.peek();
+    // Module top-level names are declared up front and may be redeclared, like globals.
+    if (scope == moduleScope) {
+      return;
+    }
+
     // Declaring multiple variables with the same name check.
     if (scope.containsKey(name.lexeme)) {
-      Lox.error(name, "Already a variable with thus name in this scope.");
+      reporter.error(name, "Already a variable with thus name in this scope.");
     }
 
     scope.put(name.lexeme, false);
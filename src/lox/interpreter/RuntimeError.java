@@ -14,4 +14,14 @@ public class RuntimeError extends RuntimeException {
     super(message);
     this.token = token;
   }
+
+  /**
+   * Creates an error raised inside a native function. The interpreter fills in
+   * the token of the call expression before the error is reported.
+   *
+   * @param message a description of the error
+   */
+  RuntimeError(String message) {
+    this(null, message);
+  }
 }
@@ -0,0 +1,134 @@
+package lox.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes Lox values to other threads.
+ *
+ * <p>
+ *   Call frames and instances are confined to the thread that created them and need no
+ *   synchronization. A value escapes to another thread only through a spawned closure,
+ *   a channel, a task result, or a store into something that is already shared. At each
+ *   of those points the value and everything reachable from it is marked shared: every
+ *   {@link Environment} and {@link LoxInstance} in the graph moves its bindings into a
+ *   {@link ConcurrentHashMap}. Reads of a shared map take no lock, so tasks reading the
+ *   same globals don't contend, and writes lock only the bin they update. Marking stops
+ *   at objects that are already shared, so each object is walked at most once.
+ * </p>
+ *
+ * <p>
+ *   Persistent collections are immutable, but their elements may not be. Their trie nodes
+ *   record when they have been walked, so a collection built from a published one, such
+ *   as one more {@code conj} onto a shared vector, costs only its new nodes and its tail
+ *   of at most 32 elements.
+ * </p>
+ *
+ * <p>
+ *   Transient collections and number arrays are not made thread-safe; they must stay
+ *   with one task at a time.
+ * </p>
+ */
+final class Sharing {
+  // Stands in for nil in shared maps, which can't hold null.
+  private static final Object NIL = new Object();
+
+  private Sharing() {
+  }
+
+  /**
+   * Copies thread-confined bindings into a map that can be shared.
+   *
+   * @param values the bindings, which may map to nil
+   * @return a concurrent copy whose values are {@link #mask masked}
+   */
+  static Map<String, Object> concurrentCopy(Map<String, Object> values) {
+    Map<String, Object> copy = new ConcurrentHashMap<>(values.size());
+    values.forEach((name, value) -> copy.put(name, mask(value)));
+    return copy;
+  }
+
+  static Object mask(Object value) {
+    return value == null ? NIL : value;
+  }
+
+  static Object unmask(Object value) {
+    return value == NIL ? null : value;
+  }
+
+  /**
+   * Marks a value and everything reachable from it as shared.
+   *
+   * @param value the value about to become visible to another thread
+   */
+  static void publish(Object value) {
+    if (!isMutableGraph(value)) {
+      return;
+    }
+
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(value);
+    while (!pending.isEmpty()) {
+      Object next = pending.pop();
+      if (next instanceof Environment environment) {
+        // An environment is only ever shared along with the ones enclosing it.
+        Iterable<Object> values = environment.share();
+        if (values != null) {
+          pushAll(pending, values);
+          if (environment.enclosing != null) {
+            pending.push(environment.enclosing);
+          }
+        }
+      } else if (next instanceof LoxInstance instance) {
+        Iterable<Object> fields = instance.share();
+        if (fields != null) {
+          pushAll(pending, fields);
+          pending.push(instance.klass());
+        }
+      } else if (next instanceof LoxFunction function) {
+        pending.push(function.closure());
+      } else if (next instanceof LoxClass klass) {
+        for (LoxFunction method : klass.methods()) {
+          pending.push(method.closure());
+        }
+        if (klass.superclass != null) {
+          pending.push(klass.superclass);
+        }
+      } else if (next instanceof PersistentVector vector) {
+        vector.forEachUnshared(element -> pushIfMutable(pending, element));
+      } else if (next instanceof PersistentHashMap map) {
+        map.forEachUnshared((key, entry) -> {
+          pushIfMutable(pending, key);
+          pushIfMutable(pending, entry);
+        });
+      }
+    }
+  }
+
+  private static void pushAll(Deque<Object> pending, Iterable<Object> values) {
+    if (values == null) {
+      return;
+    }
+    for (Object value : values) {
+      pushIfMutable(pending, value);
+    }
+  }
+
+  private static void pushIfMutable(Deque<Object> pending, Object value) {
+    if (isMutableGraph(value)) {
+      pending.push(value);
+    }
+  }
+
+  // Numbers, strings, booleans, nil and natives can't lead to thread-confined state.
+  static boolean isMutableGraph(Object value) {
+    return value instanceof Environment
+        || value instanceof LoxInstance
+        || value instanceof LoxFunction
+        || value instanceof LoxClass
+        || value instanceof PersistentVector
+        || value instanceof PersistentHashMap;
+  }
+}
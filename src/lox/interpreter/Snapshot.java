@@ -0,0 +1,466 @@
+package lox.interpreter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import lox.ast.AstReader;
+import lox.ast.AstWriter;
+import lox.ast.Stmt;
+
+/**
+ * Saves an interpreter's global environment to a file and restores it into another
+ * interpreter, so a program can start from the state a prelude left behind instead of
+ * running the prelude again.
+ *
+ * <p>
+ *   A snapshot holds every value reachable from the globals: environments, functions
+ *   with their closures, classes, instances, persistent collections and number arrays,
+ *   with shared references and cycles intact. Function declarations are stored as
+ *   resolved syntax trees written by {@link AstWriter}. Natives are stored by name and
+ *   linked to the natives of the restoring interpreter. An array mapped from a file is
+ *   mapped again; any other array is copied. Tasks and channels can't be saved.
+ * </p>
+ *
+ * <pre>
+ *   "LOXS" version tree-version declaration-count trees
+ *   object-count (kind construction-data){object-count} (bindings){environments+instances}
+ * </pre>
+ *
+ * <p>
+ *   Each object comes after everything it is constructed from, which is always possible
+ *   since an environment's bindings and an instance's fields are not needed to construct
+ *   it. Those follow once every object exists, which is how cycles through them are
+ *   restored. Modules imported by the prelude keep the state their closures can reach,
+ *   but importing one again after a restore runs it again.
+ * </p>
+ */
+final class Snapshot {
+  private static final int MAGIC = 0x4c4f5853; // "LOXS"
+  private static final int VERSION = 1;
+
+  // Value tags.
+  private static final byte NIL_VALUE = 0;
+  private static final byte TRUE_VALUE = 1;
+  private static final byte FALSE_VALUE = 2;
+  private static final byte NUMBER_VALUE = 3;
+  private static final byte STRING_VALUE = 4;
+  private static final byte OBJECT_VALUE = 5;
+
+  // Object kinds.
+  private static final byte GLOBALS = 0;
+  private static final byte ENVIRONMENT = 1;
+  private static final byte FUNCTION = 2;
+  private static final byte CLASS = 3;
+  private static final byte INSTANCE = 4;
+  private static final byte NATIVE = 5;
+  private static final byte VECTOR = 6;
+  private static final byte HASH_MAP = 7;
+  private static final byte ALLOCATED_ARRAY = 8;
+  private static final byte MAPPED_ARRAY = 9;
+  private static final byte CLOSED_ARRAY = 10;
+
+  private Snapshot() {
+  }
+
+  /**
+   * Writes a snapshot of {@code globals} to {@code file}.
+   *
+   * @param globals the global environment to save
+   * @param copies the saving interpreter's copies, through which its state is read
+   * @param file the snapshot file, which is replaced
+   * @throws IOException if the file can't be written
+   * @throws IllegalArgumentException if a reachable value can't be saved
+   */
+  static void write(Environment globals, CopyOnWrite copies, Path file) throws IOException {
+    new Writer(globals, copies).write(file);
+  }
+
+  /**
+   * Reads a snapshot from {@code file} and defines its globals in {@code globals}.
+   *
+   * @param globals the global environment to restore into, holding the natives to link
+   * @param copies the restoring interpreter's copies, through which its globals are set
+   * @param file the snapshot file
+   * @throws IOException if the file, or an array file it maps, can't be read
+   * @throws IllegalArgumentException if the file is not a valid snapshot, or names a
+   *                                  native that {@code globals} doesn't have
+   */
+  static void read(Environment globals, CopyOnWrite copies, Path file)
+      throws IOException {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    try {
+      new Reader(globals, copies, buffer).read();
+    } catch (IllegalArgumentException error) {
+      throw error;
+    } catch (RuntimeException error) {
+      throw new IllegalArgumentException("Malformed snapshot.", error);
+    }
+  }
+
+  private static boolean isObject(Object value) {
+    return value != null && !(value instanceof Boolean)
+        && !(value instanceof Double) && !(value instanceof String);
+  }
+
+  private static final class Writer {
+    private final Environment globals;
+    private final CopyOnWrite copies;
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    private final List<Object> objects = new ArrayList<>();
+    // Environments and instances whose bindings haven't been visited yet.
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private final Map<Stmt.Function, Integer> declarations = new IdentityHashMap<>();
+    private final AstWriter trees = new AstWriter();
+
+    Writer(Environment globals, CopyOnWrite copies) {
+      this.globals = globals;
+      this.copies = copies;
+    }
+
+    void write(Path file) throws IOException {
+      id(globals);
+      while (!pending.isEmpty()) {
+        for (Object value : bindings(pending.poll()).values()) {
+          if (isObject(value)) {
+            id(value);
+          }
+        }
+      }
+
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(file)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(AstWriter.FORMAT_VERSION);
+        out.writeInt(declarations.size());
+        out.write(trees.toByteArray());
+
+        out.writeInt(objects.size());
+        for (Object object : objects) {
+          writeObject(out, object);
+        }
+        for (Object object : objects) {
+          if (object instanceof Environment || object instanceof LoxInstance) {
+            Map<String, Object> bindings = bindings(object);
+            out.writeInt(bindings.size());
+            for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+              writeString(out, binding.getKey());
+              writeValue(out, binding.getValue());
+            }
+          }
+        }
+      }
+    }
+
+    private Map<String, Object> bindings(Object object) {
+      return object instanceof Environment environment
+          ? copies.read(environment).bindings()
+          : copies.read((LoxInstance) object).fields();
+    }
+
+    // Numbers an object, after the objects it is constructed from.
+    private int id(Object value) {
+      Integer id = ids.get(value);
+      if (id != null) {
+        return id;
+      }
+
+      if (value instanceof Environment environment) {
+        if (environment != globals) {
+          if (environment.enclosing == null) {
+            throw new IllegalArgumentException(
+                "Can't save a closure from another interpreter.");
+          }
+          id(environment.enclosing);
+        }
+        pending.add(value);
+      } else if (value instanceof LoxFunction function) {
+        id(function.closure());
+        declarations.computeIfAbsent(function.declaration(), declaration -> {
+          trees.write(List.<Stmt>of(declaration));
+          return declarations.size();
+        });
+      } else if (value instanceof LoxClass klass) {
+        if (klass.superclass != null) {
+          id(klass.superclass);
+        }
+        for (LoxFunction method : klass.methods()) {
+          id(method);
+        }
+      } else if (value instanceof LoxInstance instance) {
+        id(instance.klass());
+        pending.add(value);
+      } else if (value instanceof PersistentVector vector) {
+        for (int i = 0; i < vector.count(); i++) {
+          if (isObject(vector.get(i))) {
+            id(vector.get(i));
+          }
+        }
+      } else if (value instanceof PersistentHashMap map) {
+        map.forEach((key, entry) -> {
+          if (isObject(key)) {
+            id(key);
+          }
+          if (isObject(entry)) {
+            id(entry);
+          }
+        });
+      } else if (!(value instanceof NativeFunction) && !(value instanceof NumberArray)) {
+        throw new IllegalArgumentException(
+            "Can't save " + Interpreter.stringify(value) + " in a snapshot.");
+      }
+
+      ids.put(value, objects.size());
+      objects.add(value);
+      return objects.size() - 1;
+    }
+
+    private void writeObject(DataOutputStream out, Object object) throws IOException {
+      if (object == globals) {
+        out.writeByte(GLOBALS);
+      } else if (object instanceof Environment environment) {
+        out.writeByte(ENVIRONMENT);
+        out.writeInt(ids.get(environment.enclosing));
+      } else if (object instanceof LoxFunction function) {
+        out.writeByte(FUNCTION);
+        out.writeInt(declarations.get(function.declaration()));
+        out.writeInt(ids.get(function.closure()));
+        out.writeBoolean(function.isInitializer());
+      } else if (object instanceof LoxClass klass) {
+        out.writeByte(CLASS);
+        writeString(out, klass.name);
+        out.writeInt(klass.superclass == null ? -1 : ids.get(klass.superclass));
+        Map<String, LoxFunction> methods = klass.methodsByName();
+        out.writeInt(methods.size());
+        for (Map.Entry<String, LoxFunction> method : methods.entrySet()) {
+          writeString(out, method.getKey());
+          out.writeInt(ids.get(method.getValue()));
+        }
+      } else if (object instanceof LoxInstance instance) {
+        out.writeByte(INSTANCE);
+        out.writeInt(ids.get(instance.klass()));
+      } else if (object instanceof NativeFunction function) {
+        out.writeByte(NATIVE);
+        writeString(out, function.name());
+      } else if (object instanceof PersistentVector vector) {
+        out.writeByte(VECTOR);
+        out.writeInt(vector.count());
+        for (int i = 0; i < vector.count(); i++) {
+          writeValue(out, vector.get(i));
+        }
+      } else if (object instanceof PersistentHashMap map) {
+        out.writeByte(HASH_MAP);
+        out.writeInt(map.count());
+        List<Object> entries = new ArrayList<>();
+        map.forEach((key, value) -> {
+          entries.add(key);
+          entries.add(value);
+        });
+        for (Object entry : entries) {
+          writeValue(out, entry);
+        }
+      } else {
+        writeArray(out, (NumberArray) object);
+      }
+    }
+
+    private static void writeArray(DataOutputStream out, NumberArray array)
+        throws IOException {
+      if (array.isClosed()) {
+        out.writeByte(CLOSED_ARRAY);
+      } else if (array.source() != null) {
+        out.writeByte(MAPPED_ARRAY);
+        writeString(out, array.source());
+      } else {
+        out.writeByte(ALLOCATED_ARRAY);
+        out.writeLong(array.length());
+        for (long i = 0; i < array.length(); i++) {
+          out.writeDouble(array.get(i));
+        }
+      }
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+      if (value == null) {
+        out.writeByte(NIL_VALUE);
+      } else if (value instanceof Boolean bool) {
+        out.writeByte(bool ? TRUE_VALUE : FALSE_VALUE);
+      } else if (value instanceof Double number) {
+        out.writeByte(NUMBER_VALUE);
+        out.writeDouble(number);
+      } else if (value instanceof String string) {
+        out.writeByte(STRING_VALUE);
+        writeString(out, string);
+      } else {
+        out.writeByte(OBJECT_VALUE);
+        out.writeInt(ids.get(value));
+      }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static final class Reader {
+    private final Environment globals;
+    private final CopyOnWrite copies;
+    private final ByteBuffer buffer;
+    private Object[] objects;
+
+    Reader(Environment globals, CopyOnWrite copies, ByteBuffer buffer) {
+      this.globals = globals;
+      this.copies = copies;
+      this.buffer = buffer;
+    }
+
+    void read() throws IOException {
+      if (buffer.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Not a snapshot.");
+      }
+      if (buffer.getInt() != VERSION || buffer.getInt() != AstWriter.FORMAT_VERSION) {
+        throw new IllegalArgumentException("Snapshot from another version of Lox.");
+      }
+
+      Stmt.Function[] declarations = new Stmt.Function[buffer.getInt()];
+      AstReader trees = new AstReader(buffer);
+      for (int i = 0; i < declarations.length; i++) {
+        declarations[i] = (Stmt.Function) trees.read().get(0);
+      }
+
+      objects = new Object[buffer.getInt()];
+      for (int i = 0; i < objects.length; i++) {
+        objects[i] = readObject(declarations);
+      }
+
+      // Environments and instances are filled in last, once everything exists. The
+      // globals come last of all, so a failure leaves the interpreter untouched.
+      Map<String, Object> restored = null;
+      for (Object object : objects) {
+        if (object instanceof Environment || object instanceof LoxInstance) {
+          Map<String, Object> bindings = new HashMap<>();
+          for (int count = buffer.getInt(); count > 0; count--) {
+            bindings.put(readString(), readValue());
+          }
+          if (object == globals) {
+            restored = bindings;
+          } else if (object instanceof Environment environment) {
+            bindings.forEach(environment::define);
+          } else {
+            bindings.forEach(((LoxInstance) object)::set);
+          }
+        }
+      }
+      if (restored != null) {
+        restored.forEach(copies.write(globals)::define);
+      }
+    }
+
+    private Object readObject(Stmt.Function[] declarations) throws IOException {
+      byte kind = buffer.get();
+      switch (kind) {
+        case GLOBALS:
+          return globals;
+        case ENVIRONMENT:
+          return new Environment((Environment) objects[buffer.getInt()]);
+        case FUNCTION:
+          return new LoxFunction(declarations[buffer.getInt()],
+              (Environment) objects[buffer.getInt()], buffer.get() != 0);
+        case CLASS: {
+          String name = readString();
+          int superclass = buffer.getInt();
+          Map<String, LoxFunction> methods = new HashMap<>();
+          for (int count = buffer.getInt(); count > 0; count--) {
+            methods.put(readString(), (LoxFunction) objects[buffer.getInt()]);
+          }
+          return new LoxClass(name,
+              superclass < 0 ? null : (LoxClass) objects[superclass], methods);
+        }
+        case INSTANCE:
+          return new LoxInstance((LoxClass) objects[buffer.getInt()]);
+        case NATIVE: {
+          String name = readString();
+          if (copies.read(globals).getAt(0, name) instanceof NativeFunction function
+              && function.name().equals(name)) {
+            return function;
+          }
+          throw new IllegalArgumentException("No native function '" + name + "' to link.");
+        }
+        case VECTOR: {
+          PersistentVector.Transient vector = PersistentVector.EMPTY.asTransient();
+          for (int count = buffer.getInt(); count > 0; count--) {
+            vector.conj(readValue());
+          }
+          return vector.persistent();
+        }
+        case HASH_MAP: {
+          PersistentHashMap.Transient map = PersistentHashMap.EMPTY.asTransient();
+          for (int count = buffer.getInt(); count > 0; count--) {
+            map.assoc(readValue(), readValue());
+          }
+          return map.persistent();
+        }
+        case ALLOCATED_ARRAY: {
+          NumberArray array = NumberArray.allocate(buffer.getLong());
+          for (long i = 0; i < array.length(); i++) {
+            array.set(i, buffer.getDouble());
+          }
+          return array;
+        }
+        case MAPPED_ARRAY:
+          return NumberArray.map(Path.of(readString()));
+        case CLOSED_ARRAY: {
+          NumberArray array = NumberArray.allocate(0);
+          array.close();
+          return array;
+        }
+        default:
+          throw new IllegalArgumentException("Unknown snapshot object kind " + kind + ".");
+      }
+    }
+
+    private Object readValue() {
+      byte tag = buffer.get();
+      switch (tag) {
+        case NIL_VALUE:
+          return null;
+        case TRUE_VALUE:
+          return true;
+        case FALSE_VALUE:
+          return false;
+        case NUMBER_VALUE:
+          return buffer.getDouble();
+        case STRING_VALUE:
+          return readString();
+        case OBJECT_VALUE:
+          return objects[buffer.getInt()];
+        default:
+          throw new IllegalArgumentException("Unknown snapshot value tag " + tag + ".");
+      }
+    }
+
+    private String readString() {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
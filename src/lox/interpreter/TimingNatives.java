@@ -0,0 +1,116 @@
+package lox.interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Native functions for timing Lox code more finely than {@code clock()}, whose
+ * millisecond resolution can't measure anything short.
+ *
+ * <ul>
+ *   <li>{@code nanoTime()} - Returns a monotonic time in nanoseconds, for measuring
+ *   intervals. Its origin is arbitrary.</li>
+ *   <li>{@code preciseClock()} - Returns the same time in seconds, so it can replace
+ *   {@code clock()} in code that times itself.</li>
+ *   <li>{@code bench(fn, iterations)} - Warms up and then times {@code iterations}
+ *   calls of {@code fn()}, returning a hash map of statistics in nanoseconds per
+ *   call.</li>
+ * </ul>
+ *
+ * <p>
+ *   {@code bench} first calls {@code fn} until it has made {@code iterations} calls or
+ *   half a second has passed, which gives the JIT a chance to compile the interpreter
+ *   paths it takes. It then makes {@code iterations} calls in batches, timing each batch
+ *   as a whole: a batch lasts about 100 microseconds, so the timer's own cost and
+ *   resolution don't show, but there are at least 20 batches when there are enough
+ *   calls. The result has:
+ * </p>
+ * <ul>
+ *   <li>{@code "mean"} - The total time divided by {@code iterations}.</li>
+ *   <li>{@code "stddev"}, {@code "min"}, {@code "p50"}, {@code "p90"}, {@code "p99"},
+ *   {@code "max"} - The standard deviation and percentiles of the batches' times per
+ *   call. A single slow call is therefore averaged with the rest of its batch.</li>
+ *   <li>{@code "iterations"}, {@code "warmup"}, {@code "batches"},
+ *   {@code "batchSize"} - The calls timed, the warm-up calls made before them, and how
+ *   the timed calls were batched.</li>
+ * </ul>
+ */
+final class TimingNatives {
+  private static final long WARMUP_NANOS = 500_000_000L;
+  private static final double BATCH_NANOS = 100_000;
+  private static final int MIN_BATCHES = 20;
+  private static final List<Object> NO_ARGUMENTS = List.of();
+
+  private TimingNatives() {
+  }
+
+  static void define(Environment globals) {
+    globals.define("nanoTime", new NativeFunction("nanoTime", 0,
+        (interpreter, args) -> (double) System.nanoTime()));
+    globals.define("preciseClock", new NativeFunction("preciseClock", 0,
+        (interpreter, args) -> System.nanoTime() / 1e9));
+    globals.define("bench", new NativeFunction("bench", 2, TimingNatives::bench));
+  }
+
+  private static Object bench(Interpreter interpreter, List<Object> args) {
+    if (!(args.get(0) instanceof LoxCallable fn) || fn.arity() != 0) {
+      throw new RuntimeError("Expected a function of 0 arguments.");
+    }
+    if (!(args.get(1) instanceof Double count) || count != Math.floor(count)
+        || count < 1 || count > Integer.MAX_VALUE) {
+      throw new RuntimeError("Iterations must be a positive integer.");
+    }
+    int iterations = (int) (double) count;
+
+    long start = System.nanoTime();
+    int warmup = 0;
+    do {
+      fn.call(interpreter, NO_ARGUMENTS);
+      warmup++;
+    } while (warmup < iterations && System.nanoTime() - start < WARMUP_NANOS);
+    double estimate = (double) (System.nanoTime() - start) / warmup;
+
+    int batchSize = (int) Math.max(1,
+        Math.min(Math.ceil(BATCH_NANOS / estimate), iterations / MIN_BATCHES));
+    int batches = (iterations + batchSize - 1) / batchSize;
+    double[] perCall = new double[batches];
+    long total = 0;
+    int remaining = iterations;
+    for (int batch = 0; batch < batches; batch++) {
+      int calls = Math.min(batchSize, remaining);
+      long batchStart = System.nanoTime();
+      for (int i = 0; i < calls; i++) {
+        fn.call(interpreter, NO_ARGUMENTS);
+      }
+      long elapsed = System.nanoTime() - batchStart;
+      total += elapsed;
+      perCall[batch] = (double) elapsed / calls;
+      remaining -= calls;
+    }
+
+    double mean = (double) total / iterations;
+    double squares = 0;
+    for (double time : perCall) {
+      squares += (time - mean) * (time - mean);
+    }
+    Arrays.sort(perCall);
+    return PersistentHashMap.EMPTY
+        .assoc("mean", mean)
+        .assoc("stddev", batches > 1 ? Math.sqrt(squares / (batches - 1)) : 0.0)
+        .assoc("min", perCall[0])
+        .assoc("p50", percentile(perCall, 0.50))
+        .assoc("p90", percentile(perCall, 0.90))
+        .assoc("p99", percentile(perCall, 0.99))
+        .assoc("max", perCall[batches - 1])
+        .assoc("iterations", (double) iterations)
+        .assoc("warmup", (double) warmup)
+        .assoc("batches", (double) batches)
+        .assoc("batchSize", (double) batchSize);
+  }
+
+  // The nearest-rank percentile of sorted values.
+  private static double percentile(double[] sorted, double fraction) {
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(rank, 1) - 1];
+  }
+}
@@ -0,0 +1,130 @@
+package lox.interpreter;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The inner loops of {@link ArrayKernels}, written with the incubating Vector API.
+ *
+ * <p>
+ *   Each method works on one on-heap block, as many elements at a time as the CPU's
+ *   preferred vector holds, and finishes the last few elements one by one. Reductions keep
+ *   a partial result per lane and combine the lanes once per block, which the JIT won't do
+ *   for a plain loop as it changes the order of the adds.
+ * </p>
+ *
+ * <p>
+ *   This class is only loaded when {@code jdk.incubator.vector} is in the boot layer, so
+ *   the interpreter still runs on a JVM started without it.
+ * </p>
+ */
+final class VectorKernels {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  private VectorKernels() {
+  }
+
+  static double sum(double[] block, int n) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      sums = sums.add(DoubleVector.fromArray(SPECIES, block, i));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < n; i++) {
+      sum += block[i];
+    }
+    return sum;
+  }
+
+  static double dot(double[] blockA, double[] blockB, int n) {
+    DoubleVector sums = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, blockA, i);
+      sums = sums.add(a.mul(DoubleVector.fromArray(SPECIES, blockB, i)));
+    }
+    double sum = sums.reduceLanes(VectorOperators.ADD);
+    for (; i < n; i++) {
+      sum += blockA[i] * blockB[i];
+    }
+    return sum;
+  }
+
+  static void axpy(double alpha, double[] blockX, double[] blockY, int n) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      DoubleVector x = DoubleVector.fromArray(SPECIES, blockX, i);
+      x.mul(alpha).add(DoubleVector.fromArray(SPECIES, blockY, i)).intoArray(blockY, i);
+    }
+    for (; i < n; i++) {
+      blockY[i] += alpha * blockX[i];
+    }
+  }
+
+  static double min(double[] block, int n) {
+    DoubleVector mins = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      mins = mins.min(DoubleVector.fromArray(SPECIES, block, i));
+    }
+    double min = mins.reduceLanes(VectorOperators.MIN);
+    for (; i < n; i++) {
+      min = Math.min(min, block[i]);
+    }
+    return min;
+  }
+
+  static double max(double[] block, int n) {
+    DoubleVector maxes = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      maxes = maxes.max(DoubleVector.fromArray(SPECIES, block, i));
+    }
+    double max = maxes.reduceLanes(VectorOperators.MAX);
+    for (; i < n; i++) {
+      max = Math.max(max, block[i]);
+    }
+    return max;
+  }
+
+  static void neg(double[] block, int n) {
+    apply(block, n, VectorOperators.NEG);
+    for (int i = SPECIES.loopBound(n); i < n; i++) {
+      block[i] = -block[i];
+    }
+  }
+
+  static void abs(double[] block, int n) {
+    apply(block, n, VectorOperators.ABS);
+    for (int i = SPECIES.loopBound(n); i < n; i++) {
+      block[i] = Math.abs(block[i]);
+    }
+  }
+
+  static void sqrt(double[] block, int n) {
+    apply(block, n, VectorOperators.SQRT);
+    for (int i = SPECIES.loopBound(n); i < n; i++) {
+      block[i] = Math.sqrt(block[i]);
+    }
+  }
+
+  static void square(double[] block, int n) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      DoubleVector v = DoubleVector.fromArray(SPECIES, block, i);
+      v.mul(v).intoArray(block, i);
+    }
+    for (; i < n; i++) {
+      block[i] = block[i] * block[i];
+    }
+  }
+
+  // Applies a unary operator to the whole vectors at the start of the block.
+  private static void apply(double[] block, int n, VectorOperators.Unary op) {
+    for (int i = 0, bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+      DoubleVector.fromArray(SPECIES, block, i).lanewise(op).intoArray(block, i);
+    }
+  }
+}
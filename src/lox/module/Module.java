@@ -0,0 +1,85 @@
+package lox.module;
+
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import lox.ast.Stmt;
+
+/**
+ * A compiled Lox source file and its links to the modules it imports.
+ *
+ * <p>
+ *   A module is compiled once by the {@link ModuleLoader} and shared by every importer and
+ *   every interpreter that runs it. Its top-level declarations live in a scope of their
+ *   own rather than in the interpreter's globals; an {@code import} binds the exported
+ *   names in the importing scope. The entry module of a program is the exception: it runs
+ *   in the global scope, like a script.
+ * </p>
+ */
+public final class Module {
+  private final Path path;
+  private final String name;
+  private final List<Stmt> statements;
+  private final List<String> exports;
+  private final byte[] sourceHash;
+  private final Map<Stmt.Import, Module> dependencies = new IdentityHashMap<>();
+
+  Module(Path path, String name, List<Stmt> statements, List<String> exports,
+         byte[] sourceHash) {
+    this.path = path;
+    this.name = name;
+    this.statements = statements;
+    this.exports = exports;
+    this.sourceHash = sourceHash;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  Path path() {
+    return path;
+  }
+
+  // The SHA-256 hash of the source the module was compiled from.
+  byte[] sourceHash() {
+    return sourceHash;
+  }
+
+  public List<Stmt> statements() {
+    return statements;
+  }
+
+  /**
+   * Returns the names declared at the module's top level, which an import binds.
+   *
+   * @return the exported names
+   */
+  public List<String> exports() {
+    return exports;
+  }
+
+  /**
+   * Returns the module an import statement in this module refers to.
+   *
+   * @param stmt an import statement from this module's top level
+   * @return the imported module
+   */
+  public Module dependency(Stmt.Import stmt) {
+    return dependencies.get(stmt);
+  }
+
+  void link(Stmt.Import stmt, Module module) {
+    dependencies.put(stmt, module);
+  }
+
+  Iterable<Module> dependencies() {
+    return dependencies.values();
+  }
+
+  @Override
+  public String toString() {
+    return "<module " + name + ">";
+  }
+}
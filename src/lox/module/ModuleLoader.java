@@ -0,0 +1,260 @@
+package lox.module;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import lox.ErrorReporter;
+import lox.ast.Stmt;
+import lox.interpreter.Resolver;
+import lox.interpreter.RuntimeError;
+import lox.parser.Parser;
+import lox.scanner.Scanner;
+
+/**
+ * Loads a multi-file Lox program starting from its entry file.
+ *
+ * <p>
+ *   Loading happens in two parallel phases on a fork-join pool. First every file is read,
+ *   scanned and parsed; as soon as a file's imports are known, the imported files are
+ *   scheduled, so independent branches of the import graph are parsed concurrently. Once
+ *   the whole graph is known and free of cycles, every module is resolved concurrently,
+ *   each by its own Resolver. Every file is compiled exactly once no matter how many
+ *   modules import it.
+ * </p>
+ *
+ * <p>
+ *   Import paths are relative to the directory of the importing file. Errors name the
+ *   file they were found in.
+ * </p>
+ *
+ * <p>
+ *   Function and method bodies are parsed and resolved only when first called, so errors
+ *   inside them are reported then. A strict loader compiles every body up front, and
+ *   reports every error before anything runs.
+ * </p>
+ */
+public final class ModuleLoader {
+  private final ForkJoinPool pool;
+  private final ErrorReporter reporter;
+  private final boolean strict;
+
+  // A parsed file waiting to be linked and resolved.
+  private record Parsed(Path path, byte[] sourceHash, List<Stmt> statements,
+                        List<String> exports, Map<Stmt.Import, Path> imports) {
+  }
+
+  /**
+   * Creates a loader that compiles on the common fork-join pool.
+   *
+   * @param reporter where to report errors; calls to it are serialized
+   */
+  public ModuleLoader(ErrorReporter reporter) {
+    this(ForkJoinPool.commonPool(), reporter, false);
+  }
+
+  /**
+   * Creates a loader that compiles on the common fork-join pool.
+   *
+   * @param reporter where to report errors; calls to it are serialized
+   * @param strict whether to compile function bodies before they are called
+   */
+  public ModuleLoader(ErrorReporter reporter, boolean strict) {
+    this(ForkJoinPool.commonPool(), reporter, strict);
+  }
+
+  /**
+   * Creates a loader that compiles on the given pool.
+   *
+   * @param pool the pool used for scanning, parsing and resolving
+   * @param reporter where to report errors; calls to it are serialized
+   * @param strict whether to compile function bodies before they are called
+   */
+  public ModuleLoader(ForkJoinPool pool, ErrorReporter reporter, boolean strict) {
+    this.pool = pool;
+    this.reporter = reporter;
+    this.strict = strict;
+  }
+
+  /**
+   * Compiles the program rooted at {@code entry} and every module it imports.
+   *
+   * @param entry the program's main file
+   * @return the entry module, or null if any error was reported
+   * @throws IOException if the entry file can't be read
+   */
+  public Module load(Path entry) throws IOException {
+    Path root = entry.toAbsolutePath().normalize();
+    if (!Files.isReadable(root)) {
+      throw new IOException("Can't read " + entry + ".");
+    }
+    return new Load(root).run();
+  }
+
+  // The state of one call to load().
+  private final class Load {
+    private final Path root;
+    private final ConcurrentHashMap<Path, ForkJoinTask<Parsed>> tasks = new ConcurrentHashMap<>();
+    private boolean hadError = false;
+
+    Load(Path root) {
+      this.root = root;
+    }
+
+    Module run() {
+      schedule(root);
+
+      // Parsing a file schedules its imports, so wait until no new files appear.
+      Map<Path, Parsed> parsed = new HashMap<>();
+      while (parsed.size() < tasks.size()) {
+        for (Map.Entry<Path, ForkJoinTask<Parsed>> task : List.copyOf(tasks.entrySet())) {
+          parsed.put(task.getKey(), task.getValue().join());
+        }
+      }
+      if (hadError()) {
+        return null;
+      }
+
+      Map<Path, Module> modules = new HashMap<>();
+      for (Parsed file : parsed.values()) {
+        String name = root.getParent().relativize(file.path()).toString();
+        modules.put(file.path(),
+            new Module(file.path(), name, file.statements(), file.exports(),
+                file.sourceHash()));
+      }
+      for (Parsed file : parsed.values()) {
+        for (Map.Entry<Stmt.Import, Path> link : file.imports().entrySet()) {
+          modules.get(file.path()).link(link.getKey(), modules.get(link.getValue()));
+        }
+      }
+
+      Module main = modules.get(root);
+      checkCycles(main, new HashSet<>(), new LinkedHashSet<>());
+      if (hadError()) {
+        return null;
+      }
+
+      List<ForkJoinTask<?>> resolving = new ArrayList<>();
+      for (Module module : modules.values()) {
+        resolving.add(pool.submit(() -> resolve(module)));
+      }
+      for (ForkJoinTask<?> task : resolving) {
+        task.join();
+      }
+      return hadError() ? null : main;
+    }
+
+    private void schedule(Path path) {
+      tasks.computeIfAbsent(path, key -> pool.submit(() -> parse(key)));
+    }
+
+    private Parsed parse(Path path) {
+      ErrorReporter fileReporter = reporterFor(path);
+      byte[] sourceHash;
+      List<Stmt> statements;
+      try {
+        // Hashed first, so a file changing during the load can't be cached as current.
+        sourceHash = ProgramCache.hash(path);
+        statements = new Parser(Scanner.mapFile(path, fileReporter), fileReporter, !strict)
+            .parse();
+      } catch (IOException | UncheckedIOException error) {
+        fileReporter.error(0, "Can't read module.");
+        return new Parsed(path, null, List.of(), List.of(), Map.of());
+      }
+
+      List<String> exports = new ArrayList<>();
+      Map<Stmt.Import, Path> imports = new HashMap<>();
+      for (Stmt stmt : statements) {
+        if (stmt instanceof Stmt.Var var) {
+          exports.add(var.name.lexeme);
+        } else if (stmt instanceof Stmt.Function function) {
+          exports.add(function.name.lexeme);
+        } else if (stmt instanceof Stmt.Class klass) {
+          exports.add(klass.name.lexeme);
+        } else if (stmt instanceof Stmt.Import importStmt) {
+          Path target = path.getParent().resolve((String) importStmt.path.literal).normalize();
+          if (!Files.isReadable(target)) {
+            fileReporter.error(importStmt.path, "Can't find module.");
+            continue;
+          }
+          imports.put(importStmt, target);
+          schedule(target);
+        }
+      }
+      return new Parsed(path, sourceHash, statements, List.copyOf(exports), imports);
+    }
+
+    private void resolve(Module module) {
+      Resolver resolver = new Resolver(reporterFor(module.path()));
+      if (module.path().equals(root)) {
+        resolver.resolve(module.statements());
+        return;
+      }
+
+      Set<String> imported = new LinkedHashSet<>();
+      for (Module dependency : module.dependencies()) {
+        imported.addAll(dependency.exports());
+      }
+      resolver.resolveModule(module.statements(), imported);
+    }
+
+    // Depth-first search reporting each import that closes a cycle.
+    private void checkCycles(Module module, Set<Module> done, Set<Module> path) {
+      if (done.contains(module)) {
+        return;
+      }
+      path.add(module);
+      for (Stmt stmt : module.statements()) {
+        if (!(stmt instanceof Stmt.Import importStmt)) {
+          continue;
+        }
+        Module dependency = module.dependency(importStmt);
+        if (path.contains(dependency)) {
+          reporterFor(module.path()).error(importStmt.path,
+              "Import cycle through module '" + dependency.name() + "'.");
+          continue;
+        }
+        checkCycles(dependency, done, path);
+      }
+      path.remove(module);
+      done.add(module);
+    }
+
+    private boolean hadError() {
+      synchronized (ModuleLoader.this) {
+        return hadError;
+      }
+    }
+
+    // Tags errors in imported files with the file name and serializes them across threads.
+    private ErrorReporter reporterFor(Path path) {
+      String file = path.equals(root) ? "" : " in " + path.getFileName();
+      return new ErrorReporter() {
+        @Override
+        public void report(int line, String where, String message) {
+          synchronized (ModuleLoader.this) {
+            hadError = true;
+            reporter.report(line, file + where, message);
+          }
+        }
+
+        @Override
+        public void runtimeError(RuntimeError error) {
+          synchronized (ModuleLoader.this) {
+            reporter.runtimeError(error);
+          }
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package lox.module;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import lox.ErrorReporter;
+import lox.ast.AstReader;
+import lox.ast.AstWriter;
+import lox.ast.Stmt;
+import lox.interpreter.RuntimeError;
+
+/**
+ * Keeps compiled programs on disk, so that running an unchanged program again skips
+ * scanning, parsing and resolving altogether.
+ *
+ * <p>
+ *   A program is cached in one {@code .loxc} file. The file is written next to the entry
+ *   file, or to a cache directory under the SHA-256 hash of the entry file's contents. It
+ *   lists every file of the program with the SHA-256 hash of its contents. A later run
+ *   memory-maps the cache file and uses it only if every file still hashes the same.
+ *   After that header come each module's name and exports, their resolved syntax trees
+ *   as written by {@link AstWriter}, and the module each import refers to:
+ * </p>
+ * <pre>
+ *   "LOXC" version tree-version count (path hash){count}
+ *   (name exports){count} trees (import-targets){count}
+ * </pre>
+ *
+ * <p>
+ *   Only programs without errors are cached, and their function bodies are all compiled
+ *   before caching, so a cached program runs like one loaded in strict mode. A cache file
+ *   that is stale, unreadable or malformed is ignored and replaced; failing to write one
+ *   is not an error.
+ * </p>
+ */
+public final class ProgramCache {
+  private static final int MAGIC = 0x4c4f5843; // "LOXC"
+  private static final int VERSION = 1;
+  private static final String EXTENSION = ".loxc";
+
+  // Drops errors from the compile attempted for the cache; they are reported again by
+  // the compile that replaces it.
+  private static final ErrorReporter SILENT = new ErrorReporter() {
+    @Override
+    public void report(int line, String where, String message) {
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+    }
+  };
+
+  private final Path directory;
+
+  /**
+   * Creates a cache that keeps each program's cache file next to its entry file.
+   */
+  public ProgramCache() {
+    this(null);
+  }
+
+  /**
+   * Creates a cache that keeps cache files in a directory, which is created if needed.
+   *
+   * @param directory the cache directory, or null to keep them next to the entry files
+   */
+  public ProgramCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the program rooted at {@code entry}, from its cache file if that is current,
+   * or else compiled and then cached.
+   *
+   * @param entry the program's main file
+   * @param reporter where to report errors
+   * @param strict whether a program that has to be compiled compiles function bodies
+   *               before they are called
+   * @return the entry module, or null if any error was reported
+   * @throws IOException if the entry file can't be read
+   */
+  public Module load(Path entry, ErrorReporter reporter, boolean strict) throws IOException {
+    Path root = entry.toAbsolutePath().normalize();
+    Path file = null;
+    try {
+      file = cacheFile(root);
+      Module cached = read(file, root);
+      if (cached != null) {
+        return cached;
+      }
+    } catch (IOException error) {
+      // Fall through, so the loader reports an unreadable entry file.
+    }
+
+    Module program = new ModuleLoader(SILENT, true).load(entry);
+    if (program == null) {
+      // Compile again to report the errors, as the caller asked to have them reported.
+      return new ModuleLoader(reporter, strict).load(entry);
+    }
+    if (file != null) {
+      write(file, program);
+    }
+    return program;
+  }
+
+  private Path cacheFile(Path root) throws IOException {
+    if (directory == null) {
+      String name = root.getFileName().toString();
+      int dot = name.lastIndexOf('.');
+      return root.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+    return directory.resolve(HexFormat.of().formatHex(hash(root)) + EXTENSION);
+  }
+
+  // Returns the cached program, or null if the file is missing, stale or malformed.
+  private static Module read(Path file, Path root) {
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException error) {
+      return null;
+    }
+
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+          || buffer.getInt() != AstWriter.FORMAT_VERSION) {
+        return null;
+      }
+
+      int count = buffer.getInt();
+      Path[] paths = new Path[count];
+      byte[][] hashes = new byte[count][];
+      for (int i = 0; i < count; i++) {
+        paths[i] = Path.of(readString(buffer));
+        hashes[i] = new byte[32];
+        buffer.get(hashes[i]);
+        if (!Files.isReadable(paths[i]) || !Arrays.equals(hashes[i], hash(paths[i]))) {
+          return null;
+        }
+      }
+      if (count == 0 || !paths[0].equals(root)) {
+        return null;
+      }
+
+      String[] names = new String[count];
+      List<List<String>> exports = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        names[i] = readString(buffer);
+        List<String> moduleExports = new ArrayList<>();
+        for (int j = buffer.getInt(); j > 0; j--) {
+          moduleExports.add(readString(buffer));
+        }
+        exports.add(List.copyOf(moduleExports));
+      }
+
+      AstReader reader = new AstReader(buffer);
+      Module[] modules = new Module[count];
+      for (int i = 0; i < count; i++) {
+        modules[i] = new Module(paths[i], names[i], reader.read(), exports.get(i), hashes[i]);
+      }
+      for (Module module : modules) {
+        for (Stmt.Import stmt : imports(module)) {
+          module.link(stmt, modules[buffer.getInt()]);
+        }
+      }
+      return modules[0];
+    } catch (IOException | RuntimeException error) {
+      // Malformed or truncated, for example by a crash while it was written.
+      return null;
+    }
+  }
+
+  // Writes the cache file through a temporary file, so readers never see part of it.
+  private static void write(Path file, Module program) {
+    List<Module> modules = new ArrayList<>();
+    Map<Module, Integer> indexes = new IdentityHashMap<>();
+    ArrayDeque<Module> pending = new ArrayDeque<>();
+    pending.add(program);
+    indexes.put(program, 0);
+    while (!pending.isEmpty()) {
+      Module module = pending.poll();
+      modules.add(module);
+      for (Module dependency : module.dependencies()) {
+        if (!indexes.containsKey(dependency)) {
+          indexes.put(dependency, indexes.size());
+          pending.add(dependency);
+        }
+      }
+    }
+
+    AstWriter trees = new AstWriter();
+    for (Module module : modules) {
+      trees.write(module.statements());
+    }
+
+    Path temporary = null;
+    try {
+      Files.createDirectories(file.toAbsolutePath().getParent());
+      temporary = Files.createTempFile(file.toAbsolutePath().getParent(),
+          file.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(AstWriter.FORMAT_VERSION);
+        out.writeInt(modules.size());
+        for (Module module : modules) {
+          writeString(out, module.path().toString());
+          out.write(module.sourceHash());
+        }
+        for (Module module : modules) {
+          writeString(out, module.name());
+          out.writeInt(module.exports().size());
+          for (String name : module.exports()) {
+            writeString(out, name);
+          }
+        }
+        out.write(trees.toByteArray());
+        for (Module module : modules) {
+          for (Stmt.Import stmt : imports(module)) {
+            out.writeInt(indexes.get(module.dependency(stmt)));
+          }
+        }
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException error) {
+      // Caching is best effort; the program runs either way.
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException ignored) {
+          // Nothing more to do.
+        }
+      }
+    }
+  }
+
+  private static List<Stmt.Import> imports(Module module) {
+    List<Stmt.Import> imports = new ArrayList<>();
+    for (Stmt stmt : module.statements()) {
+      if (stmt instanceof Stmt.Import importStmt) {
+        imports.add(importStmt);
+      }
+    }
+    return imports;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the SHA-256 hash of a file's contents, read through a memory mapping.
+   *
+   * @param path the file
+   * @return the 32-byte hash
+   * @throws IOException if the file can't be read
+   */
+  static byte[] hash(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      return digest.digest();
+    } catch (NoSuchAlgorithmException error) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(error);
+    }
+  }
+}
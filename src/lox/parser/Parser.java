@@ -4,10 +4,16 @@ import static lox.scanner.TokenType.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import lox.ErrorReporter;
 import lox.Lox;
 import lox.ast.Expr;
+import lox.ast.LazyBody;
 import lox.ast.Stmt;
+import lox.scanner.Scanner;
 import lox.scanner.Token;
 import lox.scanner.TokenType;
 
@@ -18,13 +24,100 @@ import lox.scanner.TokenType;
  *   for expressions including arithmetic, comparisons, grouping, and literals.
  * </p>
  * Uses panic mode error recovery to handle syntax errors gracefully and continue parsing.
+ *
+ * <p>
+ *   Statements are parsed by recursive descent, expressions by precedence climbing: a
+ *   table indexed by token type gives each token's prefix and infix rules and its
+ *   {@link Precedence}, so an expression costs one call per operator rather than one per
+ *   grammar level.
+ * </p>
+ *
+ * <p>
+ *   The parser needs one token of lookahead, so it can pull tokens from a {@link Scanner}
+ *   as it goes rather than from a fully scanned list.
+ * </p>
+ *
+ * <p>
+ *   A parser can defer function and method bodies: it then only balances their braces
+ *   and keeps their tokens in a {@link LazyBody}, which parses them on first use. Syntax
+ *   errors in a body that is never used then go unreported.
+ * </p>
  */
 public class Parser {
   // ParseError (sentinel) class to unwind the parser
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
-  private int current = 0;  // next token waiting to be parsed
+  /**
+   * Parses an expression that starts with the token just consumed.
+   */
+  private interface PrefixRule {
+    Expr parse(Parser parser);
+  }
+
+  /**
+   * Parses the rest of an expression whose left operand is already parsed, after its
+   * operator has been consumed.
+   */
+  private interface InfixRule {
+    Expr parse(Parser parser, Expr left);
+  }
+
+  /**
+   * How a token type parses at the start of an expression and after one, and how
+   * tightly it binds in the latter case.
+   */
+  private record Rule(PrefixRule prefix, InfixRule infix, Precedence precedence) {
+  }
+
+  // Keywords whose misuse depends on where a function is declared, recorded for deferred
+  // bodies so the Resolver knows when it can't defer them.
+  private static final Set<TokenType> CONTEXT_KEYWORDS = EnumSet.of(SUPER, THIS, RETURN);
+
+  // Parse rules indexed by TokenType ordinal.
+  private static final Rule[] RULES = new Rule[TokenType.values().length];
+
+  static {
+    Arrays.fill(RULES, new Rule(null, null, Precedence.NONE));
+    rule(LEFT_PAREN,    Parser::grouping,        Parser::finishCall, Precedence.CALL);
+    rule(DOT,           null,                    Parser::property,   Precedence.CALL);
+    rule(MINUS,         Parser::unary,           Parser::binary,     Precedence.TERM);
+    rule(PLUS,          null,                    Parser::binary,     Precedence.TERM);
+    rule(SLASH,         null,                    Parser::binary,     Precedence.FACTOR);
+    rule(STAR,          null,                    Parser::binary,     Precedence.FACTOR);
+    rule(BANG,          Parser::unary,           null,               Precedence.NONE);
+    rule(BANG_EQUAL,    null,                    Parser::binary,     Precedence.EQUALITY);
+    rule(EQUAL,         null,                    Parser::assignment, Precedence.ASSIGNMENT);
+    rule(EQUAL_EQUAL,   null,                    Parser::binary,     Precedence.EQUALITY);
+    rule(GREATER,       null,                    Parser::binary,     Precedence.COMPARISON);
+    rule(GREATER_EQUAL, null,                    Parser::binary,     Precedence.COMPARISON);
+    rule(LESS,          null,                    Parser::binary,     Precedence.COMPARISON);
+    rule(LESS_EQUAL,    null,                    Parser::binary,     Precedence.COMPARISON);
+    rule(IDENTIFIER,    Parser::variable,        null,               Precedence.NONE);
+    rule(STRING,        Parser::literal,         null,               Precedence.NONE);
+    rule(NUMBER,        Parser::literal,         null,               Precedence.NONE);
+    rule(AND,           null,                    Parser::logical,    Precedence.AND);
+    rule(FALSE,         Parser::literal,         null,               Precedence.NONE);
+    rule(NIL,           Parser::literal,         null,               Precedence.NONE);
+    rule(OR,            null,                    Parser::logical,    Precedence.OR);
+    rule(SUPER,         Parser::superExpression, null,               Precedence.NONE);
+    rule(THIS,          Parser::thisExpression,  null,               Precedence.NONE);
+    rule(TRUE,          Parser::literal,         null,               Precedence.NONE);
+  }
+
+  private static void rule(TokenType type, PrefixRule prefix, InfixRule infix,
+                           Precedence precedence) {
+    RULES[type.ordinal()] = new Rule(prefix, infix, precedence);
+  }
+
+  private final Supplier<Token> tokens;
+  private final ErrorReporter reporter;
+  private final boolean deferBodies;
+  private boolean hadError = false;
+  // Syntax errors waiting for the scanner to reach the end, or null if reported at once.
+  private List<Runnable> heldErrors = null;
+  private Token next;  // next token waiting to be parsed
+  private Token following = null;  // the token after it, once a lookahead needed it
+  private Token previous = null;
 
   /**
    * Parser constructor.
@@ -32,7 +125,57 @@ public class Parser {
    * @param tokens the list of tokens to parse
    */
   public Parser(List<Token> tokens) {
+    this(tokens, Lox.CONSOLE);
+  }
+
+  /**
+   * Creates a parser that reports syntax errors to the given reporter.
+   *
+   * @param tokens the list of tokens to parse
+   * @param reporter where to report errors
+   */
+  public Parser(List<Token> tokens, ErrorReporter reporter) {
+    this(tokens.iterator()::next, reporter);
+  }
+
+  /**
+   * Creates a parser that scans tokens on demand.
+   *
+   * @param scanner the scanner to pull tokens from
+   * @param reporter where to report errors
+   */
+  public Parser(Scanner scanner, ErrorReporter reporter) {
+    this(scanner, reporter, false);
+  }
+
+  /**
+   * Creates a parser that scans tokens on demand and, optionally, parses function bodies
+   * only when they are first used.
+   *
+   * <p>
+   *   The scanner reports lexical errors as it reaches them, so the parser holds its own
+   *   errors until {@link #parse()} has read the whole source. Every lexical error is
+   *   then reported before any syntax error, as when the source is scanned up front.
+   * </p>
+   *
+   * @param scanner the scanner to pull tokens from
+   * @param reporter where to report errors
+   * @param deferBodies whether to defer function and method bodies
+   */
+  public Parser(Scanner scanner, ErrorReporter reporter, boolean deferBodies) {
+    this(scanner::nextToken, reporter, deferBodies);
+    heldErrors = new ArrayList<>();
+  }
+
+  private Parser(Supplier<Token> tokens, ErrorReporter reporter) {
+    this(tokens, reporter, false);
+  }
+
+  private Parser(Supplier<Token> tokens, ErrorReporter reporter, boolean deferBodies) {
     this.tokens = tokens;
+    this.reporter = reporter;
+    this.deferBodies = deferBodies;
+    this.next = tokens.get();
   }
 
   /**
@@ -43,18 +186,29 @@ public class Parser {
   // program    → declaration* EOF ;
   public List<Stmt> parse() {
     List<Stmt> statements = new ArrayList<>();
-    while (!isAtEnd()) {
-      statements.add(declaration());
+    try {
+      while (!isAtEnd()) {
+        statements.add(declaration());
+      }
+    } finally {
+      if (heldErrors != null) {
+        heldErrors.forEach(Runnable::run);
+        heldErrors = null;
+      }
     }
     return statements;
   }
 
   // declaration    → classDecl
   //               | funDecl
+  //               | importDecl
   //               | varDecl
   //               | statement ;
   private Stmt declaration() {
     try {
+      if (matchContextual(IMPORT, STRING)) {
+        return importDeclaration();
+      }
       if (match(CLASS)) {
         return classDeclaration();
       }
@@ -71,6 +225,14 @@ public class Parser {
     }
   }
 
+  // importDecl     → "import" STRING ";" ;
+  private Stmt importDeclaration() {
+    Token keyword = previous();
+    Token path = consume(STRING, "Expect module path string after 'import'.");
+    consume(SEMICOLON, "Expect ';' after import.");
+    return new Stmt.Import(keyword, path);
+  }
+
   // classDecl      → "class" IDENTIFIER ( "<" IDENTIFIER )?
   //                 "{" function* "}" ;
   private Stmt classDeclaration() {
@@ -115,10 +277,46 @@ public class Parser {
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-    List<Stmt> body = block();
+    List<Stmt> body = deferBodies ? deferredBlock() : block();
     return new Stmt.Function(name, parameters, body);
   }
 
+  // Skips to the brace closing a function body, keeping the tokens for LazyBody to parse.
+  private List<Stmt> deferredBlock() {
+    List<Token> saved = new ArrayList<>();
+    Set<TokenType> keywords = EnumSet.noneOf(TokenType.class);
+    int depth = 1;
+    while (!isAtEnd()) {
+      Token token = advance();
+      saved.add(token);
+      if (CONTEXT_KEYWORDS.contains(token.type)) {
+        keywords.add(token.type);
+      } else if (token.type == IDENTIFIER && token.lexeme.equals(IMPORT.lexeme())) {
+        // Possibly an import; a name spelled the same only costs the deferral.
+        keywords.add(IMPORT);
+      }
+      if (token.type == LEFT_BRACE) {
+        depth++;
+      } else if (token.type == RIGHT_BRACE && --depth == 0) {
+        saved.add(new Token(EOF, "", null, token.line));
+        return new LazyBody(() -> new Parser(saved.iterator()::next, reporter, true).body(),
+            keywords);
+      }
+    }
+
+    throw error(peek(), "Expect '}' after block.");
+  }
+
+  // Parses a deferred body after its opening brace, or returns null if it has errors.
+  private List<Stmt> body() {
+    try {
+      List<Stmt> statements = block();
+      return hadError ? null : statements;
+    } catch (ParseError error) {
+      return null;
+    }
+  }
+
   // varDecl        → "var" IDENTIFIER ( "=" expression )? ";" ;
   private Stmt varDeclaration() {
     Token name = consume(IDENTIFIER, "Expect variable name.");
@@ -133,6 +331,7 @@ public class Parser {
 
   // statement      → exprStmt
   //               | forStmt
+  //               | parallelFor
   //               | ifStmt
   //               | printStmt
   //               | returnStmt
@@ -142,6 +341,9 @@ public class Parser {
     if (match(FOR)) {
       return forStatement();
     }
+    if (matchContextual(PARALLEL, FOR)) {
+      return parallelForStatement();
+    }
     if (match(IF)) {
       return ifStatement();
     }
@@ -214,6 +416,56 @@ public class Parser {
     return body;
   }
 
+  // parallelFor    → "parallel" "for" "(" "var" IDENTIFIER "=" expression ";"
+  //                 IDENTIFIER "<" expression ";"
+  //                 IDENTIFIER "=" IDENTIFIER "+" "1" ")" statement ;
+  //
+  // The clauses are parsed as in an ordinary for loop and then checked, so a loop that
+  // doesn't count up by one is reported without losing track of the rest of the source.
+  private Stmt parallelForStatement() {
+    Token keyword = previous();
+    consume(FOR, "Expect 'for' after 'parallel'.");
+    consume(LEFT_PAREN, "Expect '(' after 'for'.");
+    consume(VAR, "Expect 'var' to declare the loop variable of a parallel for.");
+    Token name = consume(IDENTIFIER, "Expect variable name.");
+    consume(EQUAL, "Expect '=' after loop variable.");
+    Expr start = expression();
+    consume(SEMICOLON, "Expect ';' after loop initializer.");
+
+    Expr condition = expression();
+    consume(SEMICOLON, "Expect ';' after loop condition.");
+    Expr increment = expression();
+    consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+
+    Expr end = null;
+    if (condition instanceof Expr.Binary binary && binary.operator.type == LESS
+        && isVariable(binary.left, name)) {
+      end = binary.right;
+    }
+    if (end == null || !isIncrement(increment, name)) {
+      error(keyword,
+          "Parallel for must have the form 'for (var i = start; i < end; i = i + 1)'.");
+    }
+
+    Stmt body = statement();
+    return new Stmt.ParallelFor(keyword, name, start, end, body);
+  }
+
+  private static boolean isVariable(Expr expr, Token name) {
+    return expr instanceof Expr.Variable variable && variable.name.lexeme.equals(name.lexeme);
+  }
+
+  // Whether the expression is "name = name + 1".
+  private static boolean isIncrement(Expr expr, Token name) {
+    return expr instanceof Expr.Assign assign
+        && assign.name.lexeme.equals(name.lexeme)
+        && assign.value instanceof Expr.Binary sum
+        && sum.operator.type == PLUS
+        && isVariable(sum.left, name)
+        && sum.right instanceof Expr.Literal one
+        && Double.valueOf(1.0).equals(one.value);
+  }
+
   // ifStmt         → "if" "(" expression ")" statement ( "else" statement )? ;
   private Stmt ifStatement() {
     consume(LEFT_PAREN, "Expect '(' after 'if'.");
@@ -277,172 +529,87 @@ public class Parser {
 
   // expression     → assignment ;
   private Expr expression() {
-    return assignment();
+    return parsePrecedence(Precedence.ASSIGNMENT);
   }
 
-  // assignment     → ( call "." )? IDENTIFIER "=" assignment
-  //               | logic_or ;
-  private Expr assignment() {
-    Expr expr = or();
+  /**
+   * Parses an expression whose operators all bind at least as tightly as the given
+   * precedence.
+   *
+   * <p>
+   *   The token starting the expression selects its prefix rule; after that, each
+   *   operator that follows selects its infix rule, for as long as it binds tightly
+   *   enough. Operators of the same precedence therefore group to the left, unless the
+   *   rule parses its right operand at its own precedence, as assignment does.
+   * </p>
+   */
+  private Expr parsePrecedence(Precedence precedence) {
+    PrefixRule prefix = RULES[peek().type.ordinal()].prefix();
+    if (prefix == null) {
+      throw error(peek(), "Expect expression."); // token cannot start expression
+    }
+    advance();
+    Expr expr = prefix.parse(this);
 
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable) expr).name;
-        return new Expr.Assign(name, value);
-      } else if (expr instanceof Expr.Get get) {
-        return new Expr.Set(get.object, get.name, value);
+    while (true) {
+      Rule rule = RULES[peek().type.ordinal()];
+      if (rule.precedence().compareTo(precedence) < 0) {
+        break;
       }
-      error(equals, "Invalid assignment target.");
+      advance();
+      expr = rule.infix().parse(this, expr);
     }
 
     return expr;
   }
 
-  // logic_or       → logic_and ( "or" logic_and )* ;
-  private Expr or() {
-    Expr expr = and();
+  // assignment     → ( call "." )? IDENTIFIER "=" assignment
+  //               | logic_or ;
+  private Expr assignment(Expr target) {
+    Token equals = previous();
+    // Right-associative, so the value is parsed at this same precedence.
+    Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
+    if (target instanceof Expr.Variable) {
+      Token name = ((Expr.Variable) target).name;
+      return new Expr.Assign(name, value);
+    } else if (target instanceof Expr.Get get) {
+      return new Expr.Set(get.object, get.name, value);
     }
+    error(equals, "Invalid assignment target.");
 
-    return expr;
+    return target;
   }
 
+  // logic_or       → logic_and ( "or" logic_and )* ;
   // logic_and      → equality ( "and" equality )* ;
-  private Expr and() {
-    Expr expr = equality();
-
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
-    }
-
-    return expr;
+  private Expr logical(Expr left) {
+    Token operator = previous();
+    Expr right = parsePrecedence(RULES[operator.type.ordinal()].precedence().next());
+    return new Expr.Logical(left, operator, right);
   }
 
   // equality       → comparison ( ( "!=" | "==" ) comparison )* ;
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
-    }
-
-    return false;
-  }
-
-  private boolean check(TokenType type) {
-    if (isAtEnd()) {
-      return false;
-    }
-    return peek().type == type;
-  }
-
-  private Token advance() {
-    if (!isAtEnd()) {
-      current++;
-    }
-    return previous();
-  }
-
-  private boolean isAtEnd() {
-    return peek().type == EOF;
-  }
-
-  private Token peek() {
-    return tokens.get(current);
-  }
-
-  private Token previous() {
-    return tokens.get(current - 1);
-  }
-
   // comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-  private Expr comparison() {
-    Expr expr = term();
-
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
   // term           → factor ( ( "-" | "+" ) factor )* ;
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
-
   // factor         → unary ( ( "/" | "*" ) unary )* ;
-  private Expr factor() {
-    Expr expr = unary();
-
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
+  private Expr binary(Expr left) {
+    Token operator = previous();
+    Expr right = parsePrecedence(RULES[operator.type.ordinal()].precedence().next());
+    return new Expr.Binary(left, operator, right);
   }
 
   // unary          → ( "!" | "-" ) unary | call ;
   private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
-    }
-
-    return call();
+    Token operator = previous();
+    Expr right = parsePrecedence(Precedence.UNARY);
+    return new Expr.Unary(operator, right);
   }
 
   // call           → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
-  private Expr call() {
-    Expr expr = primary();
-
-    while (true) {
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-      } else if (match(DOT)) {
-        Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-        expr = new Expr.Get(expr, name);
-      } else {
-        break;
-      }
-    }
-
-    return expr;
+  private Expr property(Expr object) {
+    Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+    return new Expr.Get(object, name);
   }
 
   // arguments      → expression ( "," expression )* ;
@@ -465,45 +632,109 @@ public class Parser {
   // primary        → "true" | "false" | "nil" | "this"
   //               | NUMBER | STRING | IDENTIFIER | "(" expression ")"
   //               | "super" "." IDENTIFIER ;
-  private Expr primary() {
-    if (match(FALSE)) {
-      return new Expr.Literal(false);
-    }
-    if (match(TRUE)) {
-      return new Expr.Literal(true);
-    }
-    if (match(NIL)) {
-      return new Expr.Literal(null);
+  private Expr literal() {
+    switch (previous().type) {
+      case FALSE:
+        return new Expr.Literal(false);
+      case TRUE:
+        return new Expr.Literal(true);
+      case NIL:
+        return new Expr.Literal(null);
+      default:
+        // NUMBER or STRING.
+        return new Expr.Literal(previous().literal);
     }
+  }
+
+  private Expr superExpression() {
+    Token keyword = previous();
+    consume(DOT, "Expect '.' after 'super'.");
+    Token method = consume(IDENTIFIER, "Expect superclass method name.");
+    return new Expr.Super(keyword, method);
+  }
+
+  private Expr thisExpression() {
+    return new Expr.This(previous());
+  }
+
+  private Expr variable() {
+    return new Expr.Variable(previous());
+  }
 
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
+  // After matching '(', parse expression inside it and expect ')'.
+  // If we don't, that's an error.
+  private Expr grouping() {
+    Expr expr = expression();
+    consume(RIGHT_PAREN, "Expect ')' after expression.");
+    return new Expr.Grouping(expr);
+  }
+
+  private boolean match(TokenType type) {
+    if (check(type)) {
+      advance();
+      return true;
     }
 
-    if (match(SUPER)) {
-      Token keyword = previous();
-      consume(DOT, "Expect '.' after 'super'.");
-      Token method = consume(IDENTIFIER, "Expect superclass method name.");
-      return new Expr.Super(keyword, method);
+    return false;
+  }
+
+  private boolean check(TokenType type) {
+    if (isAtEnd()) {
+      return false;
     }
+    return peek().type == type;
+  }
 
-    if (match(THIS)) {
-      return new Expr.This(previous());
+  // Matches a contextual keyword: an identifier spelled as the keyword and followed by a
+  // token of type "after", which can't follow a name that starts an expression. The
+  // matched token is given the keyword's type.
+  private boolean matchContextual(TokenType keyword, TokenType after) {
+    if (!checkContextual(keyword, after)) {
+      return false;
     }
+    Token token = advance();
+    previous = new Token(keyword, token.lexeme, null, token.line);
+    return true;
+  }
+
+  private boolean checkContextual(TokenType keyword, TokenType after) {
+    return check(IDENTIFIER) && peek().lexeme.equals(keyword.lexeme())
+        && peekNext().type == after;
+  }
 
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
+  private Token advance() {
+    if (!isAtEnd()) {
+      previous = next;
+      if (following != null) {
+        next = following;
+        following = null;
+      } else {
+        next = tokens.get();
+      }
     }
+    return previous();
+  }
 
-    // After matching '(', parse expression inside it and expect ')'.
-    // If we don't, that's an error.
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
+  private boolean isAtEnd() {
+    return peek().type == EOF;
+  }
+
+  private Token peek() {
+    return next;
+  }
+
+  private Token peekNext() {
+    if (isAtEnd()) {
+      return next;
+    }
+    if (following == null) {
+      following = tokens.get();
     }
+    return following;
+  }
 
-    throw error(peek(), "Expect expression."); // token cannot start expression
+  private Token previous() {
+    return previous;
   }
 
   private Token consume(TokenType type, String message) {
@@ -515,7 +746,12 @@ public class Parser {
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    hadError = true;
+    if (heldErrors != null) {
+      heldErrors.add(() -> reporter.error(token, message));
+    } else {
+      reporter.error(token, message);
+    }
     return new ParseError();
   }
 
@@ -527,6 +763,9 @@ public class Parser {
         return;
       }
 
+      if (checkContextual(IMPORT, STRING) || checkContextual(PARALLEL, FOR)) {
+        return;
+      }
       switch (peek().type) {
         case CLASS:
         case FUN:
@@ -0,0 +1,34 @@
+package lox.parser;
+
+/**
+ * Binding power of the Lox operators, from loosest to tightest.
+ *
+ * <p>
+ *   The {@link Parser} keeps one precedence per token type that can continue an
+ *   expression. Parsing at a given precedence consumes only operators that bind at least
+ *   that tightly, so the constants must stay in this order.
+ * </p>
+ */
+enum Precedence {
+  NONE,
+  ASSIGNMENT,  // =
+  OR,          // or
+  AND,         // and
+  EQUALITY,    // == !=
+  COMPARISON,  // < > <= >=
+  TERM,        // + -
+  FACTOR,      // * /
+  UNARY,       // ! -
+  CALL,        // . ()
+  PRIMARY;
+
+  private static final Precedence[] VALUES = values();
+
+  /**
+   * Returns the next tighter precedence, which is where the right operand of a
+   * left-associative operator is parsed.
+   */
+  Precedence next() {
+    return VALUES[ordinal() + 1];
+  }
+}
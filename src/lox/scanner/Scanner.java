@@ -2,44 +2,68 @@ package lox.scanner;
 
 import static lox.scanner.TokenType.*;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import lox.ErrorReporter;
 import lox.Lox;
 
 /**
  * Lox scanner.
  * The scanner takes in raw source code as a series of characters
  * and groups it into a series of chunks (tokens).
+ *
+ * <p>
+ *   Tokens are produced on demand by {@link #nextToken()}, so the parser can pull them one
+ *   at a time instead of holding the whole token list. Source read from a {@link Reader}
+ *   passes through a window that only holds the current batch of tokens plus one read's
+ *   worth of lookahead, which keeps memory bounded however large the file is.
+ * </p>
+ *
+ * <p>
+ *   A batch is scanned into a {@link TokenBuffer}, which records only each token's type,
+ *   position and line, so scanning allocates nothing. Keywords are recognized by a switch
+ *   on their characters instead of a map lookup on a substring. A {@link Token} is built
+ *   when the parser takes it: punctuation and keyword lexemes are shared constants,
+ *   identifiers are interned per scanner and number literals are parsed straight from the
+ *   window.
+ * </p>
  */
 public class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private static final int WINDOW = 8192;
+  private static final int BATCH = 1024;
+  // Powers of ten that are exact doubles, for parsing short number literals.
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  // The most significant digits whose value is still an exact double.
+  private static final int EXACT_DIGITS = 15;
+
+  private final Reader reader; // null once the whole source is in the window
+  private final ErrorReporter reporter;
+  // Source characters from offset "keep", where the current batch starts, up to "limit".
+  private char[] window;
+  private int limit;
+  private int keep = 0;
   private int start = 0;
   private int current = 0;
   private int line = 1;
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and",    AND);
-    keywords.put("class",  CLASS);
-    keywords.put("else",   ELSE);
-    keywords.put("false",  FALSE);
-    keywords.put("for",    FOR);
-    keywords.put("fun",    FUN);
-    keywords.put("if",     IF);
-    keywords.put("nil",    NIL);
-    keywords.put("or",     OR);
-    keywords.put("print",  PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super",  SUPER);
-    keywords.put("this",   THIS);
-    keywords.put("true",   TRUE);
-    keywords.put("var",    VAR);
-    keywords.put("while",  WHILE);
-  }
+  private Token eof = null;
+
+  // The current batch and how much of it the parser has taken.
+  private final TokenBuffer tokens = new TokenBuffer(BATCH);
+  private int next = 0;
+
+  // Open-addressing table of identifier lexemes seen so far.
+  private String[] symbols = new String[256];
+  private int symbolCount = 0;
 
   /**
    * Scanner constructor.
@@ -47,7 +71,50 @@ public class Scanner {
    * @param source the source code
    */
   public Scanner(String source) {
-    this.source = source;
+    this(source, Lox.CONSOLE);
+  }
+
+  /**
+   * Creates a scanner that reports lexical errors to the given reporter.
+   *
+   * @param source the source code
+   * @param reporter where to report errors
+   */
+  public Scanner(String source, ErrorReporter reporter) {
+    this.reader = null;
+    this.reporter = reporter;
+    this.window = source.toCharArray();
+    this.limit = window.length;
+  }
+
+  /**
+   * Creates a scanner that reads the source incrementally. The reader is not closed.
+   *
+   * @param reader the source code
+   * @param reporter where to report errors
+   */
+  public Scanner(Reader reader, ErrorReporter reporter) {
+    this.reader = reader;
+    this.reporter = reporter;
+    this.window = new char[WINDOW];
+    this.limit = 0;
+  }
+
+  /**
+   * Creates a scanner over a UTF-8 source file. The file is memory-mapped and decoded as
+   * the scanner advances, so neither its bytes nor its text are ever held in full.
+   *
+   * @param path the source file
+   * @param reporter where to report errors
+   * @return the scanner
+   * @throws IOException if the file can't be opened or mapped
+   */
+  public static Scanner mapFile(Path path, ErrorReporter reporter) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed.
+      return new Scanner(new Utf8Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+          channel.size())), reporter);
+    }
   }
 
   /**
@@ -62,16 +129,58 @@ public class Scanner {
    * @return a list of tokens representing the parsed source code
    */
   public List<Token> scanTokens() {
-    while (!isAtEnd()) {
+    List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = nextToken();
+      tokens.add(token);
+    } while (token.type != EOF);
+    return tokens;
+  }
+
+  /**
+   * Scans the next token. Once the source is exhausted, every call returns the same
+   * end-of-file token.
+   *
+   * @return the next token
+   * @throws UncheckedIOException if reading the source fails
+   */
+  public Token nextToken() {
+    if (next == tokens.size()) {
+      scanBatch();
+    }
+
+    if (next == tokens.size()) {
+      if (eof == null) {
+        eof = new Token(EOF, "", null, line);
+      }
+      return eof;
+    }
+    return token(next++);
+  }
+
+  // Replaces the consumed batch with the next one, which is empty only at the end.
+  private void scanBatch() {
+    tokens.clear();
+    next = 0;
+    keep = current;
+    while (!tokens.isFull() && !isAtEnd()) {
       // Beginning of the next lexeme.
       start = current;
+      if (tokens.size() == 0) {
+        // Nothing scanned yet needs the window; let whitespace and comments go.
+        keep = start;
+      }
       scanToken();
     }
+  }
 
-    tokens.add(new Token(TokenType.EOF, "", null, line));
-    return tokens;
+  private void error(String message) {
+    reporter.error(line, message);
   }
 
+  // Scans the lexeme starting at "start", adding a token unless it is whitespace, a
+  // comment or an error.
   private void scanToken() {
     char c = advance();
     switch (c) {
@@ -119,9 +228,14 @@ public class Scanner {
         break;
       case '/':
         if (match('/')) {
-          // Consume comment until the end of the line.
+          // Consume comment until the end of the line. It isn't kept, so don't let it
+          // hold on to the window.
           while (peek() != '\n' && !isAtEnd()) {
             advance();
+            start = current;
+            if (tokens.size() == 0) {
+              keep = start;
+            }
           }
         } else {
           addToken(SLASH);
@@ -144,7 +258,7 @@ public class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          error("Unexpected character.");
         }
         break;
     }
@@ -163,16 +277,85 @@ public class Scanner {
         advance();
       }
     }
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    addToken(NUMBER);
   }
 
   private void identifier() {
     while (isAlphaNumeric(peek())) {
       advance();
     }
-    String text = source.substring(start, current);
-    TokenType type = keywords.getOrDefault(text, IDENTIFIER);
-    addToken(type);
+    addToken(keyword());
+  }
+
+  // Returns the keyword spelled by the lexeme, or IDENTIFIER.
+  private TokenType keyword() {
+    int length = current - start;
+    switch (window[start]) {
+      case 'a':
+        return keyword(1, "nd", AND);
+      case 'c':
+        return keyword(1, "lass", CLASS);
+      case 'e':
+        return keyword(1, "lse", ELSE);
+      case 'f':
+        if (length > 1) {
+          switch (window[start + 1]) {
+            case 'a':
+              return keyword(2, "lse", FALSE);
+            case 'o':
+              return keyword(2, "r", FOR);
+            case 'u':
+              return keyword(2, "n", FUN);
+            default:
+              break;
+          }
+        }
+        break;
+      case 'i':
+        return keyword(1, "f", IF);
+      case 'n':
+        return keyword(1, "il", NIL);
+      case 'o':
+        return keyword(1, "r", OR);
+      case 'p':
+        return keyword(1, "rint", PRINT);
+      case 'r':
+        return keyword(1, "eturn", RETURN);
+      case 's':
+        return keyword(1, "uper", SUPER);
+      case 't':
+        if (length > 1) {
+          switch (window[start + 1]) {
+            case 'h':
+              return keyword(2, "is", THIS);
+            case 'r':
+              return keyword(2, "ue", TRUE);
+            default:
+              break;
+          }
+        }
+        break;
+      case 'v':
+        return keyword(1, "ar", VAR);
+      case 'w':
+        return keyword(1, "hile", WHILE);
+      default:
+        break;
+    }
+    return IDENTIFIER;
+  }
+
+  // Returns type if the lexeme continues with exactly "rest" from offset, or IDENTIFIER.
+  private TokenType keyword(int offset, String rest, TokenType type) {
+    if (current - start != offset + rest.length()) {
+      return IDENTIFIER;
+    }
+    for (int i = 0; i < rest.length(); i++) {
+      if (window[start + offset + i] != rest.charAt(i)) {
+        return IDENTIFIER;
+      }
+    }
+    return type;
   }
 
   private void string() {
@@ -184,30 +367,27 @@ public class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      error("Unterminated string.");
       return;
     }
 
     // The closing quote.
     advance();
-
-    // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    addToken(STRING);
   }
 
   private char peek() {
     if (isAtEnd()) {
       return '\0';
     }
-    return source.charAt(current);
+    return window[current];
   }
 
   private char peekNext() {
-    if (current + 1 >= source.length()) {
+    if (current + 1 >= limit && !fill()) {
       return  '\0';
     }
-    return source.charAt(current + 1);
+    return window[current + 1];
   }
 
   private boolean isDigit(char c) {
@@ -223,30 +403,167 @@ public class Scanner {
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return current >= limit && !fill();
   }
 
+  // Only called after peek() or isAtEnd() has made the character available.
   private char advance() {
-    return source.charAt(current++);
+    return window[current++];
   }
 
   private void addToken(TokenType type) {
-    addToken(type, null);
-  }
-
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    tokens.add(type, start - keep, current - start, line);
   }
 
   private boolean match(char expected) {
     if (isAtEnd()) {
       return false;
     }
-    if (source.charAt(current) != expected) {
+    if (window[current] != expected) {
       return false;
     }
     current++;
     return true;
   }
+
+  // Builds the token object for an entry of the current batch.
+  private Token token(int index) {
+    TokenType type = tokens.type(index);
+    int offset = keep + tokens.start(index);
+    int length = tokens.length(index);
+    int tokenLine = tokens.line(index);
+    switch (type) {
+      case IDENTIFIER:
+        return new Token(type, symbol(offset, length), null, tokenLine);
+      case NUMBER: {
+        String lexeme = new String(window, offset, length);
+        return new Token(type, lexeme, number(offset, length, lexeme), tokenLine);
+      }
+      case STRING: {
+        String lexeme = new String(window, offset, length);
+        // Trim the surrounding quotes.
+        return new Token(type, lexeme, lexeme.substring(1, length - 1), tokenLine);
+      }
+      default:
+        return new Token(type, type.lexeme, null, tokenLine);
+    }
+  }
+
+  /**
+   * Parses a number literal in the window. A literal of up to fifteen significant digits
+   * and twenty-two decimals is the quotient of two exact doubles, which one division
+   * rounds correctly; longer ones fall back to {@link Double#parseDouble}.
+   */
+  private double number(int offset, int length, String lexeme) {
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean fraction = false;
+    for (int i = offset; i < offset + length; i++) {
+      char c = window[i];
+      if (c == '.') {
+        fraction = true;
+        continue;
+      }
+      if (mantissa != 0 || c != '0') {
+        digits++;
+      }
+      mantissa = mantissa * 10 + (c - '0');
+      if (fraction) {
+        scale++;
+      }
+      if (digits > EXACT_DIGITS || scale >= POWERS_OF_TEN.length) {
+        return Double.parseDouble(lexeme);
+      }
+    }
+    return mantissa / POWERS_OF_TEN[scale];
+  }
+
+  // Returns the interned string for an identifier in the window.
+  private String symbol(int offset, int length) {
+    // The same hash as String.hashCode(), so rehashing can use the strings' own.
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + window[i];
+    }
+
+    int mask = symbols.length - 1;
+    int slot = hash & mask;
+    for (String symbol = symbols[slot]; symbol != null; symbol = symbols[slot]) {
+      if (symbol.length() == length && matches(symbol, offset)) {
+        return symbol;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    String symbol = new String(window, offset, length);
+    symbols[slot] = symbol;
+    if (++symbolCount * 2 > symbols.length) {
+      rehashSymbols();
+    }
+    return symbol;
+  }
+
+  private boolean matches(String symbol, int offset) {
+    for (int i = 0; i < symbol.length(); i++) {
+      if (symbol.charAt(i) != window[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void rehashSymbols() {
+    String[] old = symbols;
+    symbols = new String[old.length * 2];
+    int mask = symbols.length - 1;
+    for (String symbol : old) {
+      if (symbol != null) {
+        int slot = symbol.hashCode() & mask;
+        while (symbols[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        symbols[slot] = symbol;
+      }
+    }
+  }
+
+  /**
+   * Reads more of the source into the window, first dropping everything before the
+   * current batch and growing the window if the batch fills it.
+   *
+   * @return false if the source is exhausted
+   */
+  private boolean fill() {
+    if (reader == null) {
+      return false;
+    }
+
+    if (keep > 0) {
+      // Batch offsets are relative to "keep", so they survive the move.
+      System.arraycopy(window, keep, window, 0, limit - keep);
+      limit -= keep;
+      current -= keep;
+      start -= keep;
+      keep = 0;
+    }
+    // Leave room for at least a surrogate pair.
+    if (window.length - limit < 2) {
+      window = Arrays.copyOf(window, Math.max(WINDOW, window.length * 2));
+    }
+
+    try {
+      int read;
+      do {
+        read = reader.read(window, limit, window.length - limit);
+      } while (read == 0);
+      if (read < 0) {
+        return false;
+      }
+      limit += read;
+      return true;
+    } catch (IOException error) {
+      throw new UncheckedIOException(error);
+    }
+  }
 }
@@ -16,7 +16,7 @@ public class Token {
   public final Object literal;
   public final int line;
 
-  Token(TokenType type, String lexeme, Object literal, int line) {
+  public Token(TokenType type, String lexeme, Object literal, int line) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
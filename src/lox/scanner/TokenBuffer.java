@@ -0,0 +1,62 @@
+package lox.scanner;
+
+/**
+ * A batch of scanned tokens stored as parallel arrays.
+ *
+ * <p>
+ *   Each token is four ints: its type, where its lexeme starts, the lexeme's length and
+ *   its line. Lexeme offsets are relative to the start of the batch in the scanner's
+ *   window. Filling the buffer allocates nothing; {@link Scanner} builds a {@link Token}
+ *   object only when the parser asks for one.
+ * </p>
+ */
+final class TokenBuffer {
+  private final int[] types;
+  private final int[] starts;
+  private final int[] lengths;
+  private final int[] lines;
+  private int size = 0;
+
+  TokenBuffer(int capacity) {
+    types = new int[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+  }
+
+  void add(TokenType type, int start, int length, int line) {
+    types[size] = type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    lines[size] = line;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isFull() {
+    return size == types.length;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  TokenType type(int index) {
+    return TokenType.VALUES[types[index]];
+  }
+
+  int start(int index) {
+    return starts[index];
+  }
+
+  int length(int index) {
+    return lengths[index];
+  }
+
+  int line(int index) {
+    return lines[index];
+  }
+}
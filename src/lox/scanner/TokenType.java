@@ -10,20 +10,44 @@ package lox.scanner;
  */
 public enum TokenType {
   // Single-character tokens.
-  LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
-  COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
+  LEFT_PAREN("("), RIGHT_PAREN(")"), LEFT_BRACE("{"), RIGHT_BRACE("}"),
+  COMMA(","), DOT("."), MINUS("-"), PLUS("+"), SEMICOLON(";"), SLASH("/"), STAR("*"),
 
   // One or two character tokens.
-  BANG, BANG_EQUAL,
-  EQUAL, EQUAL_EQUAL,
-  GREATER, GREATER_EQUAL,
-  LESS, LESS_EQUAL,
+  BANG("!"), BANG_EQUAL("!="),
+  EQUAL("="), EQUAL_EQUAL("=="),
+  GREATER(">"), GREATER_EQUAL(">="),
+  LESS("<"), LESS_EQUAL("<="),
 
   // literals.
-  IDENTIFIER, STRING, NUMBER,
+  IDENTIFIER(null), STRING(null), NUMBER(null),
 
   // Keywords.
-  AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR,
-  PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
-  EOF
+  AND("and"), CLASS("class"), ELSE("else"), FALSE("false"), FUN("fun"), FOR("for"),
+  IF("if"), NIL("nil"), OR("or"), PRINT("print"), RETURN("return"), SUPER("super"),
+  THIS("this"), TRUE("true"), VAR("var"), WHILE("while"),
+
+  // Contextual keywords. The scanner reads these words as identifiers, so scripts may
+  // still use them as names, and the parser gives them these types where they start a
+  // statement.
+  IMPORT("import"), PARALLEL("parallel"),
+  EOF("");
+
+  static final TokenType[] VALUES = values();
+
+  // The lexeme of every token of this type, or null if it varies.
+  final String lexeme;
+
+  TokenType(String lexeme) {
+    this.lexeme = lexeme;
+  }
+
+  /**
+   * Returns the lexeme every token of this type has.
+   *
+   * @return the lexeme, or null for identifiers, literals and other varying tokens
+   */
+  public String lexeme() {
+    return lexeme;
+  }
 }
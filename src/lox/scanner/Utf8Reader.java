@@ -0,0 +1,51 @@
+package lox.scanner;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 text straight out of a byte buffer, typically a memory-mapped file.
+ *
+ * <p>
+ *   Bytes are decoded into the caller's array as it reads, so the file is never copied
+ *   onto the heap. Malformed input is replaced with U+FFFD, as {@code new String(bytes,
+ *   UTF_8)} would.
+ * </p>
+ */
+final class Utf8Reader extends Reader {
+  private final ByteBuffer bytes;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private boolean flushed = false;
+
+  Utf8Reader(ByteBuffer bytes) {
+    this.bytes = bytes;
+  }
+
+  @Override
+  public int read(char[] buffer, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+
+    CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+    if (bytes.hasRemaining()) {
+      decoder.decode(bytes, out, true);
+    }
+    if (!bytes.hasRemaining() && !flushed && out.hasRemaining()) {
+      flushed = decoder.flush(out).isUnderflow();
+    }
+
+    int read = out.position() - offset;
+    return read == 0 && flushed ? -1 : read;
+  }
+
+  @Override
+  public void close() {
+  }
+}
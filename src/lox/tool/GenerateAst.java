@@ -5,6 +5,7 @@ import java.io.PrintWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A utility class to generate abstract syntax tree (AST) classes for the Lox interpreter.
@@ -16,6 +17,19 @@ import java.util.List;
  * </p>
  */
 public class GenerateAst {
+  // Fields written once by the Resolver before the tree is executed.
+  private static final List<String> DEPTH = List.of(
+      "// Scopes between this use and the variable's declaration, or -1 for a",
+      "// global. Written once by the Resolver before the tree is executed.",
+      "public int depth = -1;");
+  private static final List<String> REDUCTION = List.of(
+      "// True if this accumulates into a variable declared outside the enclosing",
+      "// parallel for. Written once by the Resolver.",
+      "public boolean reduction = false;");
+  private static final List<String> REDUCTIONS = List.of(
+      "// The variables declared outside the loop that iterations accumulate into,",
+      "// resolved from the scope enclosing the loop. Written once by the Resolver.",
+      "public List<Expr.Variable> reductions = List.of();");
 
   /**
    * Generates AST classes for the Lox language.
@@ -43,22 +57,40 @@ public class GenerateAst {
         "This     : Token keyword",
         "Unary    : Token operator, Expr right",
         "Variable : Token name"
-    ));
+    ), Map.of(
+        "Assign", List.of(DEPTH, REDUCTION),
+        "Super", List.of(DEPTH),
+        "This", List.of(DEPTH),
+        "Variable", List.of(DEPTH)));
     defineAst(outputDir, "Stmt", Arrays.asList(
         "Block      : List<Stmt> statements",
         "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
         "Expression : Expr expression",
         "Function   : Token name, List<Token> params, List<Stmt> body",
         "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+        "Import     : Token keyword, Token path",
+        "ParallelFor : Token keyword, Token name, Expr start, Expr end, Stmt body",
         "Print      : Expr expression",
         "Return     : Token keyword, Expr value",
         "Var        : Token name, Expr initializer",
         "While      : Expr condition, Stmt body"
-    ));
+    ), Map.of(
+        "ParallelFor", List.of(REDUCTIONS)));
   }
 
-  private static void defineAst(String outputDir, String baseName, List<String> types)
-          throws IOException {
+  /**
+   * Writes the base class and one nested subclass per type.
+   *
+   * @param outputDir the directory to write the file into
+   * @param baseName the name of the base class
+   * @param types the subclass descriptions, "Name : Type field, ..."
+   * @param resolved the fields filled in by the Resolver, by the subclasses that carry
+   *                 them
+   * @throws IOException if there is an error writing the output file
+   */
+  private static void defineAst(String outputDir, String baseName, List<String> types,
+                                Map<String, List<List<String>>> resolved)
+      throws IOException {
     String path = outputDir + "/" + baseName + ".java";
     PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8);
 
@@ -75,7 +107,8 @@ public class GenerateAst {
     for (String type : types) {
       String className = type.split(":")[0].trim();
       String fields = type.split(":")[1].trim();
-      defineTypes(writer, baseName, className, fields);
+      defineTypes(writer, baseName, className, fields,
+          resolved.getOrDefault(className, List.of()));
     }
     // The base accept() method.
     writer.println();
@@ -85,7 +118,8 @@ public class GenerateAst {
   }
 
   private static void defineTypes(PrintWriter writer, String baseName,
-                                  String className, String fieldList) {
+                                  String className, String fieldList,
+                                  List<List<String>> resolved) {
     writer.println("  public static class " + className + " extends " + baseName + " {");
 
     // Constructor.
@@ -112,6 +146,12 @@ public class GenerateAst {
     for (String field : fields) {
       writer.println("    public final " + field + ";");
     }
+    for (List<String> field : resolved) {
+      writer.println();
+      for (String line : field) {
+        writer.println("    " + line);
+      }
+    }
 
     writer.println("  }");
     writer.println();